@@ -0,0 +1,50 @@
+package Simulation;
+
+import it.unipr.iotlab.iot2024.cf.client.LoadGenerator;
+
+/**
+ * This class runs the load generator against the local village servers (see ServerStartSim):
+ * visitors entering and leaving through the turnstiles, and pumps and mixers posting to the pools.
+ * Arguments: request rate per second (default 1000), duration in seconds (default 10),
+ * share of CON requests (default 0.5).
+ */
+public class LoadGeneratorSim {
+
+	private static final int RELAXING_LAGOON_PORT = 5683;
+	private static final int OLYMPIC_POOL_PORT = 5684;
+	private static final int CHILDREN_POOL_PORT = 5685;
+	private static final int ENTRANCE_PORT = 5686;
+	private static final int EXIT_PORT = 5687;
+
+	public static void main(String[] args) {
+
+		double rate = args.length > 0 ? Double.parseDouble(args[0]) : 1000;
+		long durationS = args.length > 1 ? Long.parseLong(args[1]) : 10;
+		double confirmableShare = args.length > 2 ? Double.parseDouble(args[2]) : 0.5;
+
+		try {
+			System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+			System.out.printf("Load: %.0f requests/s for %d s, %.0f%% CON%n%n", rate, durationS, confirmableShare * 100);
+
+			LoadGenerator.Report report = new LoadGenerator()
+					.addVisitors("entrance visitors", ENTRANCE_PORT, 6)
+					.addVisitors("exit visitors", EXIT_PORT, 2)
+					.addActuator("lagoon heating pump", RELAXING_LAGOON_PORT, "/ImmersionTempResource", "temperature", 24, 0.5)
+					.addActuator("lagoon chlorine mixer", RELAXING_LAGOON_PORT, "/ChlorineResource", "concentration", 1.5, 0.5)
+					.addActuator("olympic heating pump", OLYMPIC_POOL_PORT, "/ImmersionTempResource", "temperature", 26, 0.5)
+					.addActuator("children heating pump", CHILDREN_POOL_PORT, "/ImmersionTempResource", "temperature", 28, 0.5)
+					.setRate(rate)
+					.setDurationMs(durationS * 1000)
+					.setConfirmableShare(confirmableShare)
+					.run();
+
+			System.out.println(report);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		System.exit(0);
+
+	}
+
+}
@@ -1,25 +1,38 @@
-package Simulation;
-
-import it.unipr.iotlab.iot2024.cf.server.ChildrenPool;
-import it.unipr.iotlab.iot2024.cf.server.EntranceTurnstile;
-import it.unipr.iotlab.iot2024.cf.server.ExitTurnstile;
-import it.unipr.iotlab.iot2024.cf.server.OlympicSwimmingPool;
-import it.unipr.iotlab.iot2024.cf.server.RelaxingLagoon;
-
-public class ServerStartSim {
-
-	public static void main(String[] args) {
-		try {
-			RelaxingLagoon.main(args);
-			OlympicSwimmingPool.main(args);
-			ChildrenPool.main(args);
-			EntranceTurnstile.main(args);
-			ExitTurnstile.main(args);
-			
-		}catch(Exception e) {
-			e.printStackTrace();
-		}
-
-	}
-
-}
+package Simulation;
+
+import it.unipr.iotlab.iot2024.cf.server.ChildrenPool;
+import it.unipr.iotlab.iot2024.cf.server.EntranceTurnstile;
+import it.unipr.iotlab.iot2024.cf.server.ExitTurnstile;
+import it.unipr.iotlab.iot2024.cf.server.OlympicSwimmingPool;
+import it.unipr.iotlab.iot2024.cf.server.RelaxingLagoon;
+import it.unipr.iotlab.iot2024.cf.server.VillageHub;
+import it.unipr.iotlab.iot2024.cf.server.VillageLauncher;
+import it.unipr.iotlab.iot2024.cf.server.VillageProxy;
+import it.unipr.iotlab.iot2024.cf.server.store.OccupancyCounter;
+
+public class ServerStartSim {
+
+	public static void main(String[] args) {
+		try {
+			System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+			System.out.println("Starting the village servers...\n");
+			// Counter of the people inside the village, shared by the two turnstiles
+			OccupancyCounter occupancy = new OccupancyCounter();
+			// Start all the servers concurrently and wait until each one is ready
+			new VillageLauncher()
+				.add("Relaxing Lagoon", () -> new RelaxingLagoon(5683))
+				.add("Olympic Swimming Pool", () -> new OlympicSwimmingPool(5684))
+				.add("Children Pool", () -> new ChildrenPool(5685))
+				.add("Entrance Turnstile", () -> new EntranceTurnstile(5686, occupancy))
+				.add("Exit Turnstile", () -> new ExitTurnstile(5687, occupancy))
+				.add("Village Hub", () -> new VillageHub(VillageHub.DEFAULT_PORT).addVillageSources("127.0.0.1"))
+				.add("Village Proxy", () -> new VillageProxy(VillageProxy.DEFAULT_PORT).addVillageUpstreams("127.0.0.1"))
+				.launch();
+			
+		}catch(Exception e) {
+			e.printStackTrace();
+		}
+
+	}
+
+}
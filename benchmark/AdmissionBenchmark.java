@@ -0,0 +1,153 @@
+package it.unipr.iotlab.iot2024.cf.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+
+import it.unipr.iotlab.iot2024.cf.client.MemberClient;
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.AdmissionControl;
+import it.unipr.iotlab.iot2024.cf.server.HandlerExecutors;
+import it.unipr.iotlab.iot2024.cf.server.VillageServer;
+import it.unipr.iotlab.iot2024.cf.server.resources.PresenceResource;
+
+/**
+ * The AdmissionBenchmark class checks that the admission control of a PresenceResource turns a burst
+ * away with 5.03 Service Unavailable under its default limits, whatever the handler executor model.
+ * A burst of POSTs is sent to a turnstile whose handler takes BLOCK_MS (standing in for a slow disk),
+ * and the responses are counted by code together with the largest Max-Age retry hint. Then CLIENTS
+ * members enter at once through MemberClient.enteredMemberPOST, which waits for the jittered Max-Age
+ * of every 5.03 before sending again: the number of 5.03 answered meanwhile is printed, and every
+ * member must be registered in the end.
+ */
+public class AdmissionBenchmark {
+
+    // Port of the benchmarked server
+    private static final int PORT = 5699;
+    // Time each POST handler sleeps (in milliseconds)
+    private static final long BLOCK_MS = 20;
+    // Number of POSTs sent in each burst
+    private static final int REQUESTS = 500;
+    // Number of members entering at once through MemberClient
+    private static final int CLIENTS = 100;
+    // Executor models compared, in village.handlers notation
+    private static final String[] MODELS = {"inline", "fixed:8", "virtual"};
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+        System.out.printf("Admission control defaults: %d concurrent, queue %s, wait %s ms%n",
+                new AdmissionControl().getConcurrency(), System.getProperty(AdmissionControl.QUEUE_PROPERTY, "256"),
+                System.getProperty(AdmissionControl.WAIT_PROPERTY, "1000"));
+        System.out.printf("Burst: %d POSTs, %d ms each%n%n", REQUESTS, BLOCK_MS);
+
+        for (String model : MODELS) {
+            burst(model);
+        }
+        retry("inline");
+        Logger.flush();
+        System.exit(0);
+    }
+
+    /**
+     * Starts a turnstile with the given executor model and sends a burst of POSTs at once.
+     */
+    private static void burst(String model) throws Exception {
+        VillageServer server = new VillageServer(HandlerExecutors.fromSpec(model), PORT);
+        SlowPresenceResource resource = new SlowPresenceResource("PresenceResource");
+        server.add(resource);
+        server.start();
+
+        CoapClient client = new CoapClient("coap://127.0.0.1:" + PORT + "/PresenceResource");
+        client.setTimeout(60000L);
+        CountDownLatch done = new CountDownLatch(REQUESTS);
+        AtomicInteger changed = new AtomicInteger();
+        AtomicInteger unavailable = new AtomicInteger();
+        AtomicLong maxAge = new AtomicLong();
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            client.post(new CoapHandler() {
+                @Override
+                public void onLoad(CoapResponse response) {
+                    if (response.getCode() == CoAP.ResponseCode.CHANGED) {
+                        changed.incrementAndGet();
+                    } else if (response.getCode() == CoAP.ResponseCode.SERVICE_UNAVAILABLE) {
+                        unavailable.incrementAndGet();
+                        maxAge.accumulateAndGet(response.getOptions().getMaxAge(), Math::max);
+                    }
+                    done.countDown();
+                }
+
+                @Override
+                public void onError() {
+                    done.countDown();
+                }
+            }, Integer.toString(i), MediaTypeRegistry.TEXT_PLAIN);
+        }
+        done.await(120, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        AdmissionControl admission = resource.getAdmissionControl();
+        System.out.printf("%-8s 2.04 %4d   5.03 %4d (Max-Age up to %2d s)   max queued %4d   %5.1f s%n",
+                model, changed.get(), unavailable.get(), maxAge.get(), admission.getMaxQueued(), seconds);
+        client.shutdown();
+        server.destroy();
+    }
+
+    /**
+     * Starts a turnstile with the given executor model and lets CLIENTS members enter at once
+     * through MemberClient, which retries the POSTs answered 5.03.
+     */
+    private static void retry(String model) throws Exception {
+        VillageServer server = new VillageServer(HandlerExecutors.fromSpec(model), PORT);
+        SlowPresenceResource resource = new SlowPresenceResource("PresenceResource");
+        server.add(resource);
+        server.start();
+
+        ExecutorService members = Executors.newFixedThreadPool(CLIENTS);
+        long start = System.nanoTime();
+        for (int i = 0; i < CLIENTS; i++) {
+            int identifier = i;
+            members.execute(() -> MemberClient.enteredMemberPOST(identifier, PORT));
+        }
+        members.shutdown();
+        members.awaitTermination(120, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        CoapClient client = new CoapClient("coap://127.0.0.1:" + PORT + "/PresenceResource");
+        String registered = client.get().getResponseText();
+        System.out.printf("%nMemberClient retry: %d members, 5.03 answered %d times, %s registered in %.1f s%n",
+                CLIENTS, resource.getAdmissionControl().getRejected(), registered, seconds);
+        client.shutdown();
+        server.destroy();
+    }
+
+    /**
+     * Turnstile whose POST handler blocks, like a handler waiting on a disk.
+     */
+    private static final class SlowPresenceResource extends PresenceResource {
+
+        SlowPresenceResource(String name) {
+            super(name);
+        }
+
+        @Override
+        public void handlePOST(CoapExchange exchange) {
+            try {
+                Thread.sleep(BLOCK_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.handlePOST(exchange);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package it.unipr.iotlab.iot2024.cf.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.EndpointManager;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+
+import it.unipr.iotlab.iot2024.cf.client.ClientPool;
+import it.unipr.iotlab.iot2024.cf.server.VillageServer;
+import it.unipr.iotlab.iot2024.cf.server.metrics.LatencyHistogram;
+import it.unipr.iotlab.iot2024.cf.server.resources.PresenceResource;
+
+/**
+ * The ClientPoolBenchmark class measures the per-call overhead of the MemberClient calls, with a
+ * new CoapClient built for every call (as MemberClient did) and with the long-lived client of the
+ * ClientPool. GETs of the PresenceResource are issued asynchronously at a fixed rate, 10k calls per
+ * second by default, and for each variant the time and the bytes allocated by the calling thread
+ * per call are printed, with the rate achieved and the latency percentiles of the responses.
+ * <p>
+ * The arguments are the rate in calls per second (default 10000) and the duration of each run in
+ * seconds (default 3).
+ */
+public class ClientPoolBenchmark {
+
+    // Port of the benchmarked server
+    private static final int PORT = 5699;
+    // Path of the resource called
+    private static final String PATH = "/PresenceResource";
+
+    // Allocation counter of the JVM threads
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long durationMs = (args.length > 1 ? Long.parseLong(args[1]) : 3) * 1000;
+        // Do not track the message IDs for the exchange lifetime, which would exhaust them in seconds
+        NetworkConfig config = NetworkConfig.createStandardWithoutFile().setString(NetworkConfig.Keys.MID_TRACKER, "NULL");
+
+        VillageServer server = new VillageServer();
+        server.add(new PresenceResource("PresenceResource"));
+        server.addEndpoint(new CoapEndpoint.Builder().setPort(PORT).setNetworkConfig(config).build());
+        server.start();
+
+        // The clients built per call use the default endpoint: give it the same configuration as the pool
+        EndpointManager.getEndpointManager().setDefaultEndpoint(new CoapEndpoint.Builder().setNetworkConfig(config).build());
+        ClientPool pool = new ClientPool(config);
+        String uri = "coap://127.0.0.1:" + PORT + PATH;
+        Call perCall = handler -> new CoapClient(uri).advanced(handler, get());
+        Call pooled = handler -> pool.client(PORT, PATH).advanced(handler, get());
+
+        System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+        System.out.printf("%d calls/s for %d s%n", rate, durationMs / 1000);
+        System.out.printf("%-16s %10s %10s %12s %10s %10s%n", "Client", "ns/call", "B/call", "responses/s", "p50 ms", "p99 ms");
+        // Warm up both paths before measuring
+        run(perCall, rate, durationMs / 3);
+        run(pooled, rate, durationMs / 3);
+        print("new per call", run(perCall, rate, durationMs));
+        print("pooled", run(pooled, rate, durationMs));
+
+        pool.close();
+        server.destroy();
+        System.exit(0);
+    }
+
+    /**
+     * A way of issuing one asynchronous call.
+     */
+    @FunctionalInterface
+    private interface Call {
+        void issue(CoapHandler handler);
+    }
+
+    private static Request get() {
+        Request request = new Request(CoAP.Code.GET);
+        request.setConfirmable(true);
+        return request;
+    }
+
+    /**
+     * Issues calls at a fixed rate for a duration, then waits for the last responses.
+     */
+    private static Result run(Call call, int rate, long durationMs) throws InterruptedException {
+        Result result = new Result();
+        long threadId = Thread.currentThread().getId();
+        long period = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+        long next = start;
+        while (next < end) {
+            long now = System.nanoTime();
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            long sent = System.nanoTime();
+            call.issue(new CoapHandler() {
+                @Override
+                public void onLoad(CoapResponse response) {
+                    result.latency.record(System.nanoTime() - sent);
+                }
+
+                @Override
+                public void onError() {
+                    result.errors.incrementAndGet();
+                }
+            });
+            result.callNanos += System.nanoTime() - sent;
+            result.calls++;
+            next += period;
+        }
+        result.allocated = THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        result.seconds = (System.nanoTime() - start) / 1e9;
+        // Let the outstanding calls complete before the next run
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (result.latency.getCount() + result.errors.get() < result.calls && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return result;
+    }
+
+    private static void print(String name, Result result) {
+        long[] percentiles = result.latency.getPercentiles(0.5, 0.99);
+        System.out.printf("%-16s %10.0f %10.0f %12.0f %10.2f %10.2f%s%n", name, (double) result.callNanos / result.calls,
+                (double) result.allocated / result.calls, result.latency.getCount() / result.seconds,
+                percentiles[0] / 1e6, percentiles[1] / 1e6, result.errors.get() > 0 ? "   (" + result.errors.get() + " errors)" : "");
+    }
+
+    /**
+     * Measurements of one run.
+     */
+    private static final class Result {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+        private long calls;
+        private long callNanos;
+        private long allocated;
+        private double seconds;
+    }
+}
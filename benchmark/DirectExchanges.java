@@ -0,0 +1,198 @@
+package it.unipr.iotlab.iot2024.cf.benchmark;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.EmptyMessage;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.coap.Token;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.EndpointObserver;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.network.interceptors.MessageInterceptor;
+import org.eclipse.californium.core.observe.NotificationListener;
+import org.eclipse.californium.core.observe.ObserveRelation;
+import org.eclipse.californium.core.observe.ObservingEndpoint;
+import org.eclipse.californium.core.server.MessageDeliverer;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.elements.AddressEndpointContext;
+
+/**
+ * The DirectExchanges class builds server-side exchanges whose responses are handed to an
+ * endpoint that discards them, so the handlers of a resource can be measured without the
+ * network, the message layers or the protocol threads.
+ */
+final class DirectExchanges {
+
+    // Address of the simulated clients
+    private static final InetAddress CLIENT = InetAddress.getLoopbackAddress();
+    // Configuration of the discarding endpoint, not read from a file
+    private static final NetworkConfig CONFIG = NetworkConfig.createStandardWithoutFile();
+    // Endpoint discarding every message
+    static final DiscardingEndpoint ENDPOINT = new DiscardingEndpoint();
+
+    private DirectExchanges() {
+    }
+
+    /**
+     * Creates the exchange of a request received from a client.
+     *
+     * @param request the request, with the options and payload of the simulated client
+     * @param clientPort the port of the simulated client
+     * @return the exchange, answered through the discarding endpoint
+     */
+    static Exchange exchange(Request request, int clientPort) {
+        request.setSourceContext(new AddressEndpointContext(new InetSocketAddress(CLIENT, clientPort)));
+        if (!request.hasMID()) {
+            request.setMID(clientPort & 0xFFFF);
+        }
+        if (request.getToken() == null) {
+            request.setToken(Token.fromProvider(new byte[] {(byte) (clientPort >> 8), (byte) clientPort}));
+        }
+        Exchange exchange = new Exchange(request, Exchange.Origin.REMOTE, null);
+        exchange.setEndpoint(ENDPOINT);
+        return exchange;
+    }
+
+    /**
+     * Creates the CoapExchange passed to a handler of the resource.
+     *
+     * @param request the request
+     * @param resource the resource handling it
+     * @return the exchange of a client on the default port
+     */
+    static CoapExchange coapExchange(Request request, CoapResource resource) {
+        return new CoapExchange(exchange(request, 40000), resource);
+    }
+
+    /**
+     * Registers observers of a resource, as if each had sent a GET with the Observe option from
+     * a port of its own, and sends their first notification.
+     *
+     * @param resource the observable resource
+     * @param observers the number of observers to add
+     */
+    static void observe(CoapResource resource, int observers) {
+        for (int i = 0; i < observers; i++) {
+            Request request = Request.newGet();
+            request.getOptions().setObserve(0);
+            Exchange exchange = exchange(request, 10000 + i);
+            ObservingEndpoint observer = new ObservingEndpoint(new InetSocketAddress(CLIENT, 10000 + i));
+            ObserveRelation relation = new ObserveRelation(observer, resource, exchange);
+            observer.addObserveRelation(relation);
+            exchange.setRelation(relation);
+            resource.handleRequest(exchange);
+        }
+    }
+
+    /**
+     * An endpoint discarding the responses and empty messages it is asked to send.
+     */
+    static final class DiscardingEndpoint implements Endpoint {
+
+        // Number of responses discarded
+        private long responses;
+
+        long getResponses() {
+            return this.responses;
+        }
+
+        @Override
+        public void sendResponse(Exchange exchange, Response response) {
+            this.responses++;
+        }
+
+        @Override
+        public void sendEmptyMessage(Exchange exchange, EmptyMessage message) {
+        }
+
+        @Override
+        public void sendRequest(Request request) {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        public boolean isStarted() {
+            return true;
+        }
+
+        @Override
+        public void setExecutors(ScheduledExecutorService mainExecutor, ScheduledExecutorService secondaryExecutor) {
+        }
+
+        @Override
+        public void addObserver(EndpointObserver observer) {
+        }
+
+        @Override
+        public void removeObserver(EndpointObserver observer) {
+        }
+
+        @Override
+        public void addNotificationListener(NotificationListener listener) {
+        }
+
+        @Override
+        public void removeNotificationListener(NotificationListener listener) {
+        }
+
+        @Override
+        public void addInterceptor(MessageInterceptor interceptor) {
+        }
+
+        @Override
+        public void removeInterceptor(MessageInterceptor interceptor) {
+        }
+
+        @Override
+        public List<MessageInterceptor> getInterceptors() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void setMessageDeliverer(MessageDeliverer deliverer) {
+        }
+
+        @Override
+        public InetSocketAddress getAddress() {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), CoAP.DEFAULT_COAP_PORT);
+        }
+
+        @Override
+        public URI getUri() {
+            return URI.create("coap://127.0.0.1");
+        }
+
+        @Override
+        public NetworkConfig getConfig() {
+            return CONFIG;
+        }
+
+        @Override
+        public void cancelObservation(Token token) {
+        }
+    }
+}
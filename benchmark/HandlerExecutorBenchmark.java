@@ -0,0 +1,139 @@
+package it.unipr.iotlab.iot2024.cf.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+
+import it.unipr.iotlab.iot2024.cf.server.HandlerExecutors;
+import it.unipr.iotlab.iot2024.cf.server.VillageServer;
+
+/**
+ * The HandlerExecutorBenchmark class measures how a VillageServer copes with blocking handlers
+ * under each handler executor model. A burst of POSTs is sent to a resource whose handler blocks
+ * for BLOCK_MS (standing in for a slow persistence or validation step), while a GET on a second,
+ * non-blocking resource of the same server measures how much the other resources are stalled.
+ * Throughput and the GET latency are printed for the inline model (Californium protocol threads),
+ * fixed pools of platform threads and virtual threads (an elastic pool on JVMs before Java 21).
+ */
+public class HandlerExecutorBenchmark {
+
+    // Port of the benchmarked server
+    private static final int PORT = 5699;
+    // Time each blocking handler sleeps (in milliseconds)
+    private static final long BLOCK_MS = 20;
+    // Number of POSTs sent in each burst
+    private static final int REQUESTS = 500;
+    // Executor models compared, in village.handlers notation
+    private static final String[] MODELS = {"inline", "fixed:8", "fixed:64", "virtual"};
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+        System.out.printf("Blocking handlers: %d POSTs, %d ms each%n", REQUESTS, BLOCK_MS);
+        System.out.printf("Virtual threads supported: %b%n%n", HandlerExecutors.isVirtualThreadsSupported());
+
+        // Warm up the client and server code paths once
+        run("fixed:8", REQUESTS / 5);
+
+        for (String model : MODELS) {
+            Result result = run(model, REQUESTS);
+            System.out.printf("%-10s %8.1f req/s   completed %4d/%d   GET /fast during the burst: %6.1f ms%n",
+                    model, result.throughput, result.completed, REQUESTS, result.fastGetMs);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Starts a server with the given executor model, sends a burst of blocking POSTs and measures it.
+     */
+    private static Result run(String model, int requests) throws Exception {
+        ExecutorService executor = HandlerExecutors.fromSpec(model);
+        VillageServer server = new VillageServer(executor, PORT);
+        server.add(new BlockingResource("blocking"));
+        server.add(new CoapResource("fast") {
+            @Override
+            public void handleGET(CoapExchange exchange) {
+                exchange.respond("ok");
+            }
+        });
+        server.start();
+
+        CoapClient client = new CoapClient("coap://127.0.0.1:" + PORT + "/blocking");
+        client.setTimeout(60000L);
+        CoapClient fastClient = new CoapClient("coap://127.0.0.1:" + PORT + "/fast");
+        CountDownLatch done = new CountDownLatch(requests);
+        AtomicInteger completed = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            client.post(new CoapHandler() {
+                @Override
+                public void onLoad(CoapResponse response) {
+                    if (response.getCode() == CoAP.ResponseCode.CHANGED) {
+                        completed.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+
+                @Override
+                public void onError() {
+                    done.countDown();
+                }
+            }, Integer.toString(i), MediaTypeRegistry.TEXT_PLAIN);
+        }
+
+        // A request for another resource of the same server, sent while the burst is being handled
+        long getStart = System.nanoTime();
+        fastClient.get();
+        double fastGetMs = (System.nanoTime() - getStart) / 1e6;
+
+        done.await(120, TimeUnit.SECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        client.shutdown();
+        fastClient.shutdown();
+        server.destroy();
+
+        Result result = new Result();
+        result.completed = completed.get();
+        result.throughput = result.completed / seconds;
+        result.fastGetMs = fastGetMs;
+        return result;
+    }
+
+    /**
+     * Resource whose POST handler blocks, like a handler waiting on a disk or a remote service.
+     */
+    private static final class BlockingResource extends CoapResource {
+
+        BlockingResource(String name) {
+            super(name);
+        }
+
+        @Override
+        public void handlePOST(CoapExchange exchange) {
+            try {
+                Thread.sleep(BLOCK_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.respond(CoAP.ResponseCode.CHANGED);
+        }
+    }
+
+    /**
+     * Measurements of one burst.
+     */
+    private static final class Result {
+        int completed;
+        double throughput;
+        double fastGetMs;
+    }
+}
@@ -0,0 +1,127 @@
+package it.unipr.iotlab.iot2024.cf.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+
+import it.unipr.iotlab.iot2024.cf.log.Level;
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.metrics.LatencyHistogram;
+import it.unipr.iotlab.iot2024.cf.server.store.VisitorIdSet;
+
+/**
+ * The LoggingBenchmark class measures what logging costs a request handler. Several threads run
+ * the work of a PresenceResource POST handler (adding an identifier to a VisitorIdSet) followed by
+ * its log line, written either with System.out.println, as the handlers used to, or with the
+ * asynchronous Logger; the handler throughput and the latency of the log call are printed for each.
+ * Both write to a file, so the console does not slow down or clutter the comparison.
+ */
+public class LoggingBenchmark {
+
+    // Number of threads running handlers concurrently
+    private static final int THREADS = 4;
+    // Number of handler calls per thread
+    private static final int CALLS = 100000;
+    // Rate limit of the rate-limited logger (messages per second)
+    private static final int RATE_LIMIT = 1000;
+
+    public static void main(String[] args) throws Exception {
+        PrintStream console = System.out;
+        File file = File.createTempFile("village-log", ".txt");
+        file.deleteOnExit();
+
+        console.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+        console.printf("Handler logging: %d threads, %d calls each, output to %s%n%n", THREADS, CALLS, file);
+
+        // Warm up every code path once
+        run("println", CALLS / 10, file);
+        run("logger", CALLS / 10, file);
+
+        for (String mode : new String[] {"println", "logger", "logger-rate"}) {
+            Result result = run(mode, CALLS, file);
+            console.printf("%-12s %12.0f calls/s   log call p50 %7.2f us  p99 %8.2f us  max %9.1f us   written %7d  dropped %7d%n",
+                    mode, result.throughput, result.p50 / 1000.0, result.p99 / 1000.0, result.max / 1000.0,
+                    result.written, result.dropped);
+        }
+        System.setOut(console);
+        System.exit(0);
+    }
+
+    /**
+     * Runs the handlers of every thread with the given logging mode and measures them.
+     */
+    private static Result run(String mode, int calls, File file) throws InterruptedException, IOException {
+        PrintStream console = System.out;
+        PrintStream output = new PrintStream(new FileOutputStream(file), true);
+        Logger logger = Logger.get("LoggingBenchmark-" + mode).setLevel(Level.INFO)
+                .setRateLimit(mode.equals("logger-rate") ? RATE_LIMIT : 0);
+        if (mode.equals("println")) {
+            System.setOut(output);
+        } else {
+            Logger.setOutput(output);
+        }
+        long writtenBefore = Logger.getWritten();
+        long droppedBefore = Logger.getDropped();
+
+        VisitorIdSet visitors = new VisitorIdSet();
+        LatencyHistogram latency = new LatencyHistogram();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            int first = t * calls;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int identifier = first; identifier < first + calls; identifier++) {
+                    visitors.add(identifier);
+                    long before = System.nanoTime();
+                    if (mode.equals("println")) {
+                        System.out.println("Added new identifier: " + identifier + "\n");
+                    } else {
+                        logger.log(Level.INFO, "Added new identifier: {}\n", identifier);
+                    }
+                    latency.record(System.nanoTime() - before);
+                }
+                done.countDown();
+            });
+            thread.start();
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - began;
+
+        // Wait for the background thread, so the next run starts with an empty ring
+        Logger.flush();
+        System.setOut(console);
+        output.close();
+
+        Result result = new Result();
+        result.throughput = (double) THREADS * calls / (elapsed / 1e9);
+        long[] percentiles = latency.getPercentiles(0.5, 0.99);
+        result.p50 = percentiles[0];
+        result.p99 = percentiles[1];
+        result.max = latency.getMax();
+        result.written = mode.equals("println") ? (long) THREADS * calls : Logger.getWritten() - writtenBefore;
+        result.dropped = Logger.getDropped() - droppedBefore;
+        return result;
+    }
+
+    /**
+     * Measurements of one run.
+     */
+    private static final class Result {
+        private double throughput;
+        private long p50;
+        private long p99;
+        private long max;
+        private long written;
+        private long dropped;
+    }
+}
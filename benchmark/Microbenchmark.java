@@ -0,0 +1,114 @@
+package it.unipr.iotlab.iot2024.cf.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * The Microbenchmark class is a small harness for single-threaded microbenchmarks. An operation is
+ * warmed up, then run for a number of timed iterations; the average time per operation, its
+ * spread across the iterations and the bytes allocated per operation (counted by the JVM for the
+ * benchmark thread) are printed on one line.
+ * <p>
+ * The durations are set with the village.bench.warmupMs, village.bench.iterationMs and
+ * village.bench.iterations system properties.
+ */
+final class Microbenchmark {
+
+    // Time spent warming up each operation (in milliseconds)
+    private static final long WARMUP_MS = Long.getLong("village.bench.warmupMs", 500);
+    // Duration of each timed iteration (in milliseconds)
+    private static final long ITERATION_MS = Long.getLong("village.bench.iterationMs", 300);
+    // Number of timed iterations
+    private static final int ITERATIONS = Integer.getInteger("village.bench.iterations", 5);
+    // Number of operations run between two reads of the clock
+    private static final int BATCH = 64;
+
+    // Allocation counter of the JVM threads
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Sum of the operation results, read after the run so the operations are not optimized away
+    private static long sink;
+
+    /**
+     * An operation to measure.
+     */
+    @FunctionalInterface
+    interface Operation {
+
+        /**
+         * Runs the operation once.
+         *
+         * @param invocation the number of the invocation, e.g. to vary the input
+         * @return any value depending on the work done, consumed by the harness
+         * @throws Exception if the operation fails, which ends the benchmark
+         */
+        long run(int invocation) throws Exception;
+    }
+
+    private Microbenchmark() {
+    }
+
+    /**
+     * Prints the header of the result table.
+     */
+    static void printHeader() {
+        System.out.printf("%-52s %12s %9s %12s%n", "Benchmark", "ns/op", "error", "B/op");
+    }
+
+    /**
+     * Measures an operation and prints its result line.
+     *
+     * @param name the name of the benchmark
+     * @param operation the operation to measure
+     * @throws Exception if the operation fails
+     */
+    static void run(String name, Operation operation) throws Exception {
+        int invocation = 0;
+        long deadline = System.nanoTime() + WARMUP_MS * 1_000_000L;
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < BATCH; i++) {
+                sink += operation.run(invocation++);
+            }
+        }
+
+        long threadId = Thread.currentThread().getId();
+        double[] nanosPerOp = new double[ITERATIONS];
+        long operations = 0;
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            long count = 0;
+            long start = System.nanoTime();
+            long end = start + ITERATION_MS * 1_000_000L;
+            long now;
+            do {
+                for (int i = 0; i < BATCH; i++) {
+                    sink += operation.run(invocation++);
+                }
+                count += BATCH;
+                now = System.nanoTime();
+            } while (now < end);
+            nanosPerOp[iteration] = (double) (now - start) / count;
+            operations += count;
+        }
+        long allocated = THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        double mean = 0;
+        for (double value : nanosPerOp) {
+            mean += value / ITERATIONS;
+        }
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean) / ITERATIONS;
+        }
+        System.out.printf("%-52s %12.1f %8.1f%% %12.1f%n", name, mean, 100 * Math.sqrt(variance) / mean,
+                (double) allocated / operations);
+    }
+
+    /**
+     * Returns the sum of the operation results, to print once at the end of a suite.
+     * @return the consumed value
+     */
+    static long sink() {
+        return sink;
+    }
+}
@@ -0,0 +1,104 @@
+package it.unipr.iotlab.iot2024.cf.benchmark;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.Type;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+
+import it.unipr.iotlab.iot2024.cf.server.VillageServer;
+import it.unipr.iotlab.iot2024.cf.server.loopback.LoopbackNetwork;
+import it.unipr.iotlab.iot2024.cf.server.resources.ChlorineResource;
+
+/**
+ * The TransportBenchmark class compares the throughput of a village server reached through UDP
+ * sockets on 127.0.0.1 and through the in-memory loopback network (see LoopbackNetwork). A client
+ * endpoint keeps a fixed number of GETs of the chlorine resource outstanding, as CON and as NON,
+ * and the completed requests per second are printed for each transport; the difference is the
+ * cost of the kernel network stack, the rest is spent in Californium and the resource.
+ * <p>
+ * The arguments are the duration of each run in seconds (default 5) and the number of outstanding
+ * requests (default 64).
+ */
+public class TransportBenchmark {
+
+    // Port of the benchmarked server, on UDP and on the loopback network
+    private static final int PORT = 5699;
+
+    public static void main(String[] args) throws Exception {
+        long durationMs = (args.length > 0 ? Long.parseLong(args[0]) : 5) * 1000;
+        int window = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        // Do not track the message IDs for the exchange lifetime, which would exhaust them in seconds
+        NetworkConfig config = NetworkConfig.createStandardWithoutFile().setString(NetworkConfig.Keys.MID_TRACKER, "NULL");
+
+        // One server listening on both transports
+        VillageServer server = new VillageServer();
+        server.add(new ChlorineResource("ChlorineResource"));
+        server.addEndpoint(new CoapEndpoint.Builder().setPort(PORT).setNetworkConfig(config).build());
+        server.addEndpoint(LoopbackNetwork.getDefault().createEndpoint(PORT, config));
+        server.start();
+
+        Endpoint udp = new CoapEndpoint.Builder().setNetworkConfig(config).build();
+        Endpoint loopback = LoopbackNetwork.getDefault().createClientEndpoint(config);
+        udp.start();
+        loopback.start();
+
+        System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+        System.out.printf("%-24s %14s%n", "Transport", "requests/s");
+        for (Type type : new Type[] {Type.CON, Type.NON}) {
+            // Warm up both paths before measuring
+            run(udp, type, window, durationMs / 2);
+            run(loopback, type, window, durationMs / 2);
+            System.out.printf("%-24s %14.0f%n", "udp " + type, run(udp, type, window, durationMs));
+            System.out.printf("%-24s %14.0f%n", "loopback " + type, run(loopback, type, window, durationMs));
+        }
+        System.out.println("\n(loopback datagrams: " + LoopbackNetwork.getDefault().getDelivered() + " delivered, "
+                + LoopbackNetwork.getDefault().getLost() + " lost)");
+        server.destroy();
+        System.exit(0);
+    }
+
+    /**
+     * Keeps a number of GETs outstanding through a client endpoint for a duration.
+     *
+     * @return the completed requests per second
+     */
+    private static double run(Endpoint client, Type type, int window, long durationMs) throws InterruptedException {
+        Semaphore outstanding = new Semaphore(window);
+        AtomicLong completed = new AtomicLong();
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        while (System.nanoTime() < end) {
+            if (!outstanding.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                continue;
+            }
+            Request request = new Request(Code.GET, type);
+            request.setURI("coap://127.0.0.1:" + PORT + "/ChlorineResource");
+            request.addMessageObserver(new MessageObserverAdapter() {
+                @Override
+                public void onResponse(Response response) {
+                    completed.incrementAndGet();
+                    outstanding.release();
+                }
+
+                @Override
+                protected void failed() {
+                    outstanding.release();
+                }
+            });
+            client.sendRequest(request);
+        }
+        long count = completed.get();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        // Let the outstanding requests complete before the next run
+        outstanding.tryAcquire(window, 5, TimeUnit.SECONDS);
+        return count / seconds;
+    }
+}
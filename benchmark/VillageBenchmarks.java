@@ -0,0 +1,204 @@
+package it.unipr.iotlab.iot2024.cf.benchmark;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+
+import com.google.gson.Gson;
+
+import it.unipr.iotlab.iot2024.cf.log.Level;
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.codec.Cbor;
+import it.unipr.iotlab.iot2024.cf.server.codec.ValueCodec;
+import it.unipr.iotlab.iot2024.cf.server.resources.ChlorineResource;
+import it.unipr.iotlab.iot2024.cf.server.resources.ImmersionTempResource;
+import it.unipr.iotlab.iot2024.cf.server.resources.PresenceResource;
+import it.unipr.iotlab.iot2024.cf.server.sensors.ChlorineSensor;
+import it.unipr.iotlab.iot2024.cf.server.sensors.ImmersionTempSensor;
+
+/**
+ * The VillageBenchmarks class is the baseline suite of microbenchmarks of the village code, to
+ * compare each optimization against. It measures, per operation, the time and the bytes allocated:
+ * <ul>
+ * <li>GET and POST handling of ChlorineResource and ImmersionTempResource, in JSON and CBOR;</li>
+ * <li>Gson encoding and decoding of ChlorineSensor and ImmersionTempSensor, and the ValueCodec
+ * JSON and CBOR payloads the resources actually exchange;</li>
+ * <li>PresenceResource inserts and count GETs with 1k, 100k and 1M registered visitors;</li>
+ * <li>the notification of a change to 1, 100 and 10k observers.</li>
+ * </ul>
+ * The handlers are called directly with exchanges answered through a discarding endpoint (see
+ * DirectExchanges), so the results exclude the network and the Californium message layers.
+ * A substring of the benchmark names can be passed as argument to run only those benchmarks,
+ * e.g. "Presence".
+ */
+public class VillageBenchmarks {
+
+    // Sizes of the visitor set the PresenceResource benchmarks run at
+    private static final int[] PRESENCE_SIZES = {1_000, 100_000, 1_000_000};
+    // Numbers of observers the notification benchmarks run with
+    private static final int[] OBSERVERS = {1, 100, 10_000};
+
+    // Substring selecting the benchmarks to run
+    private static String filter = "";
+
+    public static void main(String[] args) throws Exception {
+        filter = args.length > 0 ? args[0] : "";
+        // Keep the log lines of the handlers out of the measurements
+        Logger.get(PresenceResource.class).setLevel(Level.OFF);
+
+        System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+        Microbenchmark.printHeader();
+        resourceBenchmarks();
+        codecBenchmarks();
+        presenceBenchmarks();
+        notificationBenchmarks();
+        System.out.println("\n(consumed " + Microbenchmark.sink() + ")");
+        System.exit(0);
+    }
+
+    /**
+     * GET and POST handling of the chlorine and temperature resources.
+     */
+    private static void resourceBenchmarks() throws Exception {
+        CoapResource[] resources = {new ChlorineResource("ChlorineResource"), new ImmersionTempResource("ImmersionTempResource")};
+        String[] names = {"concentration", "temperature"};
+        for (int r = 0; r < resources.length; r++) {
+            CoapResource resource = resources[r];
+            String prefix = resource.getName() + ".";
+            for (int format : new int[] {MediaTypeRegistry.APPLICATION_JSON, MediaTypeRegistry.APPLICATION_CBOR}) {
+                String suffix = format == MediaTypeRegistry.APPLICATION_JSON ? " json" : " cbor";
+                run(prefix + "GET" + suffix, i -> {
+                    Request request = Request.newGet();
+                    request.getOptions().setAccept(format);
+                    resource.handleGET(DirectExchanges.coapExchange(request, resource));
+                    return request.getMID();
+                });
+                byte[][] payloads = new byte[8][];
+                for (int v = 0; v < payloads.length; v++) {
+                    payloads[v] = ValueCodec.encode(format, names[r], null, 20 + v * 0.5);
+                }
+                run(prefix + "POST" + suffix, i -> {
+                    Request request = Request.newPost();
+                    request.getOptions().setContentFormat(format);
+                    request.setPayload(payloads[i & 7]);
+                    resource.handlePOST(DirectExchanges.coapExchange(request, resource));
+                    return request.getMID();
+                });
+            }
+        }
+    }
+
+    /**
+     * Encoding and decoding of the sensor state.
+     */
+    private static void codecBenchmarks() throws Exception {
+        Gson gson = new Gson();
+        ChlorineSensor chlorine = new ChlorineSensor();
+        chlorine.setConcentration(1.5);
+        ImmersionTempSensor temperature = new ImmersionTempSensor();
+        temperature.setTemperature(24.5);
+        String chlorineJson = gson.toJson(chlorine);
+        String temperatureJson = gson.toJson(temperature);
+
+        run("Gson.encode ChlorineSensor", i -> gson.toJson(chlorine).length());
+        run("Gson.decode ChlorineSensor", i -> (long) gson.fromJson(chlorineJson, ChlorineSensor.class).getConcentration());
+        run("Gson.encode ImmersionTempSensor", i -> gson.toJson(temperature).length());
+        run("Gson.decode ImmersionTempSensor", i -> (long) gson.fromJson(temperatureJson, ImmersionTempSensor.class).getTemperature());
+
+        for (int format : new int[] {MediaTypeRegistry.APPLICATION_JSON, MediaTypeRegistry.APPLICATION_CBOR,
+                MediaTypeRegistry.APPLICATION_SENML_JSON, MediaTypeRegistry.APPLICATION_SENML_CBOR}) {
+            String name = MediaTypeRegistry.toString(format);
+            byte[] payload = ValueCodec.encode(format, "temperature", null, temperature.getTemperature());
+            run("ValueCodec.encode " + name, i -> ValueCodec.encode(format, "temperature", null, temperature.getTemperature()).length);
+            run("ValueCodec.decode " + name, i -> (long) ValueCodec.decode(format, payload, "temperature"));
+        }
+    }
+
+    /**
+     * Inserts and count GETs of the presence resource at growing sizes.
+     */
+    private static void presenceBenchmarks() throws Exception {
+        for (int size : PRESENCE_SIZES) {
+            if (!selected("PresenceResource." + size)) {
+                continue;
+            }
+            PresenceResource resource = new PresenceResource("PresenceResource");
+            preload(resource, size);
+
+            int[] next = {size};
+            run("PresenceResource." + size + " POST insert", i -> {
+                Request request = Request.newPost();
+                request.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN);
+                request.setPayload(Integer.toString(next[0]++).getBytes(StandardCharsets.US_ASCII));
+                resource.handlePOST(DirectExchanges.coapExchange(request, resource));
+                return request.getMID();
+            });
+            run("PresenceResource." + size + " POST duplicate", i -> {
+                Request request = Request.newPost();
+                request.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN);
+                request.setPayload(Integer.toString(i % size).getBytes(StandardCharsets.US_ASCII));
+                resource.handlePOST(DirectExchanges.coapExchange(request, resource));
+                return request.getMID();
+            });
+            run("PresenceResource." + size + " GET count", i -> {
+                Request request = Request.newGet();
+                resource.handleGET(DirectExchanges.coapExchange(request, resource));
+                return request.getMID();
+            });
+        }
+    }
+
+    /**
+     * Registers the identifiers 0 to size - 1 with batch POSTs of 10k identifiers.
+     */
+    private static void preload(PresenceResource resource, int size) {
+        for (int from = 0; from < size; from += 10_000) {
+            int to = Math.min(size, from + 10_000);
+            Cbor.Writer writer = new Cbor.Writer();
+            writer.array(to - from);
+            for (int id = from; id < to; id++) {
+                writer.integer(id);
+            }
+            Request request = Request.newPost();
+            request.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_CBOR);
+            request.setPayload(writer.toByteArray());
+            resource.handlePOST(DirectExchanges.coapExchange(request, resource));
+        }
+    }
+
+    /**
+     * Notification of a change to a growing number of observers.
+     */
+    private static void notificationBenchmarks() throws Exception {
+        for (int observers : OBSERVERS) {
+            String name = "ImmersionTempResource.changed " + observers + " observers";
+            if (!selected(name)) {
+                continue;
+            }
+            ImmersionTempResource resource = new ImmersionTempResource("ImmersionTempResource");
+            DirectExchanges.observe(resource, observers);
+            if (resource.getObserverCount() != observers) {
+                throw new IllegalStateException("Expected " + observers + " observers, found " + resource.getObserverCount());
+            }
+            run(name, i -> {
+                resource.changed();
+                return resource.getObserverCount();
+            });
+        }
+    }
+
+    /**
+     * Runs a benchmark if its name contains the filter.
+     */
+    private static void run(String name, Microbenchmark.Operation operation) throws Exception {
+        if (selected(name)) {
+            Microbenchmark.run(name, operation);
+        }
+    }
+
+    private static boolean selected(String name) {
+        return name.contains(filter);
+    }
+}
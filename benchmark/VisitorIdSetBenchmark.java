@@ -0,0 +1,131 @@
+package it.unipr.iotlab.iot2024.cf.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import it.unipr.iotlab.iot2024.cf.server.store.VisitorIdSet;
+
+/**
+ * The VisitorIdSetBenchmark class compares the VisitorIdSet used by PresenceResource
+ * with the ArrayList of boxed Integers it replaced. Both structures are filled with
+ * one million visitor identifiers, then insert time, lookup time and retained heap are printed.
+ * Run with a fixed heap (e.g. -Xms1g -Xmx1g) to keep the heap figures stable.
+ */
+public class VisitorIdSetBenchmark {
+
+    // Number of visitor identifiers inserted into each structure
+    private static final int VISITORS = 1_000_000;
+    // Number of membership checks on the list (each one is a linear scan)
+    private static final int LIST_LOOKUPS = 1_000;
+    // Number of rounds executed before measuring, to let the JIT compile the hot paths
+    private static final int WARMUP_ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int[] ids = shuffledIds(VISITORS, 42);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            fillList(ids);
+            fillSet(ids);
+        }
+
+        System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+        System.out.printf("Visitor identifiers: %,d%n%n", VISITORS);
+
+        // ArrayList<Integer>, the structure previously used by PresenceResource
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        List<Integer> list = fillList(ids);
+        long insertNs = System.nanoTime() - start;
+        long listHeap = usedHeap() - heapBefore;
+
+        start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < LIST_LOOKUPS; i++) {
+            if (list.contains(ids[(i * 7919) % VISITORS])) {
+                found++;
+            }
+        }
+        long lookupNs = System.nanoTime() - start;
+        report("ArrayList<Integer>", insertNs, lookupNs / LIST_LOOKUPS, listHeap, list.size(), found);
+        list = null;
+
+        // VisitorIdSet, the primitive open-addressing set
+        heapBefore = usedHeap();
+        start = System.nanoTime();
+        VisitorIdSet set = fillSet(ids);
+        insertNs = System.nanoTime() - start;
+        long setHeap = usedHeap() - heapBefore;
+
+        start = System.nanoTime();
+        found = 0;
+        for (int id : ids) {
+            if (set.contains(id)) {
+                found++;
+            }
+        }
+        lookupNs = System.nanoTime() - start;
+        report("VisitorIdSet", insertNs, lookupNs / VISITORS, setHeap, set.size(), found);
+
+        // Duplicate detection: re-inserting every identifier must be rejected
+        int duplicates = 0;
+        for (int id : ids) {
+            if (!set.add(id)) {
+                duplicates++;
+            }
+        }
+        System.out.printf("Duplicates rejected by VisitorIdSet: %,d of %,d%n", duplicates, VISITORS);
+        System.out.printf("Heap ratio (set / list): %.2f%n", (double) setHeap / listHeap);
+    }
+
+    private static List<Integer> fillList(int[] ids) {
+        List<Integer> list = new ArrayList<>();
+        for (int id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static VisitorIdSet fillSet(int[] ids) {
+        VisitorIdSet set = new VisitorIdSet();
+        for (int id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    /**
+     * Creates distinct identifiers in random order; sequential ids would favour
+     * the Integer cache and give the list an unrealistic advantage on small values.
+     */
+    private static int[] shuffledIds(int count, long seed) {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = 100_000 + i * 3;
+        }
+        Random random = new Random(seed);
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = ids[i];
+            ids[i] = ids[j];
+            ids[j] = tmp;
+        }
+        return ids;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void report(String name, long insertNs, long lookupNs, long heapBytes, int size, int found) {
+        System.out.printf("%s%n", name);
+        System.out.printf("  insert total : %,d ms%n", insertNs / 1_000_000);
+        System.out.printf("  lookup       : %,d ns/op (%,d hits)%n", lookupNs, found);
+        System.out.printf("  heap         : %,d KB (%.1f bytes/id, %,d ids)%n%n",
+                heapBytes / 1024, (double) heapBytes / size, size);
+    }
+}
@@ -1,103 +1,187 @@
-package it.unipr.iotlab.iot2024.cf.client;
-
-import org.eclipse.californium.core.CoapClient;
-import org.eclipse.californium.core.CoapHandler;
-import org.eclipse.californium.core.CoapResponse;
-import org.eclipse.californium.core.coap.CoAP;
-import org.eclipse.californium.core.coap.Request;
-
-import com.google.gson.Gson;
-
-import it.unipr.iotlab.iot2024.cf.server.sensors.ChlorineSensor;
-
-/**
- * The ChlorineMixer class is a CoAP client that interacts with a ChlorineResource
- * to monitor and adjust the chlorine concentration in a system. It observes the chlorine
- * resource, checks if the concentration falls below a specified threshold, and if so,
- * it sends POST requests to increase the concentration to an ideal value.
- */
-public class ChlorineMixer {
-
-    // Base CoAP endpoint URL
-    private static final String COAP_ENDPOINT = "coap://127.0.0.1:";
-    // Resource path for the ChlorineResource
-    private static final String RESOURCE_NAME = "/ChlorineResource";
-    // Chlorine concentration threshold below which the mixer activates
-    private static double threshold = 0.6;
-    // Ideal chlorine concentration to which the system aims to raise the level
-    private static double idealChlorine = 1.5;
-
-    /**
-     * Main method to start the CoAP client, observe chlorine concentration changes, and adjust 
-     * the chlorine concentration based on the received data.
-     *
-     * @param args command-line arguments
-     * @param port the port number on which the CoAP server is running
-     */
-    public static void main(String[] args, int port) {
-        String endpoint = COAP_ENDPOINT + port + RESOURCE_NAME;
-        CoapClient chlorineMixer = new CoapClient(endpoint);
-        Gson gson = new Gson();
-        
-        // Create an instance of ChlorineSensor to manage concentration data
-        ChlorineSensor chlorineSensor = new ChlorineSensor();
-    
-        // Set up an observer for the ChlorineResource
-        chlorineMixer.observe(new CoapHandler() {
-
-            @Override
-            public void onLoad(CoapResponse response) {
-                // Handle the response from the CoAP server
-                String tmpPayload = new String(response.getResponseText());
-                int port = response.advanced().getSourcePort();
-                
-                System.out.println("Received Concentration: " + tmpPayload + " from "+ port + "\n");
-                
-                // Convert the JSON response to a ChlorineSensor object
-                ChlorineSensor tmp = gson.fromJson(tmpPayload, ChlorineSensor.class);
-                chlorineSensor.setConcentration(tmp.getConcentration());
-                System.out.println("Received Observable Concentration: " + chlorineSensor.getConcentration() + "\n");
-                
-                // Check if the received concentration is below the threshold
-                if (chlorineSensor.getConcentration() < threshold) {
-                    System.out.println("Received Concentration is below threshold.\n");
-                    
-                    // Increment the concentration until it reaches the ideal value
-                    for (double i = chlorineSensor.getConcentration(); i < idealChlorine; i += 0.1) {
-                        chlorineSensor.setConcentration(i);
-                        
-                        // Create a POST request to update the chlorine concentration
-                        Request request = new Request(CoAP.Code.POST);
-                        request.setConfirmable(true);
-                        String payload = gson.toJson(chlorineSensor);
-                        request.setPayload(payload.getBytes());
-                        
-                        try {
-                            // Send the POST request
-                            chlorineMixer.advanced(request);
-                            System.out.println("Posted new Concentration: " + chlorineSensor.getConcentration() + " on "+ port +"\n");
-                        } catch (Exception e) {
-                            System.out.println("ERROR in sending POST.\n");
-                            e.printStackTrace();
-                        }
-                    }
-                }
-            }
-
-            @Override
-            public void onError() {
-                // Handle errors that occur during observation
-                System.err.println("Error occurred while observing the resource.");
-            }
-        });
-        
-        // Keep the client running to continue observing the resource
-        try {
-            Thread.sleep(300000); // Observe for 5 minutes
-        } catch (InterruptedException e) {
-            e.printStackTrace(); // Handle the interruption exception
-        }
-    }
-}
-
-
+package it.unipr.iotlab.iot2024.cf.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+
+import it.unipr.iotlab.iot2024.cf.log.Level;
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.codec.ValueCodec;
+import it.unipr.iotlab.iot2024.cf.server.resources.SetpointRamp;
+import it.unipr.iotlab.iot2024.cf.server.sensors.ChlorineSensor;
+
+/**
+ * The ChlorineMixer class is a CoAP client that interacts with a ChlorineResource
+ * to monitor and adjust the chlorine concentration in a system. It observes the chlorine
+ * resource, checks if the concentration falls below a specified threshold, and if so,
+ * it asks the resource, with a single POST, to ramp the concentration up to an ideal value.
+ */
+public class ChlorineMixer {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(ChlorineMixer.class);
+    // Base CoAP endpoint URL
+    private static final String COAP_ENDPOINT = "coap://127.0.0.1:";
+    // Resource path for the ChlorineResource
+    private static final String RESOURCE_NAME = "/ChlorineResource";
+    // Last value received from each pool, revalidated with its ETag
+    private static final ETagCache CACHE = new ETagCache();
+    // Name of the value in the resource payloads
+    private static final String VALUE_NAME = "concentration";
+    // Chlorine concentration threshold below which the mixer activates
+    private static double threshold = 0.6;
+    // Ideal chlorine concentration to which the system aims to raise the level
+    private static double idealChlorine = 1.5;
+    // Rate at which the server raises the concentration (in ppm per second)
+    private static final double RAMP_RATE = 0.2;
+    // Time a requested ramp may lag behind RAMP_RATE before it is requested again (in milliseconds)
+    private static final long RAMP_GRACE_MS = 1000;
+
+    /**
+     * Main method to start the CoAP client, observe chlorine concentration changes, and adjust 
+     * the chlorine concentration based on the received data.
+     *
+     * @param args command-line arguments
+     * @param port the port number on which the CoAP server is running
+     */
+    public static void main(String[] args, int port) {
+        String endpoint = COAP_ENDPOINT + port + RESOURCE_NAME;
+        CoapClient chlorineMixer = new CoapClient(endpoint);
+        
+        // Create an instance of ChlorineSensor to manage concentration data
+        ChlorineSensor chlorineSensor = new ChlorineSensor();
+        // Set while a ramp request of this client waits for its response
+        AtomicBoolean requesting = new AtomicBoolean();
+        // Time by which the requested ramp should have passed the threshold (System.nanoTime())
+        AtomicLong rampDeadline = new AtomicLong(System.nanoTime());
+    
+        // Set up an observer for the ChlorineResource, asking for compact CBOR payloads
+        chlorineMixer.observe(new CoapHandler() {
+
+            @Override
+            public void onLoad(CoapResponse response) {
+                // Handle the response from the CoAP server
+                int port = response.advanced().getSourcePort();
+                
+                // Decode the value from the payload, in the content format chosen by the server
+                double value = ValueCodec.decode(response.getOptions().getContentFormat(), response.getPayload(), VALUE_NAME);
+                LOG.log(Level.INFO, "Received Concentration: {} from {}", value, port);
+                chlorineSensor.setConcentration(value);
+                LOG.log(Level.INFO, "Received Observable Concentration: {}", chlorineSensor.getConcentration());
+                
+                // Check if the received concentration is below the threshold
+                if (chlorineSensor.getConcentration() < threshold) {
+                    LOG.info("Received Concentration is below threshold.");
+                    
+                    // Ask the server for a ramp to the ideal value
+                    requestRamp(chlorineMixer, port, chlorineSensor, requesting, rampDeadline);
+                }
+            }
+
+            @Override
+            public void onError() {
+                // Handle errors that occur during observation
+                LOG.error("Error occurred while observing the resource.");
+            }
+        }, MediaTypeRegistry.APPLICATION_CBOR);
+        
+        // Keep the client running to continue observing the resource
+        try {
+            Thread.sleep(300000); // Observe for 5 minutes
+        } catch (InterruptedException e) {
+            e.printStackTrace(); // Handle the interruption exception
+        }
+    }
+
+    /**
+     * Asks for a ramp if the last value received is below the threshold, unless a request is in flight or
+     * the ramp requested last may still be on its way. A ramp cancelled by the POST of another client, or
+     * whose notifications were lost, is thus requested again once its deadline passes.
+     *
+     * @param chlorineMixer the client of the resource
+     * @param port the port number on which the CoAP server is running
+     * @param chlorineSensor the last value received
+     * @param requesting the flag of the request in flight
+     * @param rampDeadline the time by which the ramp requested last should have passed the threshold
+     */
+    private static void requestRamp(CoapClient chlorineMixer, int port, ChlorineSensor chlorineSensor, AtomicBoolean requesting, AtomicLong rampDeadline) {
+        if (chlorineSensor.getConcentration() < threshold && System.nanoTime() - rampDeadline.get() >= 0 && requesting.compareAndSet(false, true)) {
+            rampPOST(chlorineMixer, port, chlorineSensor, requesting, rampDeadline);
+        }
+    }
+
+    /**
+     * Asks the ChlorineResource to raise the chlorine concentration to the ideal value at RAMP_RATE, with a single
+     * confirmable POST carrying the target and rate query parameters. The server runs the ramp and
+     * notifies the observers of every step, so no POST is sent per intermediate value.
+     *
+     * @param chlorineMixer the client of the resource
+     * @param port the port number on which the CoAP server is running
+     * @param chlorineSensor the last value received, updated by the notifications
+     * @param requesting the flag of the request in flight, cleared once it is answered
+     * @param rampDeadline set to the time by which the ramp should have passed the threshold
+     */
+    private static void rampPOST(CoapClient chlorineMixer, int port, ChlorineSensor chlorineSensor, AtomicBoolean requesting, AtomicLong rampDeadline) {
+        double from = chlorineSensor.getConcentration();
+        Request request = new Request(CoAP.Code.POST);
+        request.setConfirmable(true);
+        request.setURI(chlorineMixer.getURI() + "?" + SetpointRamp.TARGET + "=" + idealChlorine + "&" + SetpointRamp.RATE + "=" + RAMP_RATE);
+
+        // Send the POST request without blocking the notification thread
+        chlorineMixer.advanced(new CoapHandler() {
+            @Override
+            public void onLoad(CoapResponse response) {
+                if (response.getCode() == CoAP.ResponseCode.CHANGED) {
+                    long rampMs = (long) ((threshold - from) / RAMP_RATE * 1000) + RAMP_GRACE_MS;
+                    rampDeadline.set(System.nanoTime() + rampMs * 1_000_000);
+                    // Check the value again at the deadline, in case no further notification arrives
+                    CompletableFuture.delayedExecutor(rampMs, TimeUnit.MILLISECONDS)
+                            .execute(() -> requestRamp(chlorineMixer, port, chlorineSensor, requesting, rampDeadline));
+                    LOG.log(Level.INFO, "Requested Concentration ramp to {} on {}", idealChlorine, port);
+                } else {
+                    LOG.error("ERROR in sending POST.");
+                }
+                requesting.set(false);
+            }
+
+            @Override
+            public void onError() {
+                requesting.set(false);
+                LOG.error("ERROR in sending POST.");
+            }
+        }, request);
+    }
+
+    /**
+     * Sends a GET request to the ChlorineResource to read the current chlorine concentration, in CBOR.
+     * The ETag of the last value received is sent along, so an unchanged value is not downloaded again.
+     *
+     * @param port the port number on which the CoAP server is running
+     * @return the current chlorine concentration, or NaN if the server did not answer
+     */
+    public static double concentrationGET(int port) {
+        String endpoint = COAP_ENDPOINT + port + RESOURCE_NAME;
+        CoapClient chlorineMixer = new CoapClient(endpoint);
+
+        try {
+            // Send a confirmable GET request with the cached ETag and decode the current representation
+            ETagCache.Representation representation = CACHE.get(chlorineMixer, MediaTypeRegistry.APPLICATION_CBOR);
+            if (representation != null) {
+                return ValueCodec.decode(representation.getContentFormat(), representation.getPayload(), VALUE_NAME);
+            }
+        } catch (Exception e) {
+            e.printStackTrace(); // Handle any exceptions that occur
+        } finally {
+            chlorineMixer.shutdown();
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,158 @@
+package it.unipr.iotlab.iot2024.cf.client;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.elements.util.DaemonThreadFactory;
+import org.eclipse.californium.elements.util.ExecutorsUtil;
+
+import it.unipr.iotlab.iot2024.cf.server.loopback.LoopbackNetwork;
+
+/**
+ * The ClientPool class keeps the CoAP clients of the village long-lived, instead of building a
+ * new CoapClient for every call. Each target server gets one endpoint of its own, started on the
+ * first call and kept until the pool is closed, so its token generator, exchange store and
+ * deduplicator are reused by every request to that server; each resource gets one CoapClient
+ * bound to that endpoint. The endpoints of a pool share two daemon executors.
+ * <p>
+ * The clients are safe to use from several threads, as long as their URI and settings are not
+ * changed. The pool of the village clients is returned by shared() and closed when the JVM exits;
+ * with the loopback transport selected (see LoopbackNetwork) its endpoints use the in-memory network.
+ */
+public class ClientPool implements AutoCloseable {
+
+    // Host of the village servers
+    private static final String HOST = "coap://127.0.0.1:";
+    // Pool of the village clients
+    private static final ClientPool SHARED = new ClientPool();
+
+    static {
+        // Release the endpoints of the shared pool when the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(SHARED::close, "ClientPool-close"));
+    }
+
+    // Endpoints by port of the target server
+    private final Map<Integer, Endpoint> endpoints = new ConcurrentHashMap<>();
+    // Clients by URI of the resource
+    private final Map<String, CoapClient> clients = new ConcurrentHashMap<>();
+    // Configuration of the endpoints
+    private final NetworkConfig config;
+    // Executors shared by the endpoints, created with the first endpoint
+    private ScheduledExecutorService mainExecutor;
+    private ScheduledExecutorService secondaryExecutor;
+    // True once the pool is closed
+    private volatile boolean closed;
+
+    /**
+     * Constructor for ClientPool, using the standard configuration of Californium.
+     */
+    public ClientPool() {
+        this(NetworkConfig.getStandard());
+    }
+
+    /**
+     * Constructor for ClientPool.
+     *
+     * @param config the configuration of the endpoints
+     */
+    public ClientPool(NetworkConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Returns the pool of the village clients.
+     * @return the shared pool
+     */
+    public static ClientPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the client of a resource of a village server, creating it on the first call.
+     *
+     * @param port the port number on which the CoAP server is running
+     * @param path the path of the resource, e.g. "/PresenceResource"
+     * @return the client, bound to the endpoint of the server; it must not be shut down by the caller
+     */
+    public CoapClient client(int port, String path) {
+        String uri = HOST + port + path;
+        CoapClient client = this.clients.get(uri);
+        if (client == null) {
+            client = this.clients.computeIfAbsent(uri, key -> new CoapClient(key).setEndpoint(endpoint(port)));
+        }
+        return client;
+    }
+
+    /**
+     * Returns the endpoint used for a server, starting it on the first call.
+     *
+     * @param port the port number on which the CoAP server is running
+     * @return the started endpoint
+     */
+    public Endpoint endpoint(int port) {
+        Endpoint endpoint = this.endpoints.get(port);
+        if (endpoint == null) {
+            endpoint = this.endpoints.computeIfAbsent(port, key -> start());
+        }
+        return endpoint;
+    }
+
+    /**
+     * Creates and starts an endpoint on an ephemeral port.
+     */
+    private synchronized Endpoint start() {
+        if (this.closed) {
+            throw new IllegalStateException("Client pool is closed");
+        }
+        if (this.mainExecutor == null) {
+            this.mainExecutor = ExecutorsUtil.newScheduledThreadPool(
+                    this.config.getInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT), new DaemonThreadFactory("ClientPool#"));
+            this.secondaryExecutor = ExecutorsUtil.newDefaultSecondaryScheduler("ClientPool-timer#");
+        }
+        Endpoint endpoint = LoopbackNetwork.isSelected() ? LoopbackNetwork.getDefault().createClientEndpoint(this.config)
+                : new CoapEndpoint.Builder().setNetworkConfig(this.config).build();
+        endpoint.setExecutors(this.mainExecutor, this.secondaryExecutor);
+        try {
+            endpoint.start();
+        } catch (IOException e) {
+            endpoint.destroy();
+            throw new IllegalStateException("Cannot start client endpoint", e);
+        }
+        return endpoint;
+    }
+
+    /**
+     * Returns the number of endpoints opened by the pool, one per target server.
+     * @return the number of endpoints
+     */
+    public int getEndpointCount() {
+        return this.endpoints.size();
+    }
+
+    /**
+     * Shuts the clients down, cancelling their observations, then destroys the endpoints and
+     * their executors. Calls after close() fail.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        for (CoapClient client : this.clients.values()) {
+            client.shutdown();
+        }
+        for (Endpoint endpoint : this.endpoints.values()) {
+            endpoint.destroy();
+        }
+        if (this.mainExecutor != null) {
+            ExecutorsUtil.shutdownExecutorGracefully(1000, this.mainExecutor, this.secondaryExecutor);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package it.unipr.iotlab.iot2024.cf.client;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.elements.exception.ConnectorException;
+
+/**
+ * The ETagCache class keeps the last representation received for each resource and format,
+ * together with its ETag, and sends that ETag with the next GET. When the resource did not
+ * change, the server answers 2.03 Valid without a payload and the cached representation is
+ * returned instead of downloading the same bytes again.
+ */
+public class ETagCache {
+
+    // Cached representations, by URI and requested format
+    private final Map<String, Representation> entries = new ConcurrentHashMap<>();
+    // Number of GETs answered with a full payload and with 2.03 Valid
+    private final AtomicLong downloaded = new AtomicLong();
+    private final AtomicLong validated = new AtomicLong();
+
+    /**
+     * Sends a confirmable GET to the URI of the client, listing the ETag of the cached
+     * representation if there is one.
+     *
+     * @param client the client, set to the URI of the resource
+     * @param accept the requested content format, or MediaTypeRegistry.UNDEFINED
+     * @return the current representation, or null if the server did not answer or answered with an error
+     * @throws ConnectorException if the request could not be sent
+     * @throws IOException if the request could not be sent
+     */
+    public Representation get(CoapClient client, int accept) throws ConnectorException, IOException {
+        String key = client.getURI() + "#" + accept;
+        Representation cached = this.entries.get(key);
+
+        Request request = new Request(CoAP.Code.GET);
+        request.setConfirmable(true);
+        if (accept != MediaTypeRegistry.UNDEFINED) {
+            request.getOptions().setAccept(accept);
+        }
+        if (cached != null) {
+            request.getOptions().addETag(cached.etag);
+        }
+
+        CoapResponse response = client.advanced(request);
+        if (response == null) {
+            return null;
+        }
+        if (response.getCode() == CoAP.ResponseCode.VALID && cached != null) {
+            // The cached representation is still the current one
+            this.validated.incrementAndGet();
+            return cached;
+        }
+        if (!response.isSuccess()) {
+            return null;
+        }
+        this.downloaded.incrementAndGet();
+        Representation current = new Representation(response.getPayload(), response.getOptions().getContentFormat(),
+                response.getOptions().getETagCount() > 0 ? response.getOptions().getETags().get(0) : null);
+        if (current.etag != null) {
+            this.entries.put(key, current);
+        } else {
+            this.entries.remove(key);
+        }
+        return current;
+    }
+
+    /**
+     * Returns the number of GETs answered with a full payload.
+     * @return the number of downloaded representations
+     */
+    public long getDownloaded() {
+        return this.downloaded.get();
+    }
+
+    /**
+     * Returns the number of GETs answered with 2.03 Valid.
+     * @return the number of representations served from the cache
+     */
+    public long getValidated() {
+        return this.validated.get();
+    }
+
+    /**
+     * A representation of a resource, as received in a 2.05 Content response.
+     */
+    public static final class Representation {
+
+        private final byte[] payload;
+        private final int contentFormat;
+        private final byte[] etag;
+
+        Representation(byte[] payload, int contentFormat, byte[] etag) {
+            this.payload = payload;
+            this.contentFormat = contentFormat;
+            this.etag = etag;
+        }
+
+        /**
+         * Returns the payload.
+         * @return the representation bytes
+         */
+        public byte[] getPayload() {
+            return this.payload;
+        }
+
+        /**
+         * Returns the content format of the payload.
+         * @return the content format, or MediaTypeRegistry.UNDEFINED
+         */
+        public int getContentFormat() {
+            return this.contentFormat;
+        }
+    }
+}
@@ -1,102 +1,188 @@
-package it.unipr.iotlab.iot2024.cf.client;
-
-import org.eclipse.californium.core.CoapClient;
-import org.eclipse.californium.core.CoapHandler;
-import org.eclipse.californium.core.CoapResponse;
-import org.eclipse.californium.core.coap.CoAP;
-import org.eclipse.californium.core.coap.Request;
-
-import com.google.gson.Gson;
-
-import it.unipr.iotlab.iot2024.cf.server.sensors.ImmersionTempSensor;
-
-
-/**
- * The HeatingPump class is a CoAP client that interacts with an ImmersionTempResource
- * to monitor and adjust the temperature of a heating system. It observes the temperature 
- * resource, checks if the temperature falls below a specified threshold, and if so, 
- * it sends POST requests to increase the temperature to an ideal value.
- */
-public class HeatingPump {
-
-    // Base CoAP endpoint URL
-    private static final String COAP_ENDPOINT = "coap://127.0.0.1:";
-    // Resource path for the ImmersionTempResource
-    private static final String RESOURCE_NAME = "/ImmersionTempResource";
-    // Temperature threshold below which the heating pump activates
-    private static int threshold = 19;
-    // Ideal temperature to which the system aims to raise the temperature
-    private static int idealTemp = 25;
-
-    /**
-     * Main method to start the CoAP client, observe temperature changes, and adjust 
-     * the heating system based on the received temperature.
-     *
-     * @param args command-line arguments
-     * @param port the port number on which the CoAP server is running
-     */
-    public static void main(String[] args, int port) {
-        String endpoint = COAP_ENDPOINT + port + RESOURCE_NAME;
-        CoapClient heatingPump = new CoapClient(endpoint);
-        Gson gson = new Gson();
-        
-        // Create an instance of ImmersionTempSensor to manage temperature data
-        ImmersionTempSensor immersionTempSensor = new ImmersionTempSensor();
-    
-        // Set up an observer for the ImmersionTempResource
-        heatingPump.observe(new CoapHandler() {
-
-            @Override
-            public void onLoad(CoapResponse response) {
-                // Handle the response from the CoAP server
-                String tmpPayload = new String(response.getResponseText());
-                int port = response.advanced().getSourcePort();
-                System.out.println("Received Temperature: " + tmpPayload + " from "+ port + "\n");
-                
-                // Convert the JSON response to an ImmersionTempSensor object
-                ImmersionTempSensor tmp = gson.fromJson(tmpPayload, ImmersionTempSensor.class);
-                immersionTempSensor.setTemperature(tmp.getTemperature());
-                System.out.println("Received Observable Temperature: " + immersionTempSensor.getTemperature() + "\n");
-                
-                // Check if the received temperature is below the threshold
-                if (immersionTempSensor.getTemperature() < threshold) {
-                    System.out.println("Received Temperature is below threshold.\n");
-                    
-                    // Increment the temperature until it reaches the ideal temperature
-                    for (int i = (int) immersionTempSensor.getTemperature(); i < idealTemp; i++) {
-                        immersionTempSensor.setTemperature(i);
-                        
-                        // Create a POST request to update the temperature
-                        Request request = new Request(CoAP.Code.POST);
-                        request.setConfirmable(true);
-                        String payload = gson.toJson(immersionTempSensor);
-                        request.setPayload(payload.getBytes());
-                        
-                        try {
-                            // Send the POST request
-                            heatingPump.advanced(request);
-                            System.out.println("Posted new Temperature: " + immersionTempSensor.getTemperature() + " on "+ port + "\n");
-                         
-                        } catch (Exception e) {
-                            System.out.println("ERROR in sending POST.\n");
-                            e.printStackTrace();
-                        }
-                    }
-                }
-            }
-
-            @Override
-            public void onError() {
-                // Handle errors that occur during observation
-                System.err.println("Error occurred while observing the resource.");
-            }
-        });
-        
-        // Keep the client running to continue observing the resource
-        try {
-            Thread.sleep(300000); // Observe for 5 minutes
-        } catch (InterruptedException e) {
-            e.printStackTrace(); // Handle the interruption exception
-        }
-    }
-}
+package it.unipr.iotlab.iot2024.cf.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+
+import it.unipr.iotlab.iot2024.cf.log.Level;
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.codec.ValueCodec;
+import it.unipr.iotlab.iot2024.cf.server.resources.SetpointRamp;
+import it.unipr.iotlab.iot2024.cf.server.sensors.ImmersionTempSensor;
+
+
+/**
+ * The HeatingPump class is a CoAP client that interacts with an ImmersionTempResource
+ * to monitor and adjust the temperature of a heating system. It observes the temperature 
+ * resource, checks if the temperature falls below a specified threshold, and if so, 
+ * it asks the resource, with a single POST, to ramp the temperature up to an ideal value.
+ */
+public class HeatingPump {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(HeatingPump.class);
+    // Base CoAP endpoint URL
+    private static final String COAP_ENDPOINT = "coap://127.0.0.1:";
+    // Resource path for the ImmersionTempResource
+    private static final String RESOURCE_NAME = "/ImmersionTempResource";
+    // Last value received from each pool, revalidated with its ETag
+    private static final ETagCache CACHE = new ETagCache();
+    // Name of the value in the resource payloads
+    private static final String VALUE_NAME = "temperature";
+    // Temperature threshold below which the heating pump activates
+    private static int threshold = 19;
+    // Ideal temperature to which the system aims to raise the temperature
+    private static int idealTemp = 25;
+    // Rate at which the server raises the temperature (in degrees per second)
+    private static final double RAMP_RATE = 2.0;
+    // Time a requested ramp may lag behind RAMP_RATE before it is requested again (in milliseconds)
+    private static final long RAMP_GRACE_MS = 1000;
+
+    /**
+     * Main method to start the CoAP client, observe temperature changes, and adjust 
+     * the heating system based on the received temperature.
+     *
+     * @param args command-line arguments
+     * @param port the port number on which the CoAP server is running
+     */
+    public static void main(String[] args, int port) {
+        String endpoint = COAP_ENDPOINT + port + RESOURCE_NAME;
+        CoapClient heatingPump = new CoapClient(endpoint);
+        
+        // Create an instance of ImmersionTempSensor to manage temperature data
+        ImmersionTempSensor immersionTempSensor = new ImmersionTempSensor();
+        // Set while a ramp request of this client waits for its response
+        AtomicBoolean requesting = new AtomicBoolean();
+        // Time by which the requested ramp should have passed the threshold (System.nanoTime())
+        AtomicLong rampDeadline = new AtomicLong(System.nanoTime());
+    
+        // Set up an observer for the ImmersionTempResource, asking for compact CBOR payloads
+        heatingPump.observe(new CoapHandler() {
+
+            @Override
+            public void onLoad(CoapResponse response) {
+                // Handle the response from the CoAP server
+                int port = response.advanced().getSourcePort();
+                
+                // Decode the value from the payload, in the content format chosen by the server
+                double value = ValueCodec.decode(response.getOptions().getContentFormat(), response.getPayload(), VALUE_NAME);
+                LOG.log(Level.INFO, "Received Temperature: {} from {}", value, port);
+                immersionTempSensor.setTemperature(value);
+                LOG.log(Level.INFO, "Received Observable Temperature: {}", immersionTempSensor.getTemperature());
+                
+                // Check if the received temperature is below the threshold
+                if (immersionTempSensor.getTemperature() < threshold) {
+                    LOG.info("Received Temperature is below threshold.");
+                    
+                    // Ask the server for a ramp to the ideal value
+                    requestRamp(heatingPump, port, immersionTempSensor, requesting, rampDeadline);
+                }
+            }
+
+            @Override
+            public void onError() {
+                // Handle errors that occur during observation
+                LOG.error("Error occurred while observing the resource.");
+            }
+        }, MediaTypeRegistry.APPLICATION_CBOR);
+        
+        // Keep the client running to continue observing the resource
+        try {
+            Thread.sleep(300000); // Observe for 5 minutes
+        } catch (InterruptedException e) {
+            e.printStackTrace(); // Handle the interruption exception
+        }
+    }
+
+    /**
+     * Asks for a ramp if the last value received is below the threshold, unless a request is in flight or
+     * the ramp requested last may still be on its way. A ramp cancelled by the POST of another client, or
+     * whose notifications were lost, is thus requested again once its deadline passes.
+     *
+     * @param heatingPump the client of the resource
+     * @param port the port number on which the CoAP server is running
+     * @param immersionTempSensor the last value received
+     * @param requesting the flag of the request in flight
+     * @param rampDeadline the time by which the ramp requested last should have passed the threshold
+     */
+    private static void requestRamp(CoapClient heatingPump, int port, ImmersionTempSensor immersionTempSensor, AtomicBoolean requesting, AtomicLong rampDeadline) {
+        if (immersionTempSensor.getTemperature() < threshold && System.nanoTime() - rampDeadline.get() >= 0 && requesting.compareAndSet(false, true)) {
+            rampPOST(heatingPump, port, immersionTempSensor, requesting, rampDeadline);
+        }
+    }
+
+    /**
+     * Asks the ImmersionTempResource to raise the temperature to the ideal value at RAMP_RATE, with a single
+     * confirmable POST carrying the target and rate query parameters. The server runs the ramp and
+     * notifies the observers of every step, so no POST is sent per intermediate value.
+     *
+     * @param heatingPump the client of the resource
+     * @param port the port number on which the CoAP server is running
+     * @param immersionTempSensor the last value received, updated by the notifications
+     * @param requesting the flag of the request in flight, cleared once it is answered
+     * @param rampDeadline set to the time by which the ramp should have passed the threshold
+     */
+    private static void rampPOST(CoapClient heatingPump, int port, ImmersionTempSensor immersionTempSensor, AtomicBoolean requesting, AtomicLong rampDeadline) {
+        double from = immersionTempSensor.getTemperature();
+        Request request = new Request(CoAP.Code.POST);
+        request.setConfirmable(true);
+        request.setURI(heatingPump.getURI() + "?" + SetpointRamp.TARGET + "=" + idealTemp + "&" + SetpointRamp.RATE + "=" + RAMP_RATE);
+
+        // Send the POST request without blocking the notification thread
+        heatingPump.advanced(new CoapHandler() {
+            @Override
+            public void onLoad(CoapResponse response) {
+                if (response.getCode() == CoAP.ResponseCode.CHANGED) {
+                    long rampMs = (long) ((threshold - from) / RAMP_RATE * 1000) + RAMP_GRACE_MS;
+                    rampDeadline.set(System.nanoTime() + rampMs * 1_000_000);
+                    // Check the value again at the deadline, in case no further notification arrives
+                    CompletableFuture.delayedExecutor(rampMs, TimeUnit.MILLISECONDS)
+                            .execute(() -> requestRamp(heatingPump, port, immersionTempSensor, requesting, rampDeadline));
+                    LOG.log(Level.INFO, "Requested Temperature ramp to {} on {}", idealTemp, port);
+                } else {
+                    LOG.error("ERROR in sending POST.");
+                }
+                requesting.set(false);
+            }
+
+            @Override
+            public void onError() {
+                requesting.set(false);
+                LOG.error("ERROR in sending POST.");
+            }
+        }, request);
+    }
+
+    /**
+     * Sends a GET request to the ImmersionTempResource to read the current temperature, in CBOR.
+     * The ETag of the last value received is sent along, so an unchanged value is not downloaded again.
+     *
+     * @param port the port number on which the CoAP server is running
+     * @return the current temperature, or NaN if the server did not answer
+     */
+    public static double temperatureGET(int port) {
+        String endpoint = COAP_ENDPOINT + port + RESOURCE_NAME;
+        CoapClient heatingPump = new CoapClient(endpoint);
+
+        try {
+            // Send a confirmable GET request with the cached ETag and decode the current representation
+            ETagCache.Representation representation = CACHE.get(heatingPump, MediaTypeRegistry.APPLICATION_CBOR);
+            if (representation != null) {
+                return ValueCodec.decode(representation.getContentFormat(), representation.getPayload(), VALUE_NAME);
+            }
+        } catch (Exception e) {
+            e.printStackTrace(); // Handle any exceptions that occur
+        } finally {
+            heatingPump.shutdown();
+        }
+        return Double.NaN;
+    }
+}
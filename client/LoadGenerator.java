@@ -0,0 +1,511 @@
+package it.unipr.iotlab.iot2024.cf.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+
+import it.unipr.iotlab.iot2024.cf.server.codec.ValueCodec;
+import it.unipr.iotlab.iot2024.cf.server.loopback.LoopbackNetwork;
+import it.unipr.iotlab.iot2024.cf.server.metrics.LatencyHistogram;
+
+/**
+ * The LoadGenerator class drives the village servers with an open workload: requests arrive at a
+ * configured rate, with exponentially distributed gaps like independent visitors and actuators,
+ * whatever the time the server takes to answer. Each request is sent asynchronously from one of
+ * several client endpoints, as CON or NON according to the configured mix, so thousands of them
+ * can be outstanding at the same time; a request still unanswered after the request timeout
+ * (e.g. a lost NON) is cancelled and counted as a timeout.
+ * <p>
+ * The targets are weighted: e.g. visitors POSTing new identifiers to the entrance turnstile
+ * (addVisitors) and pumps POSTing temperatures to a pool (addActuator). The report gives the
+ * throughput, the latency percentiles, the retransmissions and the responses by class.
+ * <pre>
+ * LoadGenerator.Report report = new LoadGenerator()
+ *         .addVisitors("entrance", 5686, 4)
+ *         .addActuator("lagoon temperature", 5683, "/ImmersionTempResource", "temperature", 24, 1)
+ *         .setRate(2000).setDurationMs(10000).setConfirmableShare(0.5)
+ *         .run();
+ * </pre>
+ * With the loopback transport selected (see LoopbackNetwork) the client endpoints are attached to
+ * the in-memory network, to load servers running in the same JVM without UDP sockets.
+ */
+public class LoadGenerator {
+
+    // Base CoAP endpoint URL
+    private static final String COAP_ENDPOINT = "coap://127.0.0.1:";
+    // Resource path of the turnstiles
+    private static final String PRESENCE_RESOURCE = "/PresenceResource";
+
+    // Targets of the requests, with their weights
+    private final List<Target> targets = new ArrayList<>();
+    private double totalWeight;
+    // Requests started per second
+    private double rate = 1000;
+    // Duration of the run (in milliseconds)
+    private long durationMs = 10000;
+    // Share of confirmable requests
+    private double confirmableShare = 1.0;
+    // Maximum number of outstanding requests; arrivals beyond it are counted as skipped
+    private int maxOutstanding = 10000;
+    // Time after which an unanswered request is cancelled (in milliseconds)
+    private long requestTimeoutMs = 5000;
+    // Number of client endpoints (UDP sockets) the requests are spread over
+    private int endpoints = 4;
+    // Next visitor identifier
+    private final AtomicInteger nextIdentifier = new AtomicInteger(ThreadLocalRandom.current().nextInt(1 << 20, 1 << 30));
+
+    /**
+     * Adds visitors entering through a turnstile, each POSTing a new identifier.
+     *
+     * @param name the name of the target in the report
+     * @param port the port of the turnstile server
+     * @param weight the share of the requests sent to this target, relative to the other targets
+     * @return this generator
+     */
+    public LoadGenerator addVisitors(String name, int port, double weight) {
+        return addTarget(name, COAP_ENDPOINT + port + PRESENCE_RESOURCE, CoAP.Code.POST, MediaTypeRegistry.TEXT_PLAIN,
+                i -> Integer.toString(this.nextIdentifier.getAndIncrement()).getBytes(StandardCharsets.US_ASCII), weight);
+    }
+
+    /**
+     * Adds an actuator POSTing CBOR values around a set point to a sensor resource of a pool,
+     * like HeatingPump or ChlorineMixer.
+     *
+     * @param name the name of the target in the report
+     * @param port the port of the pool server
+     * @param path the path of the resource, e.g. "/ImmersionTempResource"
+     * @param valueName the name of the value, e.g. "temperature"
+     * @param setPoint the value the actuator aims at
+     * @param weight the share of the requests sent to this target, relative to the other targets
+     * @return this generator
+     */
+    public LoadGenerator addActuator(String name, int port, String path, String valueName, double setPoint, double weight) {
+        return addTarget(name, COAP_ENDPOINT + port + path, CoAP.Code.POST, MediaTypeRegistry.APPLICATION_CBOR,
+                i -> ValueCodec.encode(MediaTypeRegistry.APPLICATION_CBOR, valueName, null, setPoint + (i % 10) / 10.0), weight);
+    }
+
+    /**
+     * Adds readers GETting a resource.
+     *
+     * @param name the name of the target in the report
+     * @param uri the URI of the resource
+     * @param weight the share of the requests sent to this target, relative to the other targets
+     * @return this generator
+     */
+    public LoadGenerator addReaders(String name, String uri, double weight) {
+        return addTarget(name, uri, CoAP.Code.GET, MediaTypeRegistry.UNDEFINED, null, weight);
+    }
+
+    /**
+     * Adds a target.
+     *
+     * @param name the name of the target in the report
+     * @param uri the URI of the resource
+     * @param method the method of the requests
+     * @param contentFormat the content format of the payloads, or MediaTypeRegistry.UNDEFINED
+     * @param payloads the payload of the i-th request to this target, or null for no payload
+     * @param weight the share of the requests sent to this target, relative to the other targets
+     * @return this generator
+     */
+    public LoadGenerator addTarget(String name, String uri, CoAP.Code method, int contentFormat,
+            IntFunction<byte[]> payloads, double weight) {
+        this.targets.add(new Target(name, uri, method, contentFormat, payloads, weight));
+        this.totalWeight += weight;
+        return this;
+    }
+
+    public LoadGenerator setRate(double requestsPerSecond) {
+        this.rate = requestsPerSecond;
+        return this;
+    }
+
+    public LoadGenerator setDurationMs(long durationMs) {
+        this.durationMs = durationMs;
+        return this;
+    }
+
+    /**
+     * Sets the CON/NON mix.
+     * @param share the share of confirmable requests, between 0 (all NON) and 1 (all CON)
+     * @return this generator
+     */
+    public LoadGenerator setConfirmableShare(double share) {
+        this.confirmableShare = share;
+        return this;
+    }
+
+    public LoadGenerator setMaxOutstanding(int maxOutstanding) {
+        this.maxOutstanding = maxOutstanding;
+        return this;
+    }
+
+    public LoadGenerator setRequestTimeoutMs(long requestTimeoutMs) {
+        this.requestTimeoutMs = requestTimeoutMs;
+        return this;
+    }
+
+    public LoadGenerator setEndpoints(int endpoints) {
+        this.endpoints = endpoints;
+        return this;
+    }
+
+    /**
+     * Sends the requests for the configured duration, then waits for the outstanding ones.
+     *
+     * @return the report of the run
+     * @throws IOException if a client endpoint cannot be started
+     */
+    public Report run() throws IOException {
+        if (this.targets.isEmpty()) {
+            throw new IllegalStateException("No target to send requests to");
+        }
+        NetworkConfig config = NetworkConfig.createStandardWithoutFile();
+        Endpoint[] clients = new Endpoint[this.endpoints];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = LoopbackNetwork.isSelected() ? LoopbackNetwork.getDefault().createClientEndpoint(config)
+                    : new CoapEndpoint.Builder().setNetworkConfig(config).build();
+            clients[i].start();
+        }
+        ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LoadGenerator-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Report report = new Report(this.targets);
+        AtomicInteger outstanding = new AtomicInteger();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(this.durationMs);
+        double next = start;
+        int sequence = 0;
+        try {
+            while (next < end) {
+                // Exponentially distributed gap before the next arrival
+                next += -Math.log(1 - random.nextDouble()) * 1e9 / this.rate;
+                long wait = (long) next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                if (outstanding.get() >= this.maxOutstanding) {
+                    report.skipped.incrementAndGet();
+                    continue;
+                }
+                Target target = pick(random.nextDouble() * this.totalWeight);
+                boolean confirmable = random.nextDouble() < this.confirmableShare;
+                send(clients[sequence % clients.length], target, sequence, confirmable, report, outstanding, timeouts);
+                sequence++;
+            }
+            report.sendingNanos = System.nanoTime() - start;
+            // Wait for the outstanding requests, answered or timed out
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.requestTimeoutMs + 1000);
+            while (outstanding.get() > 0 && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        } finally {
+            timeouts.shutdownNow();
+            for (Endpoint client : clients) {
+                client.destroy();
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Returns the target a uniform draw between 0 and the total weight falls on.
+     */
+    private Target pick(double draw) {
+        for (Target target : this.targets) {
+            draw -= target.weight;
+            if (draw < 0) {
+                return target;
+            }
+        }
+        return this.targets.get(this.targets.size() - 1);
+    }
+
+    /**
+     * Sends one request asynchronously, recording its outcome in the report.
+     */
+    private void send(Endpoint client, Target target, int sequence, boolean confirmable, Report report,
+            AtomicInteger outstanding, ScheduledExecutorService timeouts) {
+        Request request = new Request(target.method, confirmable ? CoAP.Type.CON : CoAP.Type.NON);
+        request.setURI(target.uri);
+        if (target.contentFormat != MediaTypeRegistry.UNDEFINED) {
+            request.getOptions().setContentFormat(target.contentFormat);
+        }
+        if (target.payloads != null) {
+            request.setPayload(target.payloads.apply(sequence));
+        }
+        Outcome outcome = new Outcome(target, confirmable, report, outstanding);
+        request.addMessageObserver(outcome);
+        outstanding.incrementAndGet();
+        (confirmable ? report.confirmable : report.nonConfirmable).incrementAndGet();
+        target.sent.incrementAndGet();
+        outcome.timeout = timeouts.schedule(request::cancel, this.requestTimeoutMs, TimeUnit.MILLISECONDS);
+        outcome.sentNanos = System.nanoTime();
+        client.sendRequest(request);
+    }
+
+    /**
+     * Records the outcome of one request.
+     */
+    private static final class Outcome extends MessageObserverAdapter {
+
+        private final Target target;
+        private final boolean confirmable;
+        private final Report report;
+        private final AtomicInteger outstanding;
+        private volatile long sentNanos;
+        private volatile ScheduledFuture<?> timeout;
+        // Whether the outcome was recorded (a request ends once)
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Outcome(Target target, boolean confirmable, Report report, AtomicInteger outstanding) {
+            this.target = target;
+            this.confirmable = confirmable;
+            this.report = report;
+            this.outstanding = outstanding;
+        }
+
+        @Override
+        public void onResponse(Response response) {
+            if (!finish()) {
+                return;
+            }
+            long latency = System.nanoTime() - this.sentNanos;
+            this.report.latency.record(latency);
+            this.target.latency.record(latency);
+            CoAP.ResponseCode code = response.getCode();
+            if (code == CoAP.ResponseCode.SERVICE_UNAVAILABLE) {
+                this.report.unavailable.incrementAndGet();
+            } else if (CoAP.ResponseCode.isClientError(code)) {
+                this.report.clientErrors.incrementAndGet();
+                this.target.errors.incrementAndGet();
+            } else if (CoAP.ResponseCode.isServerError(code)) {
+                this.report.serverErrors.incrementAndGet();
+                this.target.errors.incrementAndGet();
+            } else {
+                this.report.succeeded.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onRetransmission() {
+            this.report.retransmissions.incrementAndGet();
+        }
+
+        @Override
+        public void onTimeout() {
+            if (finish()) {
+                this.report.timeouts.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            // Cancelled by the request timeout
+            if (finish()) {
+                (this.confirmable ? this.report.timeouts : this.report.lostNonConfirmable).incrementAndGet();
+            }
+        }
+
+        @Override
+        protected void failed() {
+            if (finish()) {
+                this.report.sendErrors.incrementAndGet();
+            }
+        }
+
+        /**
+         * Marks the request as ended, the first time only.
+         */
+        private boolean finish() {
+            if (!this.done.compareAndSet(false, true)) {
+                return false;
+            }
+            ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            this.outstanding.decrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * A target of the requests.
+     */
+    private static final class Target {
+
+        private final String name;
+        private final String uri;
+        private final CoAP.Code method;
+        private final int contentFormat;
+        private final IntFunction<byte[]> payloads;
+        private final double weight;
+        // Requests sent, answered with an error, and their latency
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Target(String name, String uri, CoAP.Code method, int contentFormat, IntFunction<byte[]> payloads, double weight) {
+            this.name = name;
+            this.uri = uri;
+            this.method = method;
+            this.contentFormat = contentFormat;
+            this.payloads = payloads;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * The results of a run.
+     */
+    public static final class Report {
+
+        private final List<Target> targets;
+        private final AtomicLong confirmable = new AtomicLong();
+        private final AtomicLong nonConfirmable = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong clientErrors = new AtomicLong();
+        private final AtomicLong serverErrors = new AtomicLong();
+        private final AtomicLong unavailable = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong lostNonConfirmable = new AtomicLong();
+        private final AtomicLong sendErrors = new AtomicLong();
+        private final AtomicLong retransmissions = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private long sendingNanos;
+
+        Report(List<Target> targets) {
+            this.targets = targets;
+        }
+
+        public long getSent() {
+            return this.confirmable.get() + this.nonConfirmable.get();
+        }
+
+        public long getConfirmable() {
+            return this.confirmable.get();
+        }
+
+        public long getNonConfirmable() {
+            return this.nonConfirmable.get();
+        }
+
+        public long getSkipped() {
+            return this.skipped.get();
+        }
+
+        public long getSucceeded() {
+            return this.succeeded.get();
+        }
+
+        public long getClientErrors() {
+            return this.clientErrors.get();
+        }
+
+        public long getServerErrors() {
+            return this.serverErrors.get();
+        }
+
+        /**
+         * Returns the number of requests turned away with 5.03 Service Unavailable (overload).
+         * @return the number of 5.03 responses
+         */
+        public long getUnavailable() {
+            return this.unavailable.get();
+        }
+
+        /**
+         * Returns the number of confirmable requests that were never answered.
+         * @return the number of timeouts
+         */
+        public long getTimeouts() {
+            return this.timeouts.get();
+        }
+
+        /**
+         * Returns the number of non-confirmable requests, or their responses, that were lost.
+         * @return the number of unanswered NON requests
+         */
+        public long getLostNonConfirmable() {
+            return this.lostNonConfirmable.get();
+        }
+
+        public long getSendErrors() {
+            return this.sendErrors.get();
+        }
+
+        public long getRetransmissions() {
+            return this.retransmissions.get();
+        }
+
+        public LatencyHistogram getLatency() {
+            return this.latency;
+        }
+
+        /**
+         * Returns the number of responses received per second while the requests were sent.
+         * @return the throughput
+         */
+        public double getThroughput() {
+            return this.sendingNanos == 0 ? 0 : this.latency.getCount() / (this.sendingNanos / 1e9);
+        }
+
+        /**
+         * Formats the report as a table, with a line per target.
+         */
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            long sent = getSent();
+            text.append(String.format("Sent %d requests in %.1f s (%d CON, %d NON), %d skipped at the outstanding limit%n",
+                    sent, this.sendingNanos / 1e9, getConfirmable(), getNonConfirmable(), getSkipped()));
+            text.append(String.format("Throughput %.1f responses/s, %d retransmissions%n", getThroughput(), getRetransmissions()));
+            text.append(String.format("Succeeded %d, client errors %d (%.2f%%), server errors %d, 5.03 %d, "
+                    + "timeouts %d, lost NON %d, send errors %d%n",
+                    getSucceeded(), getClientErrors(), percent(getClientErrors(), sent), getServerErrors(), getUnavailable(),
+                    getTimeouts(), getLostNonConfirmable(), getSendErrors()));
+            text.append(String.format("%-24s %8s %8s %9s %9s %9s %9s %9s%n", "Target", "sent", "errors",
+                    "p50 ms", "p90 ms", "p99 ms", "p999 ms", "max ms"));
+            appendLatency(text, "all", sent, getClientErrors() + getServerErrors(), this.latency);
+            for (Target target : this.targets) {
+                appendLatency(text, target.name, target.sent.get(), target.errors.get(), target.latency);
+            }
+            return text.toString();
+        }
+
+        private static void appendLatency(StringBuilder text, String name, long sent, long errors, LatencyHistogram latency) {
+            long[] percentiles = latency.getPercentiles(0.5, 0.9, 0.99, 0.999);
+            text.append(String.format("%-24s %8d %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, sent, errors,
+                    percentiles[0] / 1e6, percentiles[1] / 1e6, percentiles[2] / 1e6, percentiles[3] / 1e6, latency.getMax() / 1e6));
+        }
+
+        private static double percent(long part, long total) {
+            return total == 0 ? 0 : 100.0 * part / total;
+        }
+    }
+}
@@ -1,104 +1,362 @@
-package it.unipr.iotlab.iot2024.cf.client;
-
-import org.eclipse.californium.core.CoapClient;
-import org.eclipse.californium.core.CoapHandler;
-import org.eclipse.californium.core.CoapResponse;
-import org.eclipse.californium.core.coap.CoAP;
-import org.eclipse.californium.core.coap.Request;
-
-/**
- * The MemberClient class is a CoAP client that interacts with CoAP resources to 
- * monitor and update the number of people tracked by a turnstile. It provides 
- * methods to observe changes, and to send GET and POST requests to the CoAP server.
- */
-public class MemberClient {
-
-    // Base CoAP endpoint URL
-    private static final String COAP_ENDPOINT = "coap://127.0.0.1:";
-    // Resource path for the PresenceResource
-    private static final String RESOURCE_NAME = "/PresenceResource";
-
-    /**
-     * Main method to start observing the PresenceResource. This method connects 
-     * to the CoAP server, sets up an observer on the resource, and prints updates 
-     * on the number of people detected.
-     *
-     * @param args command-line arguments
-     * @param port the port number on which the CoAP server is running
-     */
-    public static void main(String[] args, int port) {
-        String endpoint = COAP_ENDPOINT + port + RESOURCE_NAME;
-        CoapClient memberClient = new CoapClient(endpoint);
-        
-        // Set up an observer for the resource
-        memberClient.observe(new CoapHandler() {
-            @Override
-            public void onLoad(CoapResponse response) {
-                // Handle the response from the CoAP server
-                String identifierPayload = new String(response.getResponseText());
-                System.out.println("Number of people: " + identifierPayload);
-            }
-
-            @Override
-            public void onError() {
-                // Handle any errors that occur during observation
-                System.err.println("Error occurred while observing the resource.");
-            }
-        });
-        
-        // Keep the client running to continue observing the resource
-        try {
-            Thread.sleep(300000); // Observe for 5 minutes
-        } catch (InterruptedException e) {
-            e.printStackTrace(); // Handle the interruption exception
-        }
-    }
-    
-    /**
-     * Sends a GET request to the PresenceResource to retrieve the current count of people.
-     *
-     * @param port the port number on which the CoAP server is running
-     */
-    public static void enteredMemberGET(int port) {
-        String endpoint = COAP_ENDPOINT + port + RESOURCE_NAME;
-        CoapClient memberClient = new CoapClient(endpoint);
-        
-        // Create a GET request
-        Request request = new Request(CoAP.Code.GET);
-        request.setConfirmable(true);
-        
-        try {
-            // Send the request and get the response
-            CoapResponse response = memberClient.advanced(request);
-            String payload = new String(response.getPayload());
-            System.out.println("Current count of people: " + payload);
-        } catch (Exception e) {
-            e.printStackTrace(); // Handle any exceptions that occur
-        }
-    }
-    
-    /**
-     * Sends a POST request to the PresenceResource to update the count of people 
-     * entering the turnstile.
-     *
-     * @param identifier the identifier of the person entering
-     * @param port the port number on which the CoAP server is running
-     */
-    public static void enteredMemberPOST(int identifier, int port) {
-        String endpoint = COAP_ENDPOINT + port + RESOURCE_NAME;
-        CoapClient memberClient = new CoapClient(endpoint);
-        
-        // Create a POST request
-        Request request = new Request(CoAP.Code.POST);
-        request.setConfirmable(true);
-        String payload = Integer.toString(identifier);
-        request.setPayload(payload.getBytes());
-        
-        try {
-            // Send the POST request
-            memberClient.advanced(request);
-        } catch (Exception e) {
-            e.printStackTrace(); // Handle any exceptions that occur
-        }
-    }
-}
+package it.unipr.iotlab.iot2024.cf.client;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.elements.exception.ConnectorException;
+
+import it.unipr.iotlab.iot2024.cf.log.Level;
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.codec.Cbor;
+import it.unipr.iotlab.iot2024.cf.server.codec.ValueCodec;
+
+/**
+ * The MemberClient class is a CoAP client that interacts with CoAP resources to 
+ * monitor and update the number of people tracked by a turnstile. It provides 
+ * methods to observe changes, and to send GET and POST requests to the CoAP server.
+ * The requests go through the long-lived client of each turnstile kept by the shared
+ * ClientPool, so a call does not build a client and an exchange state of its own.
+ * <p>
+ * The *Async methods do not block: they return a CompletableFuture and send the request through
+ * the RequestPipeline of the turnstile, which keeps several requests in flight at once, so a gate
+ * controller can pipeline many visitor events while waiting on the round trips.
+ */
+public class MemberClient {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(MemberClient.class);
+
+    // Resource path for the PresenceResource
+    private static final String RESOURCE_NAME = "/PresenceResource";
+    // Pipelines of the asynchronous requests to each turnstile, by port
+    private static final Map<Integer, RequestPipeline> PIPELINES = new ConcurrentHashMap<>();
+    // Batchers collecting the identifiers queued for each turnstile, by port
+    private static final Map<Integer, VisitorBatcher> BATCHERS = new ConcurrentHashMap<>();
+    // Last count received from each turnstile, revalidated with its ETag
+    private static final ETagCache CACHE = new ETagCache();
+    // Maximum number of times a POST is sent when the server is overloaded
+    private static final int MAX_POST_ATTEMPTS = 5;
+    // Retry delay used when a SERVICE_UNAVAILABLE response carries no Max-Age (in seconds)
+    private static final long DEFAULT_RETRY_S = 1;
+
+    /**
+     * Main method to start observing the PresenceResource. This method connects 
+     * to the CoAP server, sets up an observer on the resource, and prints updates 
+     * on the number of people detected.
+     *
+     * @param args command-line arguments
+     * @param port the port number on which the CoAP server is running
+     */
+    public static void main(String[] args, int port) {
+        CoapClient memberClient = ClientPool.shared().client(port, RESOURCE_NAME);
+        
+        // Set up an observer for the resource
+        memberClient.observe(new CoapHandler() {
+            @Override
+            public void onLoad(CoapResponse response) {
+                // Handle the response from the CoAP server
+                String identifierPayload = new String(response.getResponseText());
+                LOG.log(Level.INFO, "Number of people: {}", identifierPayload);
+            }
+
+            @Override
+            public void onError() {
+                // Handle any errors that occur during observation
+                LOG.error("Error occurred while observing the resource.");
+            }
+        });
+        
+        // Keep the client running to continue observing the resource
+        try {
+            Thread.sleep(300000); // Observe for 5 minutes
+        } catch (InterruptedException e) {
+            e.printStackTrace(); // Handle the interruption exception
+        }
+    }
+    
+    /**
+     * Sends a GET request to the PresenceResource to retrieve the current count of people.
+     * The ETag of the last count received is sent along, so an unchanged count is not downloaded again.
+     *
+     * @param port the port number on which the CoAP server is running
+     */
+    public static void enteredMemberGET(int port) {
+        CoapClient memberClient = ClientPool.shared().client(port, RESOURCE_NAME);
+        
+        try {
+            // Send a confirmable GET request with the cached ETag and get the current representation
+            ETagCache.Representation representation = CACHE.get(memberClient, MediaTypeRegistry.UNDEFINED);
+            if (representation == null) {
+                // Timed out or answered with an error code
+                LOG.error("No response from server");
+                return;
+            }
+            String payload = new String(representation.getPayload());
+            LOG.log(Level.INFO, "Current count of people: {}", payload);
+        } catch (Exception e) {
+            LOG.error("ERROR GET", e); // Handle any exceptions that occur
+        }
+    }
+    
+    /**
+     * Sends a POST request to the PresenceResource to update the count of people 
+     * entering the turnstile. If the server is overloaded the request is retried after
+     * the delay it suggests (see postWithRetry).
+     *
+     * @param identifier the identifier of the person entering
+     * @param port the port number on which the CoAP server is running
+     */
+    public static void enteredMemberPOST(int identifier, int port) {
+        CoapClient memberClient = ClientPool.shared().client(port, RESOURCE_NAME);
+        
+        try {
+            // Send the POST request, creating a new one for every attempt
+            postWithRetry(memberClient, () -> {
+                Request request = new Request(CoAP.Code.POST);
+                request.setConfirmable(true);
+                String payload = Integer.toString(identifier);
+                request.setPayload(payload.getBytes());
+                return request;
+            });
+        } catch (Exception e) {
+            LOG.error("ERROR POST", e); // Handle any exceptions that occur
+        }
+    }
+    
+    /**
+     * Sends a single POST request to the PresenceResource carrying a batch of identifiers,
+     * encoded as a CBOR array. The server adds them atomically and notifies its observers once.
+     * If the server is overloaded the request is retried after the delay it suggests.
+     *
+     * @param identifiers the identifiers of the people passing through the turnstile
+     * @param port the port number on which the CoAP server is running
+     * @return for each identifier, true if it was registered and false if it was a duplicate,
+     *         or null if the request failed
+     */
+    public static boolean[] enteredMemberBatchPOST(int[] identifiers, int port) {
+        CoapClient memberClient = ClientPool.shared().client(port, RESOURCE_NAME);
+        
+        // Encode the identifiers as a CBOR array
+        byte[] payload = encodeIdentifiers(identifiers);
+        
+        try {
+            // Send the POST request and decode the result for every identifier
+            CoapResponse response = postWithRetry(memberClient, () -> {
+                Request request = new Request(CoAP.Code.POST);
+                request.setConfirmable(true);
+                request.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_CBOR);
+                request.setPayload(payload);
+                return request;
+            });
+            if (response == null || !response.isSuccess()) {
+                LOG.error("Batch POST failed: " + (response == null ? "timeout" : response.getCode()));
+                return null;
+            }
+            return ValueCodec.decodeResults(response.getOptions().getContentFormat(), response.getPayload());
+        } catch (Exception e) {
+            LOG.error("ERROR batch POST", e); // Handle any exceptions that occur
+            return null;
+        }
+    }
+    
+    /**
+     * Sends a GET request to the PresenceResource without blocking.
+     *
+     * @param port the port number on which the CoAP server is running
+     * @return the future response, with the current count of people as payload
+     */
+    public static CompletableFuture<CoapResponse> enteredMemberGETAsync(int port) {
+        Request request = new Request(CoAP.Code.GET);
+        request.setConfirmable(true);
+        return pipeline(port).send(request);
+    }
+    
+    /**
+     * Sends a POST request to the PresenceResource without blocking, registering a person entering
+     * the turnstile. If the server is overloaded the request is sent again after the delay it suggests.
+     *
+     * @param identifier the identifier of the person entering
+     * @param port the port number on which the CoAP server is running
+     * @return the future response: CHANGED if the identifier was added, or the error of the server
+     */
+    public static CompletableFuture<CoapResponse> enteredMemberPOSTAsync(int identifier, int port) {
+        byte[] payload = Integer.toString(identifier).getBytes();
+        return postWithRetryAsync(pipeline(port), () -> {
+            Request request = new Request(CoAP.Code.POST);
+            request.setConfirmable(true);
+            request.setPayload(payload);
+            return request;
+        });
+    }
+    
+    /**
+     * Sends a batch of identifiers to the PresenceResource without blocking, like enteredMemberBatchPOST.
+     *
+     * @param identifiers the identifiers of the people passing through the turnstile
+     * @param port the port number on which the CoAP server is running
+     * @return the future result: for each identifier, true if it was registered and false if it was
+     *         a duplicate; it completes exceptionally if the server answers with an error
+     */
+    public static CompletableFuture<boolean[]> enteredMemberBatchPOSTAsync(int[] identifiers, int port) {
+        byte[] payload = encodeIdentifiers(identifiers);
+        return postWithRetryAsync(pipeline(port), () -> {
+            Request request = new Request(CoAP.Code.POST);
+            request.setConfirmable(true);
+            request.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_CBOR);
+            request.setPayload(payload);
+            return request;
+        }).thenApply(response -> {
+            if (!response.isSuccess()) {
+                throw new IllegalStateException("Batch POST failed: " + response.getCode());
+            }
+            return ValueCodec.decodeResults(response.getOptions().getContentFormat(), response.getPayload());
+        });
+    }
+    
+    /**
+     * Returns the pipeline of the asynchronous requests to a turnstile, e.g. to change the number of
+     * requests it keeps in flight or their timeout.
+     *
+     * @param port the port number on which the CoAP server is running
+     * @return the pipeline, created on the first call
+     */
+    public static RequestPipeline pipeline(int port) {
+        return PIPELINES.computeIfAbsent(port, key -> new RequestPipeline(ClientPool.shared().client(key, RESOURCE_NAME)));
+    }
+    
+    /**
+     * Queues an identifier for the turnstile on the given port. Identifiers queued within a short
+     * window are sent together by enteredMemberBatchPOSTAsync, which keeps a burst of visitors from
+     * costing one confirmable round trip each.
+     *
+     * @param identifier the identifier of the person passing through the turnstile
+     * @param port the port number on which the CoAP server is running
+     */
+    public static void enteredMemberQueuedPOST(int identifier, int port) {
+        BATCHERS.computeIfAbsent(port, VisitorBatcher::new).add(identifier);
+    }
+    
+    /**
+     * Sends every identifier still queued for the turnstile on the given port.
+     *
+     * @param port the port number on which the CoAP server is running
+     * @return a future completed once the server answered, e.g. to wait for the batch before exiting
+     */
+    public static CompletableFuture<Void> flushQueuedPOST(int port) {
+        VisitorBatcher batcher = BATCHERS.get(port);
+        if (batcher != null) {
+            return batcher.flush();
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+    
+    /**
+     * Sends a POST request, and sends it again while the server answers SERVICE_UNAVAILABLE.
+     * Before each retry the client waits for the Max-Age of the response, the number of seconds
+     * the server expects to need to drain its queue, scaled by a random factor between 0.5 and 1.5
+     * so that the clients turned away by the same burst do not all come back at the same moment.
+     *
+     * @param client the client, set to the URI of the resource
+     * @param requests creates the request of each attempt, since a request can only be sent once
+     * @return the last response, or null if the server did not answer
+     * @throws ConnectorException if the request could not be sent
+     * @throws IOException if the request could not be sent
+     * @throws InterruptedException if interrupted while waiting to retry
+     */
+    private static CoapResponse postWithRetry(CoapClient client, Supplier<Request> requests)
+            throws ConnectorException, IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            CoapResponse response = client.advanced(requests.get());
+            if (response == null || response.getCode() != CoAP.ResponseCode.SERVICE_UNAVAILABLE
+                    || attempt == MAX_POST_ATTEMPTS) {
+                return response;
+            }
+            long delay = retryDelayMs(response);
+            LOG.log(Level.WARN, "Server overloaded, retrying POST in {} ms", delay);
+            Thread.sleep(delay);
+        }
+    }
+    
+    /**
+     * Sends a POST request through a pipeline, and sends it again while the server answers
+     * SERVICE_UNAVAILABLE, waiting as postWithRetry does but on a timer instead of the caller.
+     * Cancelling the returned future cancels the attempt in progress.
+     *
+     * @param pipeline the pipeline of the turnstile
+     * @param requests creates the request of each attempt, since a request can only be sent once
+     * @return the future last response
+     */
+    private static CompletableFuture<CoapResponse> postWithRetryAsync(RequestPipeline pipeline, Supplier<Request> requests) {
+        CompletableFuture<CoapResponse> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<CoapResponse>> attempt = new AtomicReference<>();
+        result.whenComplete((response, failure) -> {
+            CompletableFuture<CoapResponse> current = attempt.get();
+            if (result.isCancelled() && current != null) {
+                current.cancel(false);
+            }
+        });
+        sendAttempt(pipeline, requests, 1, result, attempt);
+        return result;
+    }
+
+    /**
+     * Sends one attempt of postWithRetryAsync, and schedules the next one if the server is overloaded.
+     */
+    private static void sendAttempt(RequestPipeline pipeline, Supplier<Request> requests, int number,
+            CompletableFuture<CoapResponse> result, AtomicReference<CompletableFuture<CoapResponse>> attempt) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<CoapResponse> current = pipeline.send(requests.get());
+        attempt.set(current);
+        if (result.isCancelled()) {
+            current.cancel(false);
+            return;
+        }
+        current.whenComplete((response, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else if (response.getCode() != CoAP.ResponseCode.SERVICE_UNAVAILABLE || number == MAX_POST_ATTEMPTS) {
+                result.complete(response);
+            } else {
+                long delay = retryDelayMs(response);
+                LOG.log(Level.WARN, "Server overloaded, retrying POST in {} ms", delay);
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                        .execute(() -> sendAttempt(pipeline, requests, number + 1, result, attempt));
+            }
+        });
+    }
+
+    /**
+     * Returns the time to wait before sending again a request answered SERVICE_UNAVAILABLE: the Max-Age
+     * of the response, scaled by a random factor between 0.5 and 1.5.
+     */
+    private static long retryDelayMs(CoapResponse response) {
+        long retryAfter = response.getOptions().hasMaxAge() ? response.getOptions().getMaxAge() : DEFAULT_RETRY_S;
+        return (long) (retryAfter * 1000 * ThreadLocalRandom.current().nextDouble(0.5, 1.5));
+    }
+    
+    /**
+     * Encodes identifiers as a CBOR array of integers.
+     */
+    private static byte[] encodeIdentifiers(int[] identifiers) {
+        Cbor.Writer writer = new Cbor.Writer();
+        writer.array(identifiers.length);
+        for (int identifier : identifiers) {
+            writer.integer(identifier);
+        }
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,237 @@
+package it.unipr.iotlab.iot2024.cf.client;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.Request;
+
+/**
+ * The RequestPipeline class sends requests to a resource without blocking the caller, keeping up
+ * to a configured number of them in flight over the same client; the requests over the limit wait
+ * in a queue and are sent, in order, as the responses come back. Each request returns a
+ * CompletableFuture of its response, which:
+ * <ul>
+ * <li>completes with the response, whatever its code;</li>
+ * <li>completes exceptionally with a TimeoutException if no response arrives within the timeout,
+ * counted from the call so that the time spent in the queue is included;</li>
+ * <li>completes exceptionally with an IOException if the request is rejected or its
+ * retransmissions run out;</li>
+ * <li>can be cancelled, which removes the request from the queue or cancels its exchange.</li>
+ * </ul>
+ * The default limit and timeout are set with the village.client.inflight and
+ * village.client.timeoutMs system properties.
+ */
+public class RequestPipeline {
+
+    // Default maximum number of requests in flight
+    public static final int DEFAULT_MAX_IN_FLIGHT = Integer.getInteger("village.client.inflight", 16);
+    // Default time a request may take, queued and in flight (in milliseconds)
+    public static final long DEFAULT_TIMEOUT_MS = Long.getLong("village.client.timeoutMs", 30000);
+
+    // Scheduler shared by all pipelines for the timeouts
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RequestPipeline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // States of a call
+    private static final int QUEUED = 0;
+    private static final int SENT = 1;
+    private static final int DONE = 2;
+
+    // Client sending the requests, set to the URI of the resource
+    private final CoapClient client;
+    // Maximum number of requests in flight
+    private volatile int maxInFlight;
+    // Time a request may take before it fails (in milliseconds)
+    private volatile long timeoutMs;
+
+    // Number of requests in flight, and requests waiting for one to complete (guarded by this)
+    private int inFlight;
+    private final ArrayDeque<Call> waiting = new ArrayDeque<>();
+
+    /**
+     * Constructor for RequestPipeline, with the default limit and timeout.
+     *
+     * @param client the client sending the requests, e.g. one of the ClientPool
+     */
+    public RequestPipeline(CoapClient client) {
+        this(client, DEFAULT_MAX_IN_FLIGHT, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Constructor for RequestPipeline.
+     *
+     * @param client the client sending the requests, e.g. one of the ClientPool
+     * @param maxInFlight the maximum number of requests in flight
+     * @param timeoutMs the time a request may take before it fails, in milliseconds
+     */
+    public RequestPipeline(CoapClient client, int maxInFlight, long timeoutMs) {
+        this.client = client;
+        setMaxInFlight(maxInFlight);
+        setTimeoutMs(timeoutMs);
+    }
+
+    /**
+     * Sends a request as soon as fewer than the maximum number of requests are in flight.
+     *
+     * @param request the request, without URI to send it to the resource of the client
+     * @return the future response
+     */
+    public CompletableFuture<CoapResponse> send(Request request) {
+        Call call = new Call(request);
+        boolean start;
+        synchronized (this) {
+            start = this.inFlight < this.maxInFlight;
+            if (start) {
+                this.inFlight++;
+            } else {
+                this.waiting.add(call);
+            }
+        }
+        if (start && !call.start()) {
+            release();
+        }
+        return call.future;
+    }
+
+    /**
+     * Hands the slot of a completed request to the next waiting one still to be sent.
+     */
+    private void release() {
+        while (true) {
+            Call next;
+            synchronized (this) {
+                next = this.waiting.poll();
+                if (next == null) {
+                    this.inFlight--;
+                    return;
+                }
+            }
+            if (next.start()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests in flight.
+     * @return the number of requests sent and not completed
+     */
+    public synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    /**
+     * Returns the number of requests waiting to be sent.
+     * @return the length of the queue
+     */
+    public synchronized int getWaiting() {
+        return this.waiting.size();
+    }
+
+    public int getMaxInFlight() {
+        return this.maxInFlight;
+    }
+
+    /**
+     * Sets the maximum number of requests in flight. A higher limit takes effect as the requests
+     * in flight complete.
+     *
+     * @param maxInFlight the limit, at least 1
+     * @return this pipeline
+     */
+    public RequestPipeline setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one request must be in flight: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    public long getTimeoutMs() {
+        return this.timeoutMs;
+    }
+
+    /**
+     * Sets the time the requests sent from now on may take before they fail.
+     *
+     * @param timeoutMs the timeout in milliseconds, strictly positive
+     * @return this pipeline
+     */
+    public RequestPipeline setTimeoutMs(long timeoutMs) {
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive: " + timeoutMs);
+        }
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    /**
+     * A request and its future response.
+     */
+    private final class Call {
+
+        private final Request request;
+        private final CompletableFuture<CoapResponse> future = new CompletableFuture<>();
+        // QUEUED, SENT or DONE
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+        // Task failing the call when the timeout expires
+        private final ScheduledFuture<?> timeout;
+
+        Call(Request request) {
+            this.request = request;
+            long timeoutMs = RequestPipeline.this.timeoutMs;
+            this.timeout = TIMER.schedule(() -> this.future.completeExceptionally(
+                    new TimeoutException("No response within " + timeoutMs + " ms")), timeoutMs, TimeUnit.MILLISECONDS);
+            this.future.whenComplete((response, failure) -> completed(response == null));
+        }
+
+        /**
+         * Sends the request, unless the call already completed while queued.
+         * @return true if the request was sent and now holds a slot
+         */
+        boolean start() {
+            if (!this.state.compareAndSet(QUEUED, SENT)) {
+                return false;
+            }
+            RequestPipeline.this.client.advanced(new CoapHandler() {
+                @Override
+                public void onLoad(CoapResponse response) {
+                    Call.this.future.complete(response);
+                }
+
+                @Override
+                public void onError() {
+                    Call.this.future.completeExceptionally(new IOException("Request to " + RequestPipeline.this.client.getURI()
+                            + " was rejected, timed out or cancelled"));
+                }
+            }, this.request);
+            return true;
+        }
+
+        /**
+         * Stops the timer and, if the request was sent, cancels an unanswered exchange and frees the slot.
+         */
+        private void completed(boolean failed) {
+            this.timeout.cancel(false);
+            if (this.state.getAndSet(DONE) == SENT) {
+                if (failed) {
+                    this.request.cancel();
+                }
+                release();
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package it.unipr.iotlab.iot2024.cf.client;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import it.unipr.iotlab.iot2024.cf.log.Level;
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+
+/**
+ * The VisitorBatcher class collects the identifiers of visitors passing through a turnstile
+ * and sends them to the PresenceResource in batches. The first identifier of a batch opens a
+ * short window; when it closes (or the batch is full) all the collected identifiers are posted
+ * with a single confirmable request, instead of one round trip per visitor.
+ * <p>
+ * The batches are sent asynchronously (see MemberClient.enteredMemberBatchPOSTAsync): the shared
+ * scheduler only closes the windows, so a slow or overloaded turnstile does not delay the batches
+ * of the others, and add() never waits for a round trip.
+ */
+public class VisitorBatcher {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(VisitorBatcher.class);
+
+    // Default time an identifier may wait for others before the batch is sent (in milliseconds)
+    public static final long DEFAULT_WINDOW_MS = 50;
+    // Maximum number of identifiers sent in one request, keeping the payload within one CoAP block
+    public static final int MAX_BATCH_SIZE = 128;
+
+    // Scheduler shared by all batchers to close the windows, never blocked by a request
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "VisitorBatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Port of the turnstile server receiving the batches
+    private final int port;
+    // How long the first identifier of a batch waits for others
+    private final long windowMs;
+
+    // Identifiers collected in the current window
+    private int[] pending;
+    private int pendingCount;
+    // Task that sends the current batch when the window closes
+    private ScheduledFuture<?> flushTask;
+
+    /**
+     * Constructor for VisitorBatcher, using the default window.
+     *
+     * @param port the port number on which the turnstile server is running
+     */
+    public VisitorBatcher(int port) {
+        this(port, DEFAULT_WINDOW_MS);
+    }
+
+    /**
+     * Constructor for VisitorBatcher.
+     *
+     * @param port the port number on which the turnstile server is running
+     * @param windowMs how long the first identifier of a batch waits for others, in milliseconds
+     */
+    public VisitorBatcher(int port, long windowMs) {
+        this.port = port;
+        this.windowMs = windowMs;
+        this.pending = new int[MAX_BATCH_SIZE];
+    }
+
+    /**
+     * Adds an identifier to the current batch, opening a new window if the batch was empty
+     * and sending the batch immediately once it is full.
+     *
+     * @param identifier the identifier of the visitor
+     */
+    public void add(int identifier) {
+        int[] full = null;
+        synchronized (this) {
+            this.pending[this.pendingCount++] = identifier;
+            if (this.pendingCount == MAX_BATCH_SIZE) {
+                full = drain();
+            } else if (this.pendingCount == 1) {
+                this.flushTask = SCHEDULER.schedule(this::flush, this.windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    /**
+     * Sends the identifiers collected so far without waiting for the window to close.
+     *
+     * @return a future completed once the server answered the batch, or at once if nothing was pending
+     */
+    public CompletableFuture<Void> flush() {
+        int[] batch;
+        synchronized (this) {
+            batch = drain();
+        }
+        if (batch.length > 0) {
+            return send(batch);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Takes the pending identifiers and cancels the scheduled flush. Must hold the lock.
+     */
+    private int[] drain() {
+        int[] batch = Arrays.copyOf(this.pending, this.pendingCount);
+        this.pendingCount = 0;
+        if (this.flushTask != null) {
+            this.flushTask.cancel(false);
+            this.flushTask = null;
+        }
+        return batch;
+    }
+
+    /**
+     * Posts a batch without blocking and reports the identifiers rejected as duplicates.
+     *
+     * @return a future completed once the server answered, or the request failed
+     */
+    private CompletableFuture<Void> send(int[] batch) {
+        return MemberClient.enteredMemberBatchPOSTAsync(batch, this.port).handle((added, failure) -> {
+            if (failure != null) {
+                LOG.log(Level.ERROR, "Batch POST failed: {}", failure.getMessage());
+                return null;
+            }
+            for (int i = 0; i < added.length && i < batch.length; i++) {
+                if (!added[i]) {
+                    LOG.log(Level.INFO, "Identifier already registered: {}", batch[i]);
+                }
+            }
+            return null;
+        });
+    }
+}
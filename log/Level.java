@@ -0,0 +1,26 @@
+package it.unipr.iotlab.iot2024.cf.log;
+
+/**
+ * The Level enum lists the severities of the log messages, from the least to the most severe.
+ */
+public enum Level {
+    DEBUG, INFO, WARN, ERROR, OFF;
+
+    /**
+     * Parses a level name, ignoring case.
+     *
+     * @param name the name of the level, e.g. "info"
+     * @param defaultLevel the level returned if the name is null or unknown
+     * @return the level
+     */
+    public static Level parse(String name, Level defaultLevel) {
+        if (name != null) {
+            for (Level level : values()) {
+                if (level.name().equalsIgnoreCase(name.trim())) {
+                    return level;
+                }
+            }
+        }
+        return defaultLevel;
+    }
+}
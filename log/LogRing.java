@@ -0,0 +1,240 @@
+package it.unipr.iotlab.iot2024.cf.log;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The LogRing class is the ring buffer between the threads logging and the single background
+ * thread writing the messages. A logging thread claims a slot with one compare-and-set, copies
+ * the template and arguments of the message into it (no formatting, no string building) and
+ * publishes it; the writer formats every published message and writes them to the output in a
+ * single print per pass, so the output lock is taken once per batch instead of once per message
+ * and never by the logging threads.
+ * <p>
+ * When the ring is full the message is dropped rather than blocking the logging thread; the
+ * number of dropped messages is written once the writer catches up.
+ */
+final class LogRing {
+
+    // Kinds of the arguments stored in a slot
+    static final byte NONE = 0;
+    static final byte LONG = 1;
+    static final byte DOUBLE = 2;
+    static final byte OBJECT = 3;
+    // Kind of a message followed by the stack trace of its object, a Throwable
+    static final byte THROWN = 4;
+
+    // Slots of the ring, reused for every message
+    private final Slot[] slots;
+    // Mask turning a sequence number into a slot index
+    private final int mask;
+    // Sequence number of the next slot to claim
+    private final AtomicLong tail = new AtomicLong();
+    // Sequence number of the next slot to write (only advanced by the writer)
+    private volatile long head;
+    // Messages dropped because the ring was full, and the part already reported
+    private final AtomicLong dropped = new AtomicLong();
+    private long droppedReported;
+    // Messages written
+    private volatile long written;
+    // Whether the writer is parked waiting for messages
+    private volatile boolean idle;
+    // Output the messages are written to
+    private volatile PrintStream output;
+    // Background thread writing the messages
+    private final Thread writer;
+
+    /**
+     * Constructor for LogRing, starting the writer thread.
+     *
+     * @param capacity the number of slots, rounded up to a power of two
+     * @param output the stream the messages are written to
+     */
+    LogRing(int capacity, PrintStream output) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            this.slots[i] = new Slot();
+            this.slots[i].sequence = i - size;
+        }
+        this.mask = size - 1;
+        this.output = output;
+        this.writer = new Thread(this::drainLoop, "VillageLog");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Publishes a message, or drops it if the ring is full.
+     *
+     * @return false if the message was dropped
+     */
+    boolean publish(String prefix, String template, byte kind1, long bits1, byte kind2, long bits2, Object object) {
+        long sequence;
+        do {
+            sequence = this.tail.get();
+            if (sequence - this.head >= this.slots.length) {
+                this.dropped.incrementAndGet();
+                return false;
+            }
+        } while (!this.tail.compareAndSet(sequence, sequence + 1));
+
+        Slot slot = this.slots[(int) sequence & this.mask];
+        slot.prefix = prefix;
+        slot.template = template;
+        slot.kind1 = kind1;
+        slot.bits1 = bits1;
+        slot.kind2 = kind2;
+        slot.bits2 = bits2;
+        slot.object = object;
+        slot.sequence = sequence; // Publish the slot to the writer
+        if (this.idle) {
+            LockSupport.unpark(this.writer);
+        }
+        return true;
+    }
+
+    /**
+     * Waits until every message published so far is written.
+     *
+     * @param timeoutMs the maximum time to wait, in milliseconds
+     */
+    void flush(long timeoutMs) {
+        long target = this.tail.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (this.head < target && System.nanoTime() < deadline) {
+            LockSupport.unpark(this.writer);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    }
+
+    void setOutput(PrintStream output) {
+        this.output = output;
+    }
+
+    long getDropped() {
+        return this.dropped.get();
+    }
+
+    long getWritten() {
+        return this.written;
+    }
+
+    /**
+     * Writes the published messages until the JVM exits, parking while the ring is empty.
+     */
+    private void drainLoop() {
+        StringBuilder batch = new StringBuilder(4096);
+        while (true) {
+            if (!drain(batch)) {
+                this.idle = true;
+                if (this.slots[(int) this.head & this.mask].sequence != this.head) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                }
+                this.idle = false;
+            }
+        }
+    }
+
+    /**
+     * Formats and writes the messages published so far, in one print.
+     *
+     * @return true if at least one message was written
+     */
+    private boolean drain(StringBuilder batch) {
+        long next = this.head;
+        long count = 0;
+        Slot slot;
+        while ((slot = this.slots[(int) next & this.mask]).sequence == next) {
+            format(slot, batch);
+            slot.template = null;
+            slot.object = null;
+            this.head = ++next; // Release the slot to the logging threads
+            count++;
+            if (batch.length() > 64 * 1024) {
+                break;
+            }
+        }
+        long dropped = this.dropped.get();
+        if (dropped != this.droppedReported) {
+            batch.append(dropped - this.droppedReported).append(" log messages dropped (buffer full)").append(System.lineSeparator());
+            this.droppedReported = dropped;
+        }
+        if (batch.length() == 0) {
+            return false;
+        }
+        PrintStream out = this.output;
+        out.print(batch);
+        out.flush();
+        batch.setLength(0);
+        this.written += count;
+        return true;
+    }
+
+    /**
+     * Appends the message of a slot, replacing each {} of the template with the next argument.
+     */
+    private static void format(Slot slot, StringBuilder batch) {
+        if (slot.prefix != null) {
+            batch.append(slot.prefix);
+        }
+        String template = slot.template;
+        if (slot.kind1 == THROWN) {
+            // The template is written as it is, followed by the stack trace
+            StringWriter trace = new StringWriter();
+            ((Throwable) slot.object).printStackTrace(new PrintWriter(trace));
+            batch.append(template).append(System.lineSeparator()).append(trace);
+            return;
+        }
+        int argument = 0;
+        int from = 0;
+        int at;
+        while (argument < 2 && (at = template.indexOf("{}", from)) >= 0) {
+            batch.append(template, from, at);
+            if (argument == 0) {
+                appendArgument(batch, slot.kind1, slot.bits1, slot.object);
+            } else {
+                appendArgument(batch, slot.kind2, slot.bits2, slot.object);
+            }
+            argument++;
+            from = at + 2;
+        }
+        batch.append(template, from, template.length()).append(System.lineSeparator());
+    }
+
+    private static void appendArgument(StringBuilder batch, byte kind, long bits, Object object) {
+        switch (kind) {
+        case LONG:
+            batch.append(bits);
+            break;
+        case DOUBLE:
+            batch.append(Double.longBitsToDouble(bits));
+            break;
+        case OBJECT:
+            batch.append(object);
+            break;
+        default:
+            batch.append("{}");
+        }
+    }
+
+    /**
+     * A message in the ring: its template and up to two arguments, a number or an object.
+     */
+    private static final class Slot {
+
+        // Sequence number of the message held, published last by the logging thread
+        private volatile long sequence;
+        private String prefix;
+        private String template;
+        private byte kind1;
+        private long bits1;
+        private byte kind2;
+        private long bits2;
+        private Object object;
+    }
+}
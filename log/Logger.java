@@ -0,0 +1,293 @@
+package it.unipr.iotlab.iot2024.cf.log;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Logger class is the logging facility of the village servers and clients. Messages are
+ * handed to a ring buffer and written to the console by a background thread (see LogRing), so
+ * a request handler or a notification handler never waits for the console; a message below
+ * the level of its logger costs a single comparison.
+ * <p>
+ * A message is a template where each {} is replaced by an argument, formatted by the background
+ * thread: log(Level.INFO, "Added new identifier: {}", identifier) stores the number, not a string.
+ * Each logger can also be limited to a number of messages per second; the messages over the limit
+ * are dropped and their number is written when the next second starts.
+ * <p>
+ * The default level and rate limit are set with the village.log.level (DEBUG, INFO, WARN, ERROR
+ * or OFF) and village.log.rate (messages per second and logger, 0 for no limit) system properties.
+ */
+public final class Logger {
+
+    // System property setting the default level of the loggers
+    public static final String LEVEL_PROPERTY = "village.log.level";
+    // System property setting the default rate limit of the loggers
+    public static final String RATE_PROPERTY = "village.log.rate";
+    // Number of messages the ring buffer holds
+    private static final int CAPACITY = 8192;
+    // Maximum time flush() waits for the messages to be written (in milliseconds)
+    private static final long FLUSH_TIMEOUT_MS = 2000;
+
+    // Ring buffer shared by all loggers, written to the console
+    private static final LogRing RING = new LogRing(CAPACITY, System.out);
+    // Loggers by name
+    private static final Map<String, Logger> LOGGERS = new ConcurrentHashMap<>();
+
+    static {
+        // Write the messages still in the ring when the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> RING.flush(FLUSH_TIMEOUT_MS), "VillageLog-flush"));
+    }
+
+    // Name of the logger, e.g. the class logging
+    private final String name;
+    // Prefix of the messages (null to write them as they are)
+    private volatile String prefix;
+    // Least severe level written
+    private volatile Level level;
+    // Maximum number of messages per second (0 for no limit)
+    private volatile int rateLimit;
+    // Second of the current rate limit window, messages logged in it and messages dropped
+    private final AtomicLong window = new AtomicLong();
+    private final AtomicInteger windowCount = new AtomicInteger();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    private Logger(String name) {
+        this.name = name;
+        this.level = Level.parse(System.getProperty(LEVEL_PROPERTY), Level.INFO);
+        this.rateLimit = Integer.getInteger(RATE_PROPERTY, 0);
+    }
+
+    /**
+     * Returns the logger with the given name, creating it on the first call.
+     *
+     * @param name the name of the logger, e.g. the simple name of the class logging
+     * @return the logger
+     */
+    public static Logger get(String name) {
+        return LOGGERS.computeIfAbsent(name, Logger::new);
+    }
+
+    /**
+     * Returns the logger of a class.
+     *
+     * @param type the class logging
+     * @return the logger named after the simple name of the class
+     */
+    public static Logger get(Class<?> type) {
+        return get(type.getSimpleName());
+    }
+
+    /**
+     * Checks whether messages of a level are written, e.g. to skip computing an argument.
+     * @param level the level of the message
+     * @return true if the level is enabled
+     */
+    public boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0 && level != Level.OFF;
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    /**
+     * Logs an error followed by the stack trace of its cause, printed by the background thread.
+     * @param message the message
+     * @param failure the exception that caused the error
+     */
+    public void error(String message, Throwable failure) {
+        if (admit(Level.ERROR)) {
+            RING.publish(this.prefix, message, LogRing.THROWN, 0, LogRing.NONE, 0, failure);
+        }
+    }
+
+    /**
+     * Logs a message.
+     * @param level the level of the message
+     * @param message the message
+     */
+    public void log(Level level, String message) {
+        if (admit(level)) {
+            RING.publish(this.prefix, message, LogRing.NONE, 0, LogRing.NONE, 0, null);
+        }
+    }
+
+    /**
+     * Logs a message with an integer argument.
+     * @param level the level of the message
+     * @param template the message, where {} is replaced by the argument
+     * @param argument the argument
+     */
+    public void log(Level level, String template, long argument) {
+        if (admit(level)) {
+            RING.publish(this.prefix, template, LogRing.LONG, argument, LogRing.NONE, 0, null);
+        }
+    }
+
+    /**
+     * Logs a message with a decimal argument.
+     * @param level the level of the message
+     * @param template the message, where {} is replaced by the argument
+     * @param argument the argument
+     */
+    public void log(Level level, String template, double argument) {
+        if (admit(level)) {
+            RING.publish(this.prefix, template, LogRing.DOUBLE, Double.doubleToRawLongBits(argument), LogRing.NONE, 0, null);
+        }
+    }
+
+    /**
+     * Logs a message with an object argument, converted to a string by the background thread.
+     * @param level the level of the message
+     * @param template the message, where {} is replaced by the argument
+     * @param argument the argument, which must not change once logged
+     */
+    public void log(Level level, String template, Object argument) {
+        if (admit(level)) {
+            RING.publish(this.prefix, template, LogRing.OBJECT, 0, LogRing.NONE, 0, argument);
+        }
+    }
+
+    /**
+     * Logs a message with two integer arguments.
+     * @param level the level of the message
+     * @param template the message, where the two {} are replaced by the arguments
+     * @param first the first argument
+     * @param second the second argument
+     */
+    public void log(Level level, String template, long first, long second) {
+        if (admit(level)) {
+            RING.publish(this.prefix, template, LogRing.LONG, first, LogRing.LONG, second, null);
+        }
+    }
+
+    /**
+     * Logs a message with a decimal and an integer argument.
+     * @param level the level of the message
+     * @param template the message, where the two {} are replaced by the arguments
+     * @param first the first argument
+     * @param second the second argument
+     */
+    public void log(Level level, String template, double first, long second) {
+        if (admit(level)) {
+            RING.publish(this.prefix, template, LogRing.DOUBLE, Double.doubleToRawLongBits(first), LogRing.LONG, second, null);
+        }
+    }
+
+    /**
+     * Checks the level and the rate limit of a message.
+     */
+    private boolean admit(Level level) {
+        if (!isEnabled(level)) {
+            return false;
+        }
+        int limit = this.rateLimit;
+        if (limit <= 0) {
+            return true;
+        }
+        long second = System.nanoTime() / 1_000_000_000L;
+        long current = this.window.get();
+        if (second != current && this.window.compareAndSet(current, second)) {
+            // A new second starts: report the messages dropped in the previous one
+            this.windowCount.set(0);
+            long dropped = this.suppressed.getAndSet(0);
+            if (dropped > 0) {
+                RING.publish(this.prefix, this.name + ": {} messages suppressed by the rate limit",
+                        LogRing.LONG, dropped, LogRing.NONE, 0, null);
+            }
+        }
+        if (this.windowCount.incrementAndGet() > limit) {
+            this.suppressed.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public Level getLevel() {
+        return this.level;
+    }
+
+    /**
+     * Sets the least severe level written by this logger.
+     * @param level the new level (OFF to disable the logger)
+     * @return this logger
+     */
+    public Logger setLevel(Level level) {
+        this.level = level;
+        return this;
+    }
+
+    public int getRateLimit() {
+        return this.rateLimit;
+    }
+
+    /**
+     * Limits the number of messages written per second by this logger.
+     * @param messagesPerSecond the limit, or 0 for no limit
+     * @return this logger
+     */
+    public Logger setRateLimit(int messagesPerSecond) {
+        this.rateLimit = messagesPerSecond;
+        return this;
+    }
+
+    /**
+     * Sets a prefix written before every message of this logger.
+     * @param prefix the prefix, e.g. "[HeatingPump] ", or null for none
+     * @return this logger
+     */
+    public Logger setPrefix(String prefix) {
+        this.prefix = prefix;
+        return this;
+    }
+
+    /**
+     * Waits until every message logged so far is written, e.g. before a simulation prints its results.
+     */
+    public static void flush() {
+        RING.flush(FLUSH_TIMEOUT_MS);
+    }
+
+    /**
+     * Redirects the messages of all loggers, e.g. to a file or, in benchmarks, to a stream discarding them.
+     * @param output the new output
+     */
+    public static void setOutput(PrintStream output) {
+        RING.setOutput(output);
+    }
+
+    /**
+     * Returns the number of messages dropped because the ring buffer was full.
+     * @return the number of dropped messages
+     */
+    public static long getDropped() {
+        return RING.getDropped();
+    }
+
+    /**
+     * Returns the number of messages written so far.
+     * @return the number of written messages
+     */
+    public static long getWritten() {
+        return RING.getWritten();
+    }
+}
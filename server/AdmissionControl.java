@@ -0,0 +1,204 @@
+package it.unipr.iotlab.iot2024.cf.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The AdmissionControl class bounds the work a resource accepts. At most a given number of requests
+ * are handled at the same time (the concurrency limit), and at most a given number of requests wait
+ * for their turn (the queue depth). A request arriving when the queue is full, or a request that
+ * already waited longer than the maximum wait before being delivered, is turned away at once with
+ * 5.03 Service Unavailable and a Max-Age telling the client when to retry, estimated from the
+ * queued work and the average handling time, so that a burst raises the rejection rate instead of
+ * the latency of every request.
+ * <p>
+ * The check is done by the MeteredDeliverer of a VillageServer, on the protocol thread, before the
+ * request is handed to the handler executor (see AdmittedResource): a request counts from its
+ * delivery until its handler returns, so the requests waiting in the queue of the executor are
+ * bounded too. When the handlers run on the protocol threads the backlog is the queue of
+ * Californium, which is only seen through the time a request waited in it, hence the maximum wait.
+ * <p>
+ * The defaults are set with the village.admission.concurrency, village.admission.queue and
+ * village.admission.wait system properties.
+ */
+public class AdmissionControl {
+
+    // System property setting the default number of requests handled concurrently
+    public static final String CONCURRENCY_PROPERTY = "village.admission.concurrency";
+    // System property setting the default number of requests waiting to be handled
+    public static final String QUEUE_PROPERTY = "village.admission.queue";
+    // System property setting the default time a request may wait before being delivered (in milliseconds)
+    public static final String WAIT_PROPERTY = "village.admission.wait";
+    // Defaults of the limits
+    private static final int DEFAULT_CONCURRENCY = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int DEFAULT_QUEUE_DEPTH = 256;
+    private static final long DEFAULT_MAX_WAIT_MS = 1000;
+    // Bounds of the retry hint (in seconds)
+    private static final long MIN_RETRY_S = 1;
+    private static final long MAX_RETRY_S = 30;
+    // Weight of the latest request in the average handling time
+    private static final double EWMA_WEIGHT = 0.1;
+
+    // Maximum number of requests handled at the same time
+    private volatile int concurrency;
+    // Maximum number of requests waiting
+    private final int queueDepth;
+    // Maximum time a request may wait before being delivered (in nanoseconds)
+    private final long maxWaitNanos;
+    // Number of requests delivered whose handler has not returned yet
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Number of requests admitted
+    private final AtomicLong admitted = new AtomicLong();
+    // Number of requests rejected
+    private final AtomicLong rejected = new AtomicLong();
+    // Highest number of requests seen waiting
+    private final AtomicInteger maxQueued = new AtomicInteger();
+    // Time the latest request waited before being delivered (in nanoseconds)
+    private volatile long lastWaitNanos;
+    // Average time needed to handle a request (in nanoseconds)
+    private volatile double averageServiceNanos;
+
+    /**
+     * Constructor for AdmissionControl, with the limits set by the system properties.
+     */
+    public AdmissionControl() {
+        this(Integer.getInteger(CONCURRENCY_PROPERTY, DEFAULT_CONCURRENCY),
+                Integer.getInteger(QUEUE_PROPERTY, DEFAULT_QUEUE_DEPTH),
+                Long.getLong(WAIT_PROPERTY, DEFAULT_MAX_WAIT_MS));
+    }
+
+    /**
+     * Constructor for AdmissionControl, with the default maximum wait.
+     *
+     * @param concurrency the maximum number of requests handled at the same time
+     * @param queueDepth the maximum number of requests waiting to be handled
+     */
+    public AdmissionControl(int concurrency, int queueDepth) {
+        this(concurrency, queueDepth, DEFAULT_MAX_WAIT_MS);
+    }
+
+    /**
+     * Constructor for AdmissionControl.
+     *
+     * @param concurrency the maximum number of requests handled at the same time
+     * @param queueDepth the maximum number of requests waiting to be handled
+     * @param maxWaitMs the maximum time a request may wait before being delivered, in milliseconds
+     */
+    public AdmissionControl(int concurrency, int queueDepth, long maxWaitMs) {
+        if (concurrency <= 0 || queueDepth < 0 || maxWaitMs <= 0) {
+            throw new IllegalArgumentException("Concurrency and maximum wait must be positive and queue depth not negative");
+        }
+        this.concurrency = concurrency;
+        this.queueDepth = queueDepth;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+    }
+
+    /**
+     * Admits a request being delivered if it did not wait too long and the concurrency limit and
+     * the queue have room. An admitted request must be released once its handler returns.
+     *
+     * @param waitedNanos the time since the request was received, in nanoseconds
+     * @return true if the request was admitted, false if it must be answered 5.03 with
+     *         getRetryAfterSeconds() as Max-Age
+     */
+    public boolean tryAdmit(long waitedNanos) {
+        this.lastWaitNanos = waitedNanos;
+        if (waitedNanos > this.maxWaitNanos) {
+            this.rejected.incrementAndGet();
+            return false;
+        }
+        int current = this.inFlight.incrementAndGet();
+        if (current > this.concurrency + this.queueDepth) {
+            this.inFlight.decrementAndGet();
+            this.rejected.incrementAndGet();
+            return false;
+        }
+        this.admitted.incrementAndGet();
+        this.maxQueued.accumulateAndGet(current - this.concurrency, Math::max);
+        return true;
+    }
+
+    /**
+     * Releases the place of an admitted request whose handler returned, updating the average
+     * handling time.
+     *
+     * @param serviceNanos the time the handler took, in nanoseconds
+     */
+    public void release(long serviceNanos) {
+        this.inFlight.decrementAndGet();
+        double average = this.averageServiceNanos;
+        this.averageServiceNanos = average == 0 ? serviceNanos : average + EWMA_WEIGHT * (serviceNanos - average);
+    }
+
+    /**
+     * Estimates how long the requests already queued take to drain, i.e. when a client
+     * turned away should retry. The time the latest request waited before being delivered
+     * accounts for the requests queued before the admission control.
+     *
+     * @return the retry hint in seconds, sent as Max-Age of the 5.03 responses
+     */
+    public long getRetryAfterSeconds() {
+        double drainNanos = this.averageServiceNanos * (getQueued() + 1) / this.concurrency;
+        long seconds = (long) Math.ceil(Math.max(drainNanos, this.lastWaitNanos) / 1e9);
+        return Math.max(MIN_RETRY_S, Math.min(MAX_RETRY_S, seconds));
+    }
+    /**
+     * Changes the number of requests handled at the same time.
+     * @param concurrency the new concurrency limit
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Returns the number of requests handled at the same time.
+     * @return the concurrency limit
+     */
+    public int getConcurrency() {
+        return this.concurrency;
+    }
+
+    /**
+     * Returns the number of requests that can wait to be handled.
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return this.queueDepth;
+    }
+
+    /**
+     * Returns the number of requests waiting to be handled.
+     * @return the current queue length
+     */
+    public int getQueued() {
+        return Math.max(0, this.inFlight.get() - this.concurrency);
+    }
+
+    /**
+     * Returns the highest number of requests seen waiting.
+     * @return the maximum queue length
+     */
+    public int getMaxQueued() {
+        return this.maxQueued.get();
+    }
+
+    /**
+     * Returns the number of requests admitted so far.
+     * @return the number of admitted requests
+     */
+    public long getAdmitted() {
+        return this.admitted.get();
+    }
+
+    /**
+     * Returns the number of requests answered with 5.03 so far.
+     * @return the number of rejected requests
+     */
+    public long getRejected() {
+        return this.rejected.get();
+    }
+}
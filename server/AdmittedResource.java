@@ -0,0 +1,20 @@
+package it.unipr.iotlab.iot2024.cf.server;
+
+import org.eclipse.californium.core.coap.CoAP;
+
+/**
+ * The AdmittedResource interface is implemented by the resources whose requests pass through an
+ * AdmissionControl. A VillageServer checks the admission when it delivers a request, before the
+ * request is handed to the handler executor, so a rejected request never waits for a handler.
+ * The admission is not checked when the resource is added to a plain CoapServer.
+ */
+public interface AdmittedResource {
+
+    /**
+     * Returns the admission control of the requests with the given method.
+     *
+     * @param method the method of the request
+     * @return the admission control, or null if these requests are always delivered
+     */
+    AdmissionControl getAdmissionControl(CoAP.Code method);
+}
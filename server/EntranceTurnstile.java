@@ -1,58 +1,217 @@
-package it.unipr.iotlab.iot2024.cf.server;
-
-import org.eclipse.californium.core.CoapServer;
-import it.unipr.iotlab.iot2024.cf.server.resources.PresenceResource;
-
-/**
- * The EntranceTurnstile class extends CoapServer and simulates a CoAP server 
- * that manages a single resource: PresenceResource. This resource tracks the 
- * presence of people entering through a turnstile.
- */
-public class EntranceTurnstile extends CoapServer {
-
-    /**
-     * Constructor for EntranceTurnstile, initializing the server on a given port
-     * and adding the PresenceResource, which tracks the number of people entering.
-     *
-     * @param port the port number the server will run on
-     */
-    public EntranceTurnstile(int port) {
-        super(port);
-        
-        // Create the resource for tracking the presence of people
-        PresenceResource presenceResource = new PresenceResource("PresenceResource");
-        
-        // Add the presence resource to the CoAP server
-        this.add(presenceResource);
-    }
-
-    public static void main(String[] args) {
-        // Create an instance of EntranceTurnstile on CoAP port 5686
-        EntranceTurnstile entranceTurnstile = new EntranceTurnstile(5686);
-        System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
-        System.out.println("Starting Entrance Turnstile...\n");
-
-        try {
-            // Start the server
-            entranceTurnstile.start();
-            Thread.sleep(2000); // Wait for the server to fully start
-        } catch (Exception e) {
-            e.printStackTrace(); // Print any exception that occurs
-        }
-
-        // Print out resource information (name, URI, and if it is observable)
-        entranceTurnstile.getRoot().getChildren().stream().forEach(resource -> {
-            System.out.printf("Resource %s -> URI: %s (Observable: %b)%n", 
-                              resource.getName(), resource.getURI(), resource.isObservable());
-
-            // Print child resources (if any), excluding the default well-known CoAP resource
-            if (!resource.getURI().equals("/.well-known")) {
-                resource.getChildren().stream().forEach(childResource -> {
-                    System.out.printf("Resource %s -> URI: %s (Observable: %b)%n", 
-                                      childResource.getName(), childResource.getURI(), childResource.isObservable());
-                });
-            }
-        });
-        
-    }
-}
+package it.unipr.iotlab.iot2024.cf.server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.codec.ValueCodec;
+import it.unipr.iotlab.iot2024.cf.server.resources.OccupancyResource;
+import it.unipr.iotlab.iot2024.cf.server.resources.PresenceResource;
+import it.unipr.iotlab.iot2024.cf.server.store.OccupancyCounter;
+import it.unipr.iotlab.iot2024.cf.server.store.StateLog;
+
+/**
+ * The EntranceTurnstile class extends VillageServer and simulates a CoAP server 
+ * that manages two resources: PresenceResource, which tracks the presence of 
+ * people entering through a turnstile, and OccupancyResource, which publishes 
+ * the number of people currently inside the village. The occupancy is hosted only here:
+ * the exits are reported by an ExitTurnstile sharing the same counter, or copied from
+ * the notifications of the exit turnstile when it runs in another process.
+ */
+public class EntranceTurnstile extends VillageServer {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(EntranceTurnstile.class);
+    // URI of the presence resource of the exit turnstile on this host
+    public static final String DEFAULT_EXIT_URI = "coap://127.0.0.1:5687/PresenceResource";
+    // Delay before observing the exit turnstile again after an error (in milliseconds)
+    private static final long EXIT_RETRY_MS = 5000;
+
+    // Write-ahead log and snapshots of the server state
+    private StateLog stateLog;
+    // Resource publishing the number of people inside the village
+    private OccupancyResource occupancyResource;
+    // Client observing the exit turnstile (null if the exits are reported to the counter directly)
+    private CoapClient exitClient;
+    // Handler of the notifications of the exit turnstile
+    private ExitHandler exitHandler;
+    // Relation with the exit turnstile, while the server is running
+    private volatile CoapObserveRelation exitRelation;
+
+    /**
+     * Constructor for EntranceTurnstile, initializing the server on a given port with its own
+     * occupancy counter, whose exits are copied from the exit turnstile on this host.
+     *
+     * @param port the port number the server will run on
+     */
+    public EntranceTurnstile(int port) {
+        this(port, new OccupancyCounter(), DEFAULT_EXIT_URI);
+    }
+
+    /**
+     * Constructor for EntranceTurnstile, initializing the server on a given port with the
+     * occupancy counter of the village, to which an ExitTurnstile in this process reports.
+     *
+     * @param port the port number the server will run on
+     * @param occupancy the occupancy counter of the village
+     */
+    public EntranceTurnstile(int port, OccupancyCounter occupancy) {
+        this(port, occupancy, null);
+    }
+
+    /**
+     * Constructor for EntranceTurnstile, initializing the server on a given port
+     * and adding the PresenceResource, which tracks the number of people entering,
+     * and the OccupancyResource, which publishes the number of people inside.
+     *
+     * @param port the port number the server will run on
+     * @param occupancy the occupancy counter of the village
+     * @param exitUri the presence resource of the exit turnstile to observe, or null if
+     *                the exits are reported to the counter directly
+     */
+    public EntranceTurnstile(int port, OccupancyCounter occupancy, String exitUri) {
+        super(port);
+        
+        // Create the resource for tracking the presence of people entering, reporting to the village occupancy
+        PresenceResource presenceResource = new PresenceResource("PresenceResource",
+                occupancy, OccupancyCounter.Direction.IN);
+        // Create the resource publishing the number of people inside the village
+        this.occupancyResource = new OccupancyResource("Occupancy", occupancy);
+        
+        // Add the resources to the CoAP server
+        this.add(presenceResource);
+        this.add(this.occupancyResource);
+
+        // Copy the number of exits from the notifications of the exit turnstile
+        if (exitUri != null) {
+            this.exitClient = new CoapClient(exitUri);
+            this.exitHandler = new ExitHandler(occupancy);
+        }
+
+        // Restore the state saved before the last shutdown, then log every update
+        this.stateLog = StateLog.open("EntranceTurnstile");
+        presenceResource.persistTo(this.stateLog);
+        this.stateLog.recover();
+    }
+
+    /**
+     * Starts the server and observes the exit turnstile, if the exits are not reported directly.
+     */
+    @Override
+    public synchronized void start() {
+        super.start();
+        if (this.exitClient != null && this.exitRelation == null) {
+            observeExits();
+        }
+    }
+
+    /**
+     * Destroys the server, cancelling the observation of the exit turnstile, removing the
+     * occupancy resource from the counter and flushing its state log to disk.
+     */
+    @Override
+    public synchronized void destroy() {
+        if (this.exitClient != null) {
+            CoapObserveRelation relation = this.exitRelation;
+            this.exitRelation = null;
+            if (relation != null) {
+                relation.proactiveCancel();
+            }
+            this.exitClient.shutdown();
+        }
+        this.occupancyResource.delete();
+        super.destroy();
+        this.stateLog.close();
+    }
+
+    /**
+     * Observes the presence resource of the exit turnstile, in CBOR.
+     */
+    private void observeExits() {
+        this.exitRelation = this.exitClient.observe(this.exitHandler, MediaTypeRegistry.APPLICATION_CBOR);
+    }
+
+    /**
+     * Observes the exit turnstile again after a delay, unless the server was destroyed meanwhile.
+     */
+    private void retryExits() {
+        CompletableFuture.delayedExecutor(EXIT_RETRY_MS, TimeUnit.MILLISECONDS).execute(() -> {
+            synchronized (this) {
+                if (this.exitRelation != null) {
+                    this.exitRelation.reactiveCancel();
+                    observeExits();
+                }
+            }
+        });
+    }
+
+    /**
+     * The ExitHandler class copies the number of people who exited from the notifications of the
+     * exit turnstile into the occupancy counter.
+     */
+    private final class ExitHandler implements CoapHandler {
+
+        // Counter receiving the number of exits
+        private final OccupancyCounter occupancy;
+
+        ExitHandler(OccupancyCounter occupancy) {
+            this.occupancy = occupancy;
+        }
+
+        @Override
+        public void onLoad(CoapResponse response) {
+            if (!response.isSuccess()) {
+                retryExits();
+                return;
+            }
+            try {
+                double exits = ValueCodec.decode(response.getOptions().getContentFormat(), response.getPayload(), "count");
+                this.occupancy.update(OccupancyCounter.Direction.OUT, (long) exits);
+            } catch (IllegalArgumentException e) {
+                LOG.error("ERROR decoding the exits: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onError() {
+            LOG.warn("Exit turnstile unreachable, observing it again");
+            retryExits();
+        }
+    }
+
+    public static void main(String[] args) {
+        // Create an instance of EntranceTurnstile on CoAP port 5686
+        EntranceTurnstile entranceTurnstile = new EntranceTurnstile(5686);
+        System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+        System.out.println("Starting Entrance Turnstile...\n");
+
+        try {
+            // Start the server
+            entranceTurnstile.start();
+            VillageLauncher.awaitReady(entranceTurnstile, VillageLauncher.DEFAULT_TIMEOUT_MS); // Wait until the endpoint is bound and the resources registered
+        } catch (Exception e) {
+            e.printStackTrace(); // Print any exception that occurs
+        }
+
+        // Print out resource information (name, URI, and if it is observable)
+        entranceTurnstile.getRoot().getChildren().stream().forEach(resource -> {
+            System.out.printf("Resource %s -> URI: %s (Observable: %b)%n", 
+                              resource.getName(), resource.getURI(), resource.isObservable());
+
+            // Print child resources (if any), excluding the default well-known CoAP resource
+            if (!resource.getURI().equals("/.well-known")) {
+                resource.getChildren().stream().forEach(childResource -> {
+                    System.out.printf("Resource %s -> URI: %s (Observable: %b)%n", 
+                                      childResource.getName(), childResource.getURI(), childResource.isObservable());
+                });
+            }
+        });
+        
+    }
+}
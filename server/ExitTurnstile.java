@@ -1,60 +1,93 @@
-package it.unipr.iotlab.iot2024.cf.server;
-
-import org.eclipse.californium.core.CoapServer;
-
-import it.unipr.iotlab.iot2024.cf.server.resources.PresenceResource;
-
-/**
- * The ExitTurnstile class extends CoapServer and simulates a CoAP server 
- * that manages a single resource: PresenceResource. This resource tracks the 
- * presence of people exiting through a turnstile. The server runs on a 
- * specified port and provides this resource for CoAP clients to interact with.
- */
-public class ExitTurnstile extends CoapServer {
-
-    /**
-     * Constructor for ExitTurnstile, initializing the server on a given port
-     * and adding the PresenceResource, which tracks the number of people exiting.
-     *
-     * @param port the port number the server will run on
-     */
-    public ExitTurnstile(int port) {
-        super(port);
-        
-        // Create the resource for tracking the presence of people exiting
-        PresenceResource presenceResource = new PresenceResource("PresenceResource");
-        
-        // Add the presence resource to the CoAP server
-        this.add(presenceResource);
-    }
-
-    public static void main(String[] args) {
-        // Create an instance of ExitTurnstile on CoAP port 5687
-        ExitTurnstile exitTurnstile = new ExitTurnstile(5687);
-        System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
-        System.out.println("Starting Exit Turnstile...\n");
-
-        try {
-            // Start the server
-            exitTurnstile.start();
-            Thread.sleep(2000); // Wait for the server to fully start
-        } catch (Exception e) {
-            e.printStackTrace(); // Print any exception that occurs
-        }
-
-        // Print out resource information (name, URI, and if it is observable)
-        exitTurnstile.getRoot().getChildren().stream().forEach(resource -> {
-            System.out.printf("Resource %s -> URI: %s (Observable: %b)%n", 
-                              resource.getName(), resource.getURI(), resource.isObservable());
-
-            // Print child resources (if any), excluding the default well-known CoAP resource
-            if (!resource.getURI().equals("/.well-known")) {
-                resource.getChildren().stream().forEach(childResource -> {
-                    System.out.printf("Resource %s -> URI: %s (Observable: %b)%n", 
-                                      childResource.getName(), childResource.getURI(), childResource.isObservable());
-                });
-            }
-        });
-        
-    }
-}
+package it.unipr.iotlab.iot2024.cf.server;
+
+import it.unipr.iotlab.iot2024.cf.server.resources.PresenceResource;
+import it.unipr.iotlab.iot2024.cf.server.store.OccupancyCounter;
+import it.unipr.iotlab.iot2024.cf.server.store.StateLog;
+
+/**
+ * The ExitTurnstile class extends VillageServer and simulates a CoAP server 
+ * that manages two resources: PresenceResource, which tracks the presence of 
+ * people exiting through a turnstile. The number of people inside the village is 
+ * published by the EntranceTurnstile, which either shares the occupancy counter 
+ * with this server or observes its PresenceResource. The server runs on a 
+ * specified port and provides these resources for CoAP clients to interact with.
+ */
+public class ExitTurnstile extends VillageServer {
+
+    // Write-ahead log and snapshots of the server state
+    private StateLog stateLog;
+
+    /**
+     * Constructor for ExitTurnstile, initializing the server on a given port
+     * and adding the PresenceResource, which tracks the number of people exiting.
+     * The exits are read by the entrance turnstile from the PresenceResource.
+     *
+     * @param port the port number the server will run on
+     */
+    public ExitTurnstile(int port) {
+        this(port, null);
+    }
+
+    /**
+     * Constructor for ExitTurnstile, initializing the server on a given port
+     * and adding the PresenceResource, which tracks the number of people exiting
+     * and reports them to the occupancy counter of the village.
+     *
+     * @param port the port number the server will run on
+     * @param occupancy the occupancy counter shared with the entrance turnstile, or null
+     */
+    public ExitTurnstile(int port, OccupancyCounter occupancy) {
+        super(port);
+        
+        // Create the resource for tracking the presence of people exiting, reporting to the village occupancy
+        PresenceResource presenceResource = new PresenceResource("PresenceResource",
+                occupancy, OccupancyCounter.Direction.OUT);
+        
+        // Add the resource to the CoAP server
+        this.add(presenceResource);
+
+        // Restore the state saved before the last shutdown, then log every update
+        this.stateLog = StateLog.open("ExitTurnstile");
+        presenceResource.persistTo(this.stateLog);
+        this.stateLog.recover();
+    }
+
+    /**
+     * Destroys the server, flushing its state log to disk.
+     */
+    @Override
+    public synchronized void destroy() {
+        super.destroy();
+        this.stateLog.close();
+    }
+
+    public static void main(String[] args) {
+        // Create an instance of ExitTurnstile on CoAP port 5687
+        ExitTurnstile exitTurnstile = new ExitTurnstile(5687);
+        System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+        System.out.println("Starting Exit Turnstile...\n");
+
+        try {
+            // Start the server
+            exitTurnstile.start();
+            VillageLauncher.awaitReady(exitTurnstile, VillageLauncher.DEFAULT_TIMEOUT_MS); // Wait until the endpoint is bound and the resources registered
+        } catch (Exception e) {
+            e.printStackTrace(); // Print any exception that occurs
+        }
+
+        // Print out resource information (name, URI, and if it is observable)
+        exitTurnstile.getRoot().getChildren().stream().forEach(resource -> {
+            System.out.printf("Resource %s -> URI: %s (Observable: %b)%n", 
+                              resource.getName(), resource.getURI(), resource.isObservable());
+
+            // Print child resources (if any), excluding the default well-known CoAP resource
+            if (!resource.getURI().equals("/.well-known")) {
+                resource.getChildren().stream().forEach(childResource -> {
+                    System.out.printf("Resource %s -> URI: %s (Observable: %b)%n", 
+                                      childResource.getName(), childResource.getURI(), childResource.isObservable());
+                });
+            }
+        });
+        
+    }
+}
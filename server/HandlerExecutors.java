@@ -0,0 +1,124 @@
+package it.unipr.iotlab.iot2024.cf.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The HandlerExecutors class creates the executors on which a VillageServer runs its resource
+ * handlers. The model is chosen with the village.handlers system property:
+ * <ul>
+ * <li>inline (default): handlers run on the Californium protocol threads, as with a plain CoapServer</li>
+ * <li>virtual: one virtual thread per request, so a blocking handler only parks its own thread.
+ * On a JVM without virtual threads (before Java 21) an elastic pool of ELASTIC_MAX_THREADS
+ * platform threads is used instead</li>
+ * <li>fixed:N: a pool of N platform threads</li>
+ * </ul>
+ */
+public final class HandlerExecutors {
+
+    // System property selecting the handler executor of every VillageServer
+    public static final String PROPERTY = "village.handlers";
+    // Maximum number of threads of the elastic pool replacing virtual threads on older JVMs
+    public static final int ELASTIC_MAX_THREADS = 256;
+
+    private static final String INLINE = "inline";
+    private static final String VIRTUAL = "virtual";
+    private static final String FIXED = "fixed:";
+    // Time after which an idle pool thread terminates (in seconds)
+    private static final long KEEP_ALIVE_S = 30;
+
+    private HandlerExecutors() {
+    }
+
+    /**
+     * Creates the executor selected by the village.handlers system property.
+     *
+     * @return the executor, or null to run handlers on the protocol threads
+     * @throws IllegalArgumentException if the property value is not recognized
+     */
+    public static ExecutorService fromProperty() {
+        return fromSpec(System.getProperty(PROPERTY, INLINE));
+    }
+
+    /**
+     * Creates an executor from its description: inline, virtual or fixed:N.
+     *
+     * @param spec the description of the executor
+     * @return the executor, or null to run handlers on the protocol threads
+     * @throws IllegalArgumentException if the description is not recognized
+     */
+    public static ExecutorService fromSpec(String spec) {
+        String value = spec.trim().toLowerCase();
+        if (value.equals(INLINE)) {
+            return null;
+        }
+        if (value.equals(VIRTUAL)) {
+            return virtualThreads();
+        }
+        if (value.startsWith(FIXED)) {
+            return fixed(Integer.parseInt(value.substring(FIXED.length())));
+        }
+        throw new IllegalArgumentException("Unknown handler executor: " + spec);
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task, or an elastic pool of platform
+     * threads if the running JVM has no virtual threads.
+     *
+     * @return the executor
+     */
+    public static ExecutorService virtualThreads() {
+        try {
+            // Looked up by reflection so that the code still compiles and runs on Java 17
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // The threads of a fixed pool are started on demand and time out when idle, so this
+            // pool grows up to ELASTIC_MAX_THREADS under load and shrinks back to none
+            return fixed(ELASTIC_MAX_THREADS);
+        }
+    }
+
+    /**
+     * Checks whether the running JVM supports virtual threads.
+     * @return true on Java 21 and later
+     */
+    public static boolean isVirtualThreadsSupported() {
+        try {
+            java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a pool with a fixed number of platform threads, started on demand and stopped when idle.
+     *
+     * @param threads the number of threads
+     * @return the executor
+     */
+    public static ExecutorService fixed(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_S, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory("handler"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
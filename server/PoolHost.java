@@ -0,0 +1,92 @@
+package it.unipr.iotlab.iot2024.cf.server;
+
+import it.unipr.iotlab.iot2024.cf.server.resources.PoolsResource;
+import it.unipr.iotlab.iot2024.cf.server.store.StateLog;
+
+/**
+ * The PoolHost class extends VillageServer and hosts any number of pools on a single endpoint.
+ * Every pool gets its own resource subtree, /pool/{id}/ImmersionTempResource and
+ * /pool/{id}/ChlorineResource, created from the configured pool identifiers or at runtime
+ * (POST /pool with the identifier as payload). All pools share the UDP port and the thread
+ * pools of the server, so adding a pool only costs the memory of its resources, unlike
+ * OlympicSwimmingPool, RelaxingLagoon and ChildrenPool that each run a server of their own.
+ */
+public class PoolHost extends VillageServer {
+
+    // Default port of the pool host
+    public static final int DEFAULT_PORT = 5690;
+    // System property listing the identifiers of the pools to create at startup, separated by commas
+    public static final String POOLS_PROPERTY = "village.pools";
+    // Pools created when no identifiers are configured
+    private static final String DEFAULT_POOLS = "olympic,lagoon,children";
+
+    // Root of the pool subtrees
+    private PoolsResource poolsResource;
+
+    // Write-ahead log and snapshots of the server state
+    private StateLog stateLog;
+
+    /**
+     * Constructor for PoolHost, initializing the server on a given port and creating the given pools.
+     * Pools created at runtime before the last shutdown are created again when the state is recovered.
+     *
+     * @param port the port number the server will run on
+     * @param poolIds the identifiers of the pools to create
+     */
+    public PoolHost(int port, String... poolIds) {
+        super(port);
+
+        // Create the root of the pool subtrees and the configured pools
+        this.poolsResource = new PoolsResource("pool");
+        this.add(this.poolsResource);
+        for (String poolId : poolIds) {
+            this.poolsResource.addPool(poolId.trim());
+        }
+
+        // Restore the state saved before the last shutdown, then log every update
+        this.stateLog = StateLog.open("PoolHost-" + port);
+        this.poolsResource.persistTo(this.stateLog);
+        this.stateLog.recover();
+    }
+
+    /**
+     * Creates a new pool at runtime.
+     *
+     * @param poolId the identifier of the pool
+     * @return true if the pool was created, false if it already exists
+     */
+    public boolean addPool(String poolId) {
+        return this.poolsResource.addPool(poolId);
+    }
+
+    /**
+     * Destroys the server, flushing its state log to disk.
+     */
+    @Override
+    public synchronized void destroy() {
+        super.destroy();
+        this.stateLog.close();
+    }
+
+    public static void main(String[] args) {
+        // Read the pools to host from the arguments, or from the village.pools property
+        String[] poolIds = args.length > 0 ? args : System.getProperty(POOLS_PROPERTY, DEFAULT_POOLS).split(",");
+        // Create an instance of PoolHost on CoAP port 5690
+        PoolHost poolHost = new PoolHost(DEFAULT_PORT, poolIds);
+        System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+        System.out.println("Starting Pool Host...\n");
+
+        try {
+            // Start the server
+            poolHost.start();
+            VillageLauncher.awaitReady(poolHost, VillageLauncher.DEFAULT_TIMEOUT_MS); // Wait until the endpoint is bound and the resources registered
+        } catch (Exception e) {
+            e.printStackTrace(); // Print any exception that occurs
+        }
+
+        // Print out the hosted pools and their URI
+        poolHost.poolsResource.getChildren().stream().forEach(pool -> {
+            System.out.printf("Pool %s -> URI: %s%n", pool.getName(), pool.getURI());
+        });
+    }
+}
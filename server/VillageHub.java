@@ -0,0 +1,231 @@
+package it.unipr.iotlab.iot2024.cf.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.codec.ValueCodec;
+import it.unipr.iotlab.iot2024.cf.server.resources.VillageSummaryResource;
+
+/**
+ * The VillageHub class extends VillageServer and publishes /village/summary, a VillageSummaryResource
+ * holding the latest temperature, chlorine concentration and occupancy of every pool and turnstile.
+ * The hub observes each source resource once and applies every notification to the summary as it
+ * arrives, so any number of dashboards share the hub's relations instead of observing every
+ * resource of every server themselves.
+ * <p>
+ * A source that cannot be reached when the hub starts is observed again every RETRY_INTERVAL_MS
+ * until it answers; once established, the client re-registers a relation whose notifications stop.
+ */
+public class VillageHub extends VillageServer {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(VillageHub.class);
+
+    // Default port of the hub
+    public static final int DEFAULT_PORT = 5688;
+    // Time after which a source that did not answer is observed again (in milliseconds)
+    private static final long RETRY_INTERVAL_MS = 5000;
+
+    // Scheduler retrying the sources that did not answer yet
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "VillageHub");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Materialized summary of the village
+    private VillageSummaryResource summaryResource;
+    // Observed source resources
+    private final List<Source> sources = new ArrayList<>();
+    // Periodic check of the sources that did not answer yet
+    private ScheduledFuture<?> retryTask;
+
+    /**
+     * Constructor for VillageHub, initializing the server on a given port and adding the
+     * /village/summary resource. Sources are observed once the server is started.
+     *
+     * @param port the port number the server will run on
+     */
+    public VillageHub(int port) {
+        super(port);
+
+        // Create the summary under /village
+        CoapResource villageResource = new CoapResource("village");
+        this.summaryResource = new VillageSummaryResource("summary");
+        villageResource.add(this.summaryResource);
+        this.add(villageResource);
+    }
+
+    /**
+     * Adds the resources of the village servers running on this host with their default ports.
+     *
+     * @param host the host running the village servers
+     * @return this hub
+     */
+    public VillageHub addVillageSources(String host) {
+        String[] pools = { "RelaxingLagoon", "OlympicSwimmingPool", "ChildrenPool" };
+        int[] poolPorts = { 5683, 5684, 5685 };
+        for (int i = 0; i < pools.length; i++) {
+            String base = "coap://" + host + ":" + poolPorts[i];
+            addSource(pools[i], "temperature", base + "/ImmersionTempResource", MediaTypeRegistry.APPLICATION_CBOR);
+            addSource(pools[i], "concentration", base + "/ChlorineResource", MediaTypeRegistry.APPLICATION_CBOR);
+        }
+        addSource("EntranceTurnstile", "count", "coap://" + host + ":5686/PresenceResource", MediaTypeRegistry.APPLICATION_CBOR);
+        addSource("ExitTurnstile", "count", "coap://" + host + ":5687/PresenceResource", MediaTypeRegistry.APPLICATION_CBOR);
+        addSource("village", "inside", "coap://" + host + ":5686/Occupancy", MediaTypeRegistry.UNDEFINED);
+        return this;
+    }
+
+    /**
+     * Adds a resource whose value is copied into the summary. The value is decoded from each
+     * notification with ValueCodec, looking up the field name in JSON and CBOR objects.
+     *
+     * @param node the pool or turnstile the value belongs to
+     * @param field the name of the value, in the source payload and in the summary
+     * @param uri the URI of the source resource
+     * @param accept the content format to request, or MediaTypeRegistry.UNDEFINED
+     * @return this hub
+     */
+    public synchronized VillageHub addSource(String node, String field, String uri, int accept) {
+        Source source = new Source(node, field, uri, accept);
+        this.sources.add(source);
+        if (this.retryTask != null) {
+            source.observe();
+        }
+        return this;
+    }
+
+    /**
+     * Returns the summary resource.
+     * @return the /village/summary resource
+     */
+    public VillageSummaryResource getSummaryResource() {
+        return this.summaryResource;
+    }
+
+    /**
+     * Starts the server and observes the sources.
+     */
+    @Override
+    public synchronized void start() {
+        super.start();
+        if (this.retryTask == null) {
+            for (Source source : this.sources) {
+                source.observe();
+            }
+            this.retryTask = SCHEDULER.scheduleWithFixedDelay(this::retrySources, RETRY_INTERVAL_MS, RETRY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Destroys the server, cancelling the observe relations of the sources.
+     */
+    @Override
+    public synchronized void destroy() {
+        if (this.retryTask != null) {
+            this.retryTask.cancel(false);
+        }
+        for (Source source : this.sources) {
+            source.cancel();
+        }
+        super.destroy();
+    }
+
+    /**
+     * Observes again the sources that did not send any notification since the last check.
+     */
+    private synchronized void retrySources() {
+        for (Source source : this.sources) {
+            if (!source.answered) {
+                source.observe();
+            }
+        }
+    }
+
+    /**
+     * An observed resource feeding one value of the summary.
+     */
+    private final class Source implements CoapHandler {
+
+        private final String node;
+        private final String field;
+        private final int accept;
+        private final CoapClient client;
+        private CoapObserveRelation relation;
+        // Whether a notification was received since the relation was (re)started
+        private volatile boolean answered;
+
+        Source(String node, String field, String uri, int accept) {
+            this.node = node;
+            this.field = field;
+            this.accept = accept;
+            // Registrations are sent as NON so that an unreachable source is retried by the hub, not by the client
+            this.client = new CoapClient(uri).useNONs();
+        }
+
+        void observe() {
+            if (this.relation != null) {
+                this.relation.reactiveCancel();
+            }
+            this.answered = false;
+            this.relation = this.accept == MediaTypeRegistry.UNDEFINED
+                    ? this.client.observe(this) : this.client.observe(this, this.accept);
+        }
+
+        void cancel() {
+            if (this.relation != null) {
+                this.relation.proactiveCancel();
+            }
+            this.client.shutdown();
+        }
+
+        @Override
+        public void onLoad(CoapResponse response) {
+            if (!response.isSuccess()) {
+                return;
+            }
+            this.answered = true;
+            try {
+                double value = ValueCodec.decode(response.getOptions().getContentFormat(), response.getPayload(), this.field);
+                summaryResource.update(this.node, this.field, value);
+            } catch (IllegalArgumentException e) {
+                LOG.error("ERROR decoding " + this.node + " " + this.field + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onError() {
+            this.answered = false;
+        }
+    }
+
+    public static void main(String[] args) {
+        // Create an instance of VillageHub on CoAP port 5688, observing the village servers on this host
+        VillageHub villageHub = new VillageHub(DEFAULT_PORT).addVillageSources("127.0.0.1");
+        System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+        System.out.println("Starting Village Hub...\n");
+
+        try {
+            // Start the server and observe the sources
+            villageHub.start();
+            VillageLauncher.awaitReady(villageHub, VillageLauncher.DEFAULT_TIMEOUT_MS); // Wait until the endpoint is bound and the resources registered
+        } catch (Exception e) {
+            e.printStackTrace(); // Print any exception that occurs
+        }
+
+        System.out.printf("Resource %s -> URI: %s (Observable: %b)%n", villageHub.summaryResource.getName(),
+                villageHub.summaryResource.getURI(), villageHub.summaryResource.isObservable());
+    }
+}
@@ -0,0 +1,196 @@
+package it.unipr.iotlab.iot2024.cf.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.server.resources.Resource;
+
+/**
+ * The VillageLauncher class starts a set of CoAP servers concurrently and waits until each one is
+ * actually ready, i.e. all its endpoints are started and bound to a port and its resources are
+ * registered, instead of sleeping for a fixed time. The time each server took to get ready is
+ * reported, so starting the village takes as long as its slowest server.
+ * <pre>
+ * new VillageLauncher()
+ *     .add("Olympic Swimming Pool", () -&gt; new OlympicSwimmingPool(5684))
+ *     .add("Entrance Turnstile", () -&gt; new EntranceTurnstile(5686))
+ *     .launch();
+ * </pre>
+ */
+public class VillageLauncher {
+
+    // Default maximum time a server may take to get ready (in milliseconds)
+    public static final long DEFAULT_TIMEOUT_MS = 10000;
+    // Name of the discovery resource, which does not count as a registered resource
+    private static final String WELL_KNOWN = ".well-known";
+
+    // Factories of the servers to start, by display name
+    private final Map<String, Supplier<? extends CoapServer>> factories = new LinkedHashMap<>();
+    // Maximum time a server may take to get ready
+    private long timeoutMs = DEFAULT_TIMEOUT_MS;
+
+    /**
+     * Adds a server to start.
+     *
+     * @param name the name of the server, used in the report
+     * @param factory creates the server (the constructor runs on the launcher threads too)
+     * @return this launcher
+     */
+    public VillageLauncher add(String name, Supplier<? extends CoapServer> factory) {
+        this.factories.put(name, factory);
+        return this;
+    }
+
+    /**
+     * Sets the maximum time a server may take to get ready.
+     *
+     * @param timeoutMs the timeout in milliseconds
+     * @return this launcher
+     */
+    public VillageLauncher setTimeout(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    /**
+     * Creates and starts every server concurrently, waits until each one is ready and prints
+     * its startup time. Servers that fail to start are reported and left out of the result.
+     * If the calling thread is interrupted, every server is destroyed as soon as it has started
+     * and no server is returned.
+     *
+     * @return the ready servers, by name, in the order they were added
+     */
+    public Map<String, CoapServer> launch() {
+        long start = System.nanoTime();
+        ExecutorService starter = Executors.newFixedThreadPool(Math.max(1, this.factories.size()), runnable -> {
+            Thread thread = new Thread(runnable, "VillageLauncher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, CompletableFuture<Startup>> startups = new LinkedHashMap<>();
+        for (Map.Entry<String, Supplier<? extends CoapServer>> factory : this.factories.entrySet()) {
+            startups.put(factory.getKey(), CompletableFuture.supplyAsync(() -> startServer(factory.getValue()), starter));
+        }
+
+        Map<String, CoapServer> ready = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<Startup>> startup : startups.entrySet()) {
+            try {
+                Startup result = startup.getValue().get();
+                ready.put(startup.getKey(), result.server);
+                System.out.printf("%-24s ready in %6.1f ms (ports %s, %d resources)%n", startup.getKey(),
+                        result.elapsedMs, ports(result.server), countResources(result.server.getRoot()));
+            } catch (InterruptedException e) {
+                // Do not leak the servers: destroy those already started, and the others once they are
+                for (CompletableFuture<Startup> pending : startups.values()) {
+                    pending.thenAccept(started -> started.server.destroy());
+                }
+                ready.clear();
+                // Restore the interrupt after destroying, which may wait for the server threads
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                System.out.println("ERROR starting " + startup.getKey() + ": " + e.getCause().getMessage());
+            }
+        }
+        starter.shutdown();
+        System.out.printf("%d of %d servers ready in %.1f ms%n", ready.size(), this.factories.size(),
+                (System.nanoTime() - start) / 1e6);
+        return ready;
+    }
+
+    /**
+     * Waits until a started server is ready: it has at least one endpoint, all its endpoints are
+     * started and bound to a port, and at least one resource besides discovery is registered.
+     *
+     * @param server the server, already started
+     * @param timeoutMs the maximum time to wait, in milliseconds
+     * @throws TimeoutException if the server is not ready in time
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public static void awaitReady(CoapServer server, long timeoutMs) throws TimeoutException, InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        while (!isReady(server)) {
+            if (System.nanoTime() > deadline) {
+                throw new TimeoutException("Server not ready after " + timeoutMs + " ms");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Checks whether a server is ready to handle requests.
+     *
+     * @param server the server
+     * @return true if its endpoints are bound and its resources registered
+     */
+    public static boolean isReady(CoapServer server) {
+        List<Endpoint> endpoints = server.getEndpoints();
+        if (endpoints.isEmpty()) {
+            return false;
+        }
+        for (Endpoint endpoint : endpoints) {
+            if (!endpoint.isStarted() || endpoint.getAddress().getPort() == 0) {
+                return false;
+            }
+        }
+        return countResources(server.getRoot()) > 0;
+    }
+
+    /**
+     * Creates, starts and waits for one server, on a launcher thread.
+     */
+    private Startup startServer(Supplier<? extends CoapServer> factory) {
+        long start = System.nanoTime();
+        CoapServer server = factory.get();
+        server.start();
+        try {
+            awaitReady(server, this.timeoutMs);
+        } catch (TimeoutException | InterruptedException e) {
+            server.destroy();
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        Startup startup = new Startup();
+        startup.server = server;
+        startup.elapsedMs = (System.nanoTime() - start) / 1e6;
+        return startup;
+    }
+
+    /**
+     * Counts the resources of a tree, excluding the discovery resource.
+     */
+    private static int countResources(Resource resource) {
+        int count = 0;
+        for (Resource child : resource.getChildren()) {
+            if (!WELL_KNOWN.equals(child.getName())) {
+                count += 1 + countResources(child);
+            }
+        }
+        return count;
+    }
+
+    private static List<Integer> ports(CoapServer server) {
+        List<Integer> ports = new ArrayList<>();
+        for (Endpoint endpoint : server.getEndpoints()) {
+            ports.add(endpoint.getAddress().getPort());
+        }
+        return ports;
+    }
+
+    /**
+     * Outcome of the startup of one server.
+     */
+    private static final class Startup {
+        CoapServer server;
+        double elapsedMs;
+    }
+}
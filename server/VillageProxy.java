@@ -0,0 +1,108 @@
+package it.unipr.iotlab.iot2024.cf.server;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.server.resources.Resource;
+
+import it.unipr.iotlab.iot2024.cf.server.proxy.ProxiedResource;
+import it.unipr.iotlab.iot2024.cf.server.proxy.ProxyMetrics;
+import it.unipr.iotlab.iot2024.cf.server.resources.ProxyStatsResource;
+
+/**
+ * The VillageProxy class extends VillageServer and runs a caching reverse proxy in front of the
+ * village servers. Every upstream server is mounted under a name, e.g. /entrance/PresenceResource
+ * for coap://127.0.0.1:5686/PresenceResource, and served by ProxiedResource: GETs are answered
+ * from a cache honouring the Max-Age of the upstream responses, and any number of downstream
+ * observers of a resource share a single upstream observe relation, so the load on the servers
+ * no longer grows with the number of visitor apps. The proxy counters are published at /proxy/stats.
+ */
+public class VillageProxy extends VillageServer {
+
+    // Default port of the proxy
+    public static final int DEFAULT_PORT = 5689;
+
+    // Counters shared by all the proxied resources
+    private ProxyMetrics metrics;
+
+    /**
+     * Constructor for VillageProxy, initializing the server on a given port and adding the
+     * /proxy/stats resource. Upstream servers are mounted with addUpstream().
+     *
+     * @param port the port number the server will run on
+     */
+    public VillageProxy(int port) {
+        super(port);
+        this.metrics = new ProxyMetrics();
+
+        // Publish the proxy counters under /proxy
+        CoapResource proxyResource = new CoapResource("proxy");
+        proxyResource.add(new ProxyStatsResource("stats", this.metrics));
+        this.add(proxyResource);
+    }
+
+    /**
+     * Mounts an upstream server under a name.
+     *
+     * @param name the first path segment of its resources on the proxy
+     * @param upstreamUri the base URI of the upstream server, e.g. coap://127.0.0.1:5686
+     * @return this proxy
+     */
+    public VillageProxy addUpstream(String name, String upstreamUri) {
+        this.add(new ProxiedResource(name, upstreamUri, this.metrics));
+        return this;
+    }
+
+    /**
+     * Mounts the village servers running on a host with their default ports.
+     *
+     * @param host the host running the village servers
+     * @return this proxy
+     */
+    public VillageProxy addVillageUpstreams(String host) {
+        return addUpstream("lagoon", "coap://" + host + ":5683")
+                .addUpstream("olympic", "coap://" + host + ":5684")
+                .addUpstream("children", "coap://" + host + ":5685")
+                .addUpstream("entrance", "coap://" + host + ":5686")
+                .addUpstream("exit", "coap://" + host + ":5687");
+    }
+
+    /**
+     * Returns the counters of the proxy.
+     * @return the proxy metrics
+     */
+    public ProxyMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Destroys the server, cancelling the upstream observe relations.
+     */
+    @Override
+    public synchronized void destroy() {
+        super.destroy();
+        for (Resource resource : getRoot().getChildren()) {
+            if (resource instanceof ProxiedResource) {
+                ((ProxiedResource) resource).shutdown();
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        // Create an instance of VillageProxy on CoAP port 5689, in front of the village servers on this host
+        VillageProxy villageProxy = new VillageProxy(DEFAULT_PORT).addVillageUpstreams("127.0.0.1");
+        System.out.println("-*-*-*-*-*-*-*-*-*-*-*-*-*-*-*\n");
+        System.out.println("Starting Village Proxy...\n");
+
+        try {
+            // Start the server
+            villageProxy.start();
+            VillageLauncher.awaitReady(villageProxy, VillageLauncher.DEFAULT_TIMEOUT_MS); // Wait until the endpoint is bound and the resources registered
+        } catch (Exception e) {
+            e.printStackTrace(); // Print any exception that occurs
+        }
+
+        // Print out the mounted upstream servers
+        villageProxy.getRoot().getChildren().stream().forEach(resource -> {
+            System.out.printf("Resource %s -> URI: %s%n", resource.getName(), resource.getURI());
+        });
+    }
+}
@@ -0,0 +1,159 @@
+package it.unipr.iotlab.iot2024.cf.server;
+
+import java.util.concurrent.ExecutorService;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.core.server.resources.Resource;
+
+import it.unipr.iotlab.iot2024.cf.server.loopback.LoopbackNetwork;
+import it.unipr.iotlab.iot2024.cf.server.metrics.MeteredDeliverer;
+import it.unipr.iotlab.iot2024.cf.server.metrics.ServerMetrics;
+import it.unipr.iotlab.iot2024.cf.server.resources.MetricsResource;
+
+/**
+ * The VillageServer class is the base of the village CoAP servers. It lets the resource handlers
+ * run on an executor of their own instead of the Californium protocol threads, so that a slow
+ * handler does not stall the other resources of the server. The executor is chosen with the
+ * village.handlers system property (see HandlerExecutors) or set with setHandlerExecutor().
+ * <p>
+ * Californium runs a handler on the executor returned by its resource's getExecutor(), which
+ * every CoapResource inherits from its parent; the root resource of a VillageServer returns
+ * the handler executor, so it applies to every resource added to the server.
+ * <p>
+ * Every request is recorded in the metrics of the server (see MeteredDeliverer), published
+ * by the observable /metrics resource.
+ * <p>
+ * With the village.transport=loopback system property (see LoopbackNetwork) the server listens
+ * on the in-memory loopback network instead of UDP sockets, for benchmarks and simulations
+ * running the servers and clients in one JVM.
+ */
+public class VillageServer extends CoapServer {
+
+    // Executor running the resource handlers (null to run them on the protocol threads)
+    private volatile ExecutorService handlerExecutor;
+
+    // Request, error, notification and latency metrics of every resource
+    private ServerMetrics metrics;
+    // Resource publishing the metrics
+    private MetricsResource metricsResource;
+
+    /**
+     * Constructor for VillageServer, using the handler executor selected by the village.handlers property.
+     *
+     * @param ports the ports the server listens on
+     */
+    public VillageServer(int... ports) {
+        this(HandlerExecutors.fromProperty(), ports);
+    }
+
+    /**
+     * Constructor for VillageServer.
+     *
+     * @param handlerExecutor the executor running the resource handlers, or null to run them on the protocol threads
+     * @param ports the ports the server listens on
+     */
+    public VillageServer(ExecutorService handlerExecutor, int... ports) {
+        super(LoopbackNetwork.isSelected() ? new int[0] : ports);
+        this.handlerExecutor = handlerExecutor;
+        if (LoopbackNetwork.isSelected()) {
+            // Listen on the loopback network, and let the clients of the JVM reach it
+            LoopbackNetwork.install();
+            for (int port : ports) {
+                addEndpoint(LoopbackNetwork.getDefault().createEndpoint(port, getConfig()));
+            }
+        }
+
+        // Record every request delivered to the resources, and every notification sent by the endpoints
+        this.metrics = new ServerMetrics();
+        setMessageDeliverer(new MeteredDeliverer(getRoot(), this.metrics));
+        for (Endpoint endpoint : getEndpoints()) {
+            endpoint.addInterceptor(this.metrics.getInterceptor());
+        }
+        this.metricsResource = new MetricsResource("metrics", this.metrics);
+        add(this.metricsResource);
+    }
+
+    /**
+     * Adds an endpoint to the server, counting the notifications it sends.
+     * Called by the CoapServer constructor, before the metrics are created.
+     *
+     * @param endpoint the endpoint to add
+     */
+    @Override
+    public void addEndpoint(Endpoint endpoint) {
+        super.addEndpoint(endpoint);
+        if (this.metrics != null) {
+            endpoint.addInterceptor(this.metrics.getInterceptor());
+        }
+    }
+
+    /**
+     * Returns the metrics of the server.
+     * @return the request, error, notification and latency metrics of every resource
+     */
+    public ServerMetrics getServerMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Returns the executor running the resource handlers.
+     * @return the handler executor, or null if handlers run on the protocol threads
+     */
+    public ExecutorService getHandlerExecutor() {
+        return this.handlerExecutor;
+    }
+
+    /**
+     * Replaces the executor running the resource handlers. The previous executor is not shut down.
+     *
+     * @param handlerExecutor the new executor, or null to run handlers on the protocol threads
+     */
+    public void setHandlerExecutor(ExecutorService handlerExecutor) {
+        this.handlerExecutor = handlerExecutor;
+    }
+
+    /**
+     * Destroys the server, stops the metrics notifications and shuts the handler executor down.
+     */
+    @Override
+    public synchronized void destroy() {
+        super.destroy();
+        this.metricsResource.stop();
+        if (this.handlerExecutor != null) {
+            this.handlerExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Creates the root resource, which hands the handler executor down to every resource.
+     * Called by the CoapServer constructor, before the fields of this class are initialized.
+     */
+    @Override
+    protected Resource createRoot() {
+        return new RootResource();
+    }
+
+    /**
+     * Root resource of the server, answering GET / with a short description.
+     */
+    private final class RootResource extends CoapResource {
+
+        RootResource() {
+            super("");
+        }
+
+        @Override
+        public ExecutorService getExecutor() {
+            return handlerExecutor;
+        }
+
+        @Override
+        public void handleGET(CoapExchange exchange) {
+            exchange.respond(CoAP.ResponseCode.CONTENT, "Village CoAP server (" + VillageServer.this.getClass().getSimpleName() + ")");
+        }
+    }
+}
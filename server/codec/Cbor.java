@@ -0,0 +1,326 @@
+package it.unipr.iotlab.iot2024.cf.server.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Cbor class implements the subset of CBOR (RFC 8949) used by the village payloads:
+ * unsigned and negative integers, text and byte strings, arrays, maps, booleans, null and
+ * floating point numbers. Floating point values are written in the shortest of half, single
+ * or double precision that represents them exactly. Indefinite-length items are not supported.
+ */
+public final class Cbor {
+
+    // Major types, stored in the three high bits of the initial byte
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_SIMPLE = 7;
+
+    // Additional information values of major type 7
+    private static final int SIMPLE_FALSE = 20;
+    private static final int SIMPLE_TRUE = 21;
+    private static final int SIMPLE_NULL = 22;
+    private static final int FLOAT_HALF = 25;
+    private static final int FLOAT_SINGLE = 26;
+    private static final int FLOAT_DOUBLE = 27;
+
+    private Cbor() {
+    }
+
+    /**
+     * The Writer class appends CBOR data items to an internal buffer.
+     */
+    public static final class Writer {
+
+        // Buffer collecting the encoded items
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+
+        /**
+         * Writes the header of a map with the given number of key/value pairs.
+         * @param pairs the number of pairs that follow
+         * @return this writer
+         */
+        public Writer map(int pairs) {
+            header(MAJOR_MAP, pairs);
+            return this;
+        }
+
+        /**
+         * Writes the header of an array with the given number of elements.
+         * @param elements the number of elements that follow
+         * @return this writer
+         */
+        public Writer array(int elements) {
+            header(MAJOR_ARRAY, elements);
+            return this;
+        }
+
+        /**
+         * Writes a UTF-8 text string.
+         * @param text the text to write
+         * @return this writer
+         */
+        public Writer text(String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            header(MAJOR_TEXT, bytes.length);
+            this.out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        /**
+         * Writes an integer, using the negative major type for values below zero.
+         * @param value the integer to write
+         * @return this writer
+         */
+        public Writer integer(long value) {
+            if (value >= 0) {
+                header(MAJOR_UNSIGNED, value);
+            } else {
+                header(MAJOR_NEGATIVE, -1 - value);
+            }
+            return this;
+        }
+
+        /**
+         * Writes a boolean as the simple value true or false.
+         * @param value the boolean to write
+         * @return this writer
+         */
+        public Writer bool(boolean value) {
+            this.out.write((MAJOR_SIMPLE << 5) | (value ? SIMPLE_TRUE : SIMPLE_FALSE));
+            return this;
+        }
+
+        /**
+         * Writes a floating point number in the shortest exact precision.
+         * @param value the number to write
+         * @return this writer
+         */
+        public Writer number(double value) {
+            float single = (float) value;
+            if (single != value && !Double.isNaN(value)) {
+                this.out.write((MAJOR_SIMPLE << 5) | FLOAT_DOUBLE);
+                writeBits(Double.doubleToLongBits(value), 8);
+                return this;
+            }
+            int half = toHalf(single);
+            if (half >= 0) {
+                this.out.write((MAJOR_SIMPLE << 5) | FLOAT_HALF);
+                writeBits(half, 2);
+            } else {
+                this.out.write((MAJOR_SIMPLE << 5) | FLOAT_SINGLE);
+                writeBits(Float.floatToIntBits(single), 4);
+            }
+            return this;
+        }
+
+        /**
+         * Returns the encoded items.
+         * @return a copy of the buffer
+         */
+        public byte[] toByteArray() {
+            return this.out.toByteArray();
+        }
+
+        private void header(int major, long argument) {
+            int type = major << 5;
+            if (argument < 24) {
+                this.out.write(type | (int) argument);
+            } else if (argument <= 0xFFL) {
+                this.out.write(type | 24);
+                writeBits(argument, 1);
+            } else if (argument <= 0xFFFFL) {
+                this.out.write(type | 25);
+                writeBits(argument, 2);
+            } else if (argument <= 0xFFFFFFFFL) {
+                this.out.write(type | 26);
+                writeBits(argument, 4);
+            } else {
+                this.out.write(type | 27);
+                writeBits(argument, 8);
+            }
+        }
+
+        private void writeBits(long bits, int bytes) {
+            for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+                this.out.write((int) (bits >>> shift) & 0xFF);
+            }
+        }
+
+        /**
+         * Converts a float to half precision bits, or returns -1 if it cannot be represented exactly.
+         */
+        private static int toHalf(float value) {
+            int bits = Float.floatToIntBits(value);
+            int sign = (bits >>> 16) & 0x8000;
+            int exponent = ((bits >>> 23) & 0xFF) - 127;
+            int mantissa = bits & 0x7FFFFF;
+            if (exponent == -127 && mantissa == 0) {
+                return sign; // signed zero
+            }
+            if (exponent == 128) {
+                return mantissa == 0 ? sign | 0x7C00 : 0x7E00; // infinity or NaN
+            }
+            if (exponent < -14 || exponent > 15 || (mantissa & 0x1FFF) != 0) {
+                return -1;
+            }
+            return sign | ((exponent + 15) << 10) | (mantissa >>> 13);
+        }
+    }
+
+    /**
+     * Decodes a single data item into plain Java objects: Long for integers, Double for
+     * floating point numbers, String, byte[], List, Map, Boolean or null.
+     *
+     * @param data the encoded item
+     * @return the decoded value
+     * @throws IllegalArgumentException if the data is malformed or uses unsupported features
+     */
+    public static Object decode(byte[] data) {
+        Reader reader = new Reader(data);
+        Object value = reader.read();
+        if (reader.position != data.length) {
+            throw new IllegalArgumentException("Trailing bytes after CBOR item");
+        }
+        return value;
+    }
+
+    /**
+     * Sequential reader over an encoded buffer.
+     */
+    private static final class Reader {
+
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        Object read() {
+            int initial = next();
+            int major = initial >>> 5;
+            int info = initial & 0x1F;
+            if (major == MAJOR_SIMPLE) {
+                return readSimple(info);
+            }
+            long argument = readArgument(info);
+            switch (major) {
+                case MAJOR_UNSIGNED:
+                    return argument;
+                case MAJOR_NEGATIVE:
+                    return -1 - argument;
+                case MAJOR_BYTES:
+                    return readBytes(argument);
+                case MAJOR_TEXT:
+                    return new String(readBytes(argument), StandardCharsets.UTF_8);
+                case MAJOR_ARRAY: {
+                    List<Object> list = new ArrayList<>();
+                    for (long i = 0; i < argument; i++) {
+                        list.add(read());
+                    }
+                    return list;
+                }
+                case MAJOR_MAP: {
+                    Map<Object, Object> map = new LinkedHashMap<>();
+                    for (long i = 0; i < argument; i++) {
+                        Object key = read();
+                        map.put(key, read());
+                    }
+                    return map;
+                }
+                default:
+                    throw new IllegalArgumentException("Unsupported CBOR major type " + major);
+            }
+        }
+
+        private Object readSimple(int info) {
+            switch (info) {
+                case SIMPLE_FALSE:
+                    return Boolean.FALSE;
+                case SIMPLE_TRUE:
+                    return Boolean.TRUE;
+                case SIMPLE_NULL:
+                    return null;
+                case FLOAT_HALF:
+                    return fromHalf((int) readBits(2));
+                case FLOAT_SINGLE:
+                    return (double) Float.intBitsToFloat((int) readBits(4));
+                case FLOAT_DOUBLE:
+                    return Double.longBitsToDouble(readBits(8));
+                default:
+                    throw new IllegalArgumentException("Unsupported CBOR simple value " + info);
+            }
+        }
+
+        private long readArgument(int info) {
+            if (info < 24) {
+                return info;
+            }
+            switch (info) {
+                case 24:
+                    return readBits(1);
+                case 25:
+                    return readBits(2);
+                case 26:
+                    return readBits(4);
+                case 27: {
+                    long value = readBits(8);
+                    if (value < 0) {
+                        throw new IllegalArgumentException("CBOR argument out of range");
+                    }
+                    return value;
+                }
+                default:
+                    throw new IllegalArgumentException("Indefinite-length CBOR items are not supported");
+            }
+        }
+
+        private byte[] readBytes(long length) {
+            if (length > this.data.length - this.position) {
+                throw new IllegalArgumentException("Truncated CBOR string");
+            }
+            byte[] bytes = new byte[(int) length];
+            System.arraycopy(this.data, this.position, bytes, 0, bytes.length);
+            this.position += bytes.length;
+            return bytes;
+        }
+
+        private long readBits(int bytes) {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = (value << 8) | next();
+            }
+            return value;
+        }
+
+        private int next() {
+            if (this.position >= this.data.length) {
+                throw new IllegalArgumentException("Truncated CBOR item");
+            }
+            return this.data[this.position++] & 0xFF;
+        }
+
+        private static double fromHalf(int half) {
+            int exponent = (half >>> 10) & 0x1F;
+            int mantissa = half & 0x3FF;
+            double value;
+            if (exponent == 0) {
+                value = mantissa * Math.pow(2, -24);
+            } else if (exponent == 31) {
+                value = mantissa == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+            } else {
+                value = (mantissa + 1024) * Math.pow(2, exponent - 25);
+            }
+            return (half & 0x8000) != 0 ? -value : value;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package it.unipr.iotlab.iot2024.cf.server.codec;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.eclipse.californium.core.coap.OptionSet;
+
+/**
+ * The EntityTags class derives the ETag of a resource representation from the version of the
+ * resource state, so that a GET carrying the ETag of the current representation can be answered
+ * with 2.03 Valid and no payload.
+ * <p>
+ * An ETag is 8 bytes: 2 bytes identifying this run of the server, 5 bytes of version and 1 byte
+ * identifying the representation (e.g. the index of the content format). The run identifier is
+ * random, so versions counted again from zero after a restart do not validate tags issued before.
+ */
+public final class EntityTags {
+
+    // Random identifier of this run of the server, in the 2 most significant bytes of every tag
+    private static final long RUN = (ThreadLocalRandom.current().nextLong() & 0xFFFFL) << 48;
+    // Mask keeping the 5 bytes of the version
+    private static final long VERSION_MASK = 0xFF_FFFF_FFFFL;
+
+    private EntityTags() {
+    }
+
+    /**
+     * Builds the ETag of a representation.
+     *
+     * @param version the version of the resource state, increased on every change
+     * @param representation the representation, between 0 and 255
+     * @return the 8-byte ETag
+     */
+    public static byte[] of(long version, int representation) {
+        long tag = RUN | (version & VERSION_MASK) << 8 | (representation & 0xFF);
+        byte[] etag = new byte[Long.BYTES];
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            etag[i] = (byte) tag;
+            tag >>>= 8;
+        }
+        return etag;
+    }
+
+    /**
+     * Checks whether a request lists the given ETag, i.e. the client already holds that representation.
+     *
+     * @param requestOptions the options of the request
+     * @param etag the ETag of the current representation
+     * @return true if one of the ETag options of the request matches
+     */
+    public static boolean matches(OptionSet requestOptions, byte[] etag) {
+        for (byte[] candidate : requestOptions.getETags()) {
+            if (Arrays.equals(candidate, etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
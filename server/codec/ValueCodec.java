@@ -0,0 +1,453 @@
+package it.unipr.iotlab.iot2024.cf.server.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * The ValueCodec class encodes and decodes the single named value carried by the village
+ * resources (a temperature, a chlorine concentration, a number of people or a visitor id)
+ * in every content format they negotiate through the CoAP Accept and Content-Format options:
+ * <ul>
+ * <li>application/json: {"name":value}, or the bare value when no name is given</li>
+ * <li>application/cbor: the same structure in CBOR</li>
+ * <li>application/senml+json: [{"n":"name","u":"unit","v":value}]</li>
+ * <li>application/senml+cbor: the same record with the integer SenML labels</li>
+ * </ul>
+ * Series of timestamped samples, as served by the history resources, are encoded by encodeSeries.
+ */
+public final class ValueCodec {
+
+    // Content formats supported by the resources, in the order used to index payload caches
+    public static final int[] CONTENT_FORMATS = {
+        MediaTypeRegistry.APPLICATION_JSON,
+        MediaTypeRegistry.APPLICATION_CBOR,
+        MediaTypeRegistry.APPLICATION_SENML_JSON,
+        MediaTypeRegistry.APPLICATION_SENML_CBOR
+    };
+
+    // SenML labels (RFC 8428), as text for JSON and as integers for CBOR
+    private static final String SENML_NAME = "n";
+    private static final String SENML_UNIT = "u";
+    private static final String SENML_VALUE = "v";
+    private static final String SENML_BASE_TIME = "bt";
+    private static final String SENML_TIME = "t";
+    private static final long SENML_CBOR_NAME = 0;
+    private static final long SENML_CBOR_UNIT = 1;
+    private static final long SENML_CBOR_VALUE = 2;
+    private static final long SENML_CBOR_BASE_TIME = -3;
+    private static final long SENML_CBOR_TIME = 6;
+
+    private ValueCodec() {
+    }
+
+    /**
+     * Returns the position of a content format in CONTENT_FORMATS. A missing format
+     * (as in requests without Accept or Content-Format option) maps to JSON.
+     *
+     * @param contentFormat the CoAP content format, or MediaTypeRegistry.UNDEFINED
+     * @return the index of the format, or -1 if it is not supported
+     */
+    public static int formatIndex(int contentFormat) {
+        if (contentFormat == MediaTypeRegistry.UNDEFINED) {
+            return 0;
+        }
+        for (int i = 0; i < CONTENT_FORMATS.length; i++) {
+            if (CONTENT_FORMATS[i] == contentFormat) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether a content format is one of the SenML formats, whose records always carry a name.
+     *
+     * @param contentFormat the CoAP content format
+     * @return true for SenML JSON and SenML CBOR
+     */
+    public static boolean isSenml(int contentFormat) {
+        return contentFormat == MediaTypeRegistry.APPLICATION_SENML_JSON
+                || contentFormat == MediaTypeRegistry.APPLICATION_SENML_CBOR;
+    }
+
+    /**
+     * Encodes a value in the given content format. Integer values (Integer, Long) are written
+     * as integers, any other Number as a floating point value.
+     *
+     * @param contentFormat one of CONTENT_FORMATS
+     * @param name the name of the value, or null to write a bare value (JSON and CBOR only)
+     * @param unit the SenML unit of the value, or null if it has none
+     * @param value the value to encode
+     * @return the encoded payload
+     * @throws IllegalArgumentException if the content format is not supported
+     */
+    public static byte[] encode(int contentFormat, String name, String unit, Number value) {
+        boolean integral = value instanceof Integer || value instanceof Long;
+        switch (contentFormat) {
+            case MediaTypeRegistry.APPLICATION_JSON: {
+                JsonPrimitive primitive = new JsonPrimitive(integral ? (Number) value.longValue() : (Number) value.doubleValue());
+                JsonElement json = primitive;
+                if (name != null) {
+                    JsonObject object = new JsonObject();
+                    object.add(name, primitive);
+                    json = object;
+                }
+                return json.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            case MediaTypeRegistry.APPLICATION_CBOR: {
+                Cbor.Writer writer = new Cbor.Writer();
+                if (name != null) {
+                    writer.map(1).text(name);
+                }
+                writeNumber(writer, integral, value);
+                return writer.toByteArray();
+            }
+            case MediaTypeRegistry.APPLICATION_SENML_JSON: {
+                JsonObject record = new JsonObject();
+                record.addProperty(SENML_NAME, name);
+                if (unit != null) {
+                    record.addProperty(SENML_UNIT, unit);
+                }
+                record.addProperty(SENML_VALUE, integral ? (Number) value.longValue() : (Number) value.doubleValue());
+                JsonArray pack = new JsonArray();
+                pack.add(record);
+                return pack.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            case MediaTypeRegistry.APPLICATION_SENML_CBOR: {
+                Cbor.Writer writer = new Cbor.Writer();
+                writer.array(1).map(unit != null ? 3 : 2);
+                writer.integer(SENML_CBOR_NAME).text(name);
+                if (unit != null) {
+                    writer.integer(SENML_CBOR_UNIT).text(unit);
+                }
+                writer.integer(SENML_CBOR_VALUE);
+                writeNumber(writer, integral, value);
+                return writer.toByteArray();
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported content format " + contentFormat);
+        }
+    }
+
+    /**
+     * Encodes a series of timestamped samples in the given content format:
+     * <ul>
+     * <li>JSON and CBOR: an array of [time, value] pairs, with the time in milliseconds since the epoch</li>
+     * <li>SenML: one record per sample; the first one carries the name, the unit and the base time
+     * (in seconds since the epoch), the others only the time relative to it and the value</li>
+     * </ul>
+     *
+     * @param contentFormat one of CONTENT_FORMATS
+     * @param name the name of the values
+     * @param unit the SenML unit of the values, or null if they have none
+     * @param times the timestamps of the samples, in milliseconds since the epoch
+     * @param values the values of the samples
+     * @param count the number of samples to encode from the start of the arrays
+     * @return the encoded payload
+     * @throws IllegalArgumentException if the content format is not supported
+     */
+    public static byte[] encodeSeries(int contentFormat, String name, String unit, long[] times, double[] values, int count) {
+        switch (contentFormat) {
+            case MediaTypeRegistry.APPLICATION_JSON: {
+                StringBuilder json = new StringBuilder(count * 24 + 2).append('[');
+                for (int i = 0; i < count; i++) {
+                    if (i > 0) {
+                        json.append(',');
+                    }
+                    json.append('[').append(times[i]).append(',').append(values[i]).append(']');
+                }
+                return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+            }
+            case MediaTypeRegistry.APPLICATION_CBOR: {
+                Cbor.Writer writer = new Cbor.Writer();
+                writer.array(count);
+                for (int i = 0; i < count; i++) {
+                    writer.array(2).integer(times[i]).number(values[i]);
+                }
+                return writer.toByteArray();
+            }
+            case MediaTypeRegistry.APPLICATION_SENML_JSON: {
+                JsonArray pack = new JsonArray(count);
+                for (int i = 0; i < count; i++) {
+                    JsonObject record = new JsonObject();
+                    if (i == 0) {
+                        record.addProperty(SENML_NAME, name);
+                        if (unit != null) {
+                            record.addProperty(SENML_UNIT, unit);
+                        }
+                        record.addProperty(SENML_BASE_TIME, times[0] / 1000.0);
+                    } else {
+                        record.addProperty(SENML_TIME, (times[i] - times[0]) / 1000.0);
+                    }
+                    record.addProperty(SENML_VALUE, values[i]);
+                    pack.add(record);
+                }
+                return pack.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            case MediaTypeRegistry.APPLICATION_SENML_CBOR: {
+                Cbor.Writer writer = new Cbor.Writer();
+                writer.array(count);
+                for (int i = 0; i < count; i++) {
+                    if (i == 0) {
+                        writer.map(unit != null ? 4 : 3);
+                        writer.integer(SENML_CBOR_NAME).text(name);
+                        if (unit != null) {
+                            writer.integer(SENML_CBOR_UNIT).text(unit);
+                        }
+                        writer.integer(SENML_CBOR_BASE_TIME).number(times[0] / 1000.0);
+                    } else {
+                        writer.map(2);
+                        writer.integer(SENML_CBOR_TIME).number((times[i] - times[0]) / 1000.0);
+                    }
+                    writer.integer(SENML_CBOR_VALUE).number(values[i]);
+                }
+                return writer.toByteArray();
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported content format " + contentFormat);
+        }
+    }
+
+    /**
+     * Decodes a value from a payload in the given content format. For JSON and CBOR both a bare
+     * value and an object holding the named field are accepted; for SenML the first record
+     * with the given name (or without a name) is used.
+     *
+     * @param contentFormat one of CONTENT_FORMATS, or MediaTypeRegistry.UNDEFINED for JSON
+     * @param payload the encoded payload
+     * @param name the name of the value
+     * @return the decoded value
+     * @throws IllegalArgumentException if the payload is malformed or the value is missing
+     */
+    public static double decode(int contentFormat, byte[] payload, String name) {
+        try {
+            return decodeValue(contentFormat, payload, name);
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+            // Gson reports a malformed document or an element of the wrong type with its own exceptions
+            throw new IllegalArgumentException("Malformed payload: " + e.getMessage(), e);
+        }
+    }
+
+    private static double decodeValue(int contentFormat, byte[] payload, String name) {
+        switch (contentFormat) {
+            case MediaTypeRegistry.UNDEFINED:
+            case MediaTypeRegistry.APPLICATION_JSON: {
+                JsonElement json = JsonParser.parseString(new String(payload, StandardCharsets.UTF_8));
+                if (json.isJsonObject()) {
+                    json = json.getAsJsonObject().get(name);
+                }
+                if (json == null || !json.isJsonPrimitive()) {
+                    throw new IllegalArgumentException("Missing value " + name);
+                }
+                return json.getAsDouble();
+            }
+            case MediaTypeRegistry.APPLICATION_CBOR: {
+                Object cbor = Cbor.decode(payload);
+                if (cbor instanceof Map) {
+                    cbor = ((Map<?, ?>) cbor).get(name);
+                }
+                return toDouble(cbor, name);
+            }
+            case MediaTypeRegistry.APPLICATION_SENML_JSON: {
+                JsonElement json = JsonParser.parseString(new String(payload, StandardCharsets.UTF_8));
+                for (JsonElement element : json.getAsJsonArray()) {
+                    JsonObject record = element.getAsJsonObject();
+                    JsonElement recordName = record.get(SENML_NAME);
+                    if ((recordName == null || recordName.getAsString().equals(name)) && record.has(SENML_VALUE)) {
+                        return record.get(SENML_VALUE).getAsDouble();
+                    }
+                }
+                throw new IllegalArgumentException("Missing SenML record " + name);
+            }
+            case MediaTypeRegistry.APPLICATION_SENML_CBOR: {
+                Object cbor = Cbor.decode(payload);
+                if (!(cbor instanceof List)) {
+                    throw new IllegalArgumentException("SenML pack must be an array");
+                }
+                for (Object element : (List<?>) cbor) {
+                    Map<?, ?> record = cborRecord(element);
+                    Object recordName = record.get(SENML_CBOR_NAME);
+                    if ((recordName == null || name.equals(recordName)) && record.containsKey(SENML_CBOR_VALUE)) {
+                        return toDouble(record.get(SENML_CBOR_VALUE), name);
+                    }
+                }
+                throw new IllegalArgumentException("Missing SenML record " + name);
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported content format " + contentFormat);
+        }
+    }
+
+    /**
+     * Decodes a batch of values carried in one payload: a JSON or CBOR array of bare values,
+     * or a SenML pack holding more than one record with the given name (or without a name).
+     *
+     * @param contentFormat one of CONTENT_FORMATS, or MediaTypeRegistry.UNDEFINED for JSON
+     * @param payload the encoded payload
+     * @param name the name of the values in SenML records
+     * @return the values in payload order, or null if the payload carries a single value
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public static double[] decodeBatch(int contentFormat, byte[] payload, String name) {
+        try {
+            return decodeValues(contentFormat, payload, name);
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+            // Gson reports a malformed document or an element of the wrong type with its own exceptions
+            throw new IllegalArgumentException("Malformed payload: " + e.getMessage(), e);
+        }
+    }
+
+    private static double[] decodeValues(int contentFormat, byte[] payload, String name) {
+        switch (contentFormat) {
+            case MediaTypeRegistry.UNDEFINED:
+            case MediaTypeRegistry.APPLICATION_JSON: {
+                JsonElement json = JsonParser.parseString(new String(payload, StandardCharsets.UTF_8));
+                if (!json.isJsonArray()) {
+                    return null;
+                }
+                JsonArray array = json.getAsJsonArray();
+                double[] values = new double[array.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = array.get(i).getAsDouble();
+                }
+                return values;
+            }
+            case MediaTypeRegistry.APPLICATION_CBOR: {
+                Object cbor = Cbor.decode(payload);
+                if (!(cbor instanceof List)) {
+                    return null;
+                }
+                List<?> list = (List<?>) cbor;
+                double[] values = new double[list.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = toDouble(list.get(i), name);
+                }
+                return values;
+            }
+            case MediaTypeRegistry.APPLICATION_SENML_JSON: {
+                JsonArray pack = JsonParser.parseString(new String(payload, StandardCharsets.UTF_8)).getAsJsonArray();
+                double[] values = new double[pack.size()];
+                int count = 0;
+                for (JsonElement element : pack) {
+                    JsonObject record = element.getAsJsonObject();
+                    JsonElement recordName = record.get(SENML_NAME);
+                    if ((recordName == null || recordName.getAsString().equals(name)) && record.has(SENML_VALUE)) {
+                        values[count++] = record.get(SENML_VALUE).getAsDouble();
+                    }
+                }
+                return count > 1 ? Arrays.copyOf(values, count) : null;
+            }
+            case MediaTypeRegistry.APPLICATION_SENML_CBOR: {
+                Object cbor = Cbor.decode(payload);
+                if (!(cbor instanceof List)) {
+                    throw new IllegalArgumentException("SenML pack must be an array");
+                }
+                List<?> pack = (List<?>) cbor;
+                double[] values = new double[pack.size()];
+                int count = 0;
+                for (Object element : pack) {
+                    Map<?, ?> record = cborRecord(element);
+                    Object recordName = record.get(SENML_CBOR_NAME);
+                    if ((recordName == null || name.equals(recordName)) && record.containsKey(SENML_CBOR_VALUE)) {
+                        values[count++] = toDouble(record.get(SENML_CBOR_VALUE), name);
+                    }
+                }
+                return count > 1 ? Arrays.copyOf(values, count) : null;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported content format " + contentFormat);
+        }
+    }
+
+    /**
+     * Encodes a list of per-item results as an array of booleans, in JSON or in CBOR.
+     *
+     * @param contentFormat APPLICATION_JSON or APPLICATION_CBOR
+     * @param results the results, in the order of the items they refer to
+     * @return the encoded payload
+     * @throws IllegalArgumentException if the content format is not supported
+     */
+    public static byte[] encodeResults(int contentFormat, boolean[] results) {
+        if (contentFormat == MediaTypeRegistry.APPLICATION_JSON) {
+            JsonArray array = new JsonArray(results.length);
+            for (boolean result : results) {
+                array.add(result);
+            }
+            return array.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        if (contentFormat == MediaTypeRegistry.APPLICATION_CBOR) {
+            Cbor.Writer writer = new Cbor.Writer();
+            writer.array(results.length);
+            for (boolean result : results) {
+                writer.bool(result);
+            }
+            return writer.toByteArray();
+        }
+        throw new IllegalArgumentException("Unsupported content format " + contentFormat);
+    }
+
+    /**
+     * Checks that an element of a SenML CBOR pack is a record, i.e. a map.
+     */
+    private static Map<?, ?> cborRecord(Object element) {
+        if (!(element instanceof Map)) {
+            throw new IllegalArgumentException("SenML record must be a map");
+        }
+        return (Map<?, ?>) element;
+    }
+
+    /**
+     * Decodes a list of per-item results written by encodeResults.
+     *
+     * @param contentFormat APPLICATION_JSON or APPLICATION_CBOR
+     * @param payload the encoded payload
+     * @return the results, in the order of the items they refer to
+     * @throws IllegalArgumentException if the payload is malformed
+     */
+    public static boolean[] decodeResults(int contentFormat, byte[] payload) {
+        if (contentFormat == MediaTypeRegistry.APPLICATION_CBOR) {
+            Object cbor = Cbor.decode(payload);
+            if (!(cbor instanceof List)) {
+                throw new IllegalArgumentException("Results must be an array");
+            }
+            List<?> list = (List<?>) cbor;
+            boolean[] results = new boolean[list.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = Boolean.TRUE.equals(list.get(i));
+            }
+            return results;
+        }
+        JsonArray array = JsonParser.parseString(new String(payload, StandardCharsets.UTF_8)).getAsJsonArray();
+        boolean[] results = new boolean[array.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = array.get(i).getAsBoolean();
+        }
+        return results;
+    }
+
+    private static void writeNumber(Cbor.Writer writer, boolean integral, Number value) {
+        if (integral) {
+            writer.integer(value.longValue());
+        } else {
+            writer.number(value.doubleValue());
+        }
+    }
+
+    private static double toDouble(Object value, String name) {
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("Missing value " + name);
+        }
+        return ((Number) value).doubleValue();
+    }
+}
@@ -0,0 +1,122 @@
+package it.unipr.iotlab.iot2024.cf.server.loopback;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.eclipse.californium.elements.Connector;
+import org.eclipse.californium.elements.EndpointContext;
+import org.eclipse.californium.elements.EndpointContextMatcher;
+import org.eclipse.californium.elements.RawData;
+import org.eclipse.californium.elements.RawDataChannel;
+import org.eclipse.californium.elements.UdpEndpointContext;
+import org.eclipse.californium.elements.util.ClockUtil;
+
+/**
+ * The LoopbackConnector class is a Californium connector exchanging datagrams with the other
+ * connectors of a LoopbackNetwork instead of a UDP socket. A datagram sent to the address of a
+ * connector is handed to the receiver of that connector on the sending thread; the receiving
+ * CoapEndpoint then parses it on its own protocol threads, as it does for a datagram read from
+ * a socket. The connector reports the "UDP" protocol, so the endpoints built on it speak plain
+ * coap:// with the usual message layers (deduplication, retransmissions, observe).
+ */
+public class LoopbackConnector implements Connector {
+
+    // Network the connector is attached to
+    private final LoopbackNetwork network;
+    // Virtual address of the connector
+    private final InetSocketAddress address;
+    // Source context of the datagrams sent by this connector, shared as it is immutable
+    private final EndpointContext context;
+
+    // Channel receiving the datagrams sent to this connector
+    private volatile RawDataChannel receiver;
+    // True while the connector is attached to the network
+    private volatile boolean running;
+
+    /**
+     * Constructor for LoopbackConnector.
+     *
+     * @param network the network to attach to
+     * @param address the virtual address of the connector
+     */
+    public LoopbackConnector(LoopbackNetwork network, InetSocketAddress address) {
+        this.network = network;
+        this.address = address;
+        this.context = new UdpEndpointContext(address);
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (!this.running) {
+            this.network.attach(this);
+            this.running = true;
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (this.running) {
+            this.running = false;
+            this.network.detach(this);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+
+    /**
+     * Sends a datagram to the connector at its destination address. As with UDP, a datagram
+     * to an address no connector is attached to is silently lost.
+     *
+     * @param message the datagram to send
+     */
+    @Override
+    public void send(RawData message) {
+        if (!this.running) {
+            message.onError(new IOException("Loopback connector " + this.address + " is not running"));
+            return;
+        }
+        this.network.send(this, message);
+    }
+
+    /**
+     * Hands a datagram sent by another connector to the receiver of this one.
+     */
+    void receive(EndpointContext source, byte[] bytes) {
+        RawDataChannel channel = this.receiver;
+        if (channel != null && this.running) {
+            channel.receiveData(RawData.inbound(bytes, source, false, ClockUtil.nanoRealtime()));
+        }
+    }
+
+    EndpointContext getContext() {
+        return this.context;
+    }
+
+    @Override
+    public void setRawDataReceiver(RawDataChannel messageHandler) {
+        this.receiver = messageHandler;
+    }
+
+    @Override
+    public void setEndpointContextMatcher(EndpointContextMatcher matcher) {
+        // Datagrams carry no security context, so there is nothing to match
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        return this.address;
+    }
+
+    @Override
+    public String getProtocol() {
+        return "UDP";
+    }
+
+    @Override
+    public String toString() {
+        return "loopback " + this.address;
+    }
+}
@@ -0,0 +1,190 @@
+package it.unipr.iotlab.iot2024.cf.server.loopback;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.EndpointManager;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.elements.RawData;
+import org.eclipse.californium.elements.UdpEndpointContext;
+
+/**
+ * The LoopbackNetwork class is an in-memory network connecting LoopbackConnectors inside one JVM,
+ * so the village servers and clients can exchange CoAP messages without the kernel network stack.
+ * The connectors are attached to virtual addresses on 127.0.0.1: servers keep their usual ports,
+ * clients get ports from 49152 up. The virtual ports do not clash with the UDP ports of the host.
+ * <p>
+ * The loopback transport is selected with the village.transport=loopback system property, or by
+ * calling install() before the servers are created: every VillageServer then listens on the
+ * loopback network, and the default client endpoint of Californium, used by every CoapClient
+ * without an endpoint of its own (MemberClient, HeatingPump, ExpertManager...), is replaced by a
+ * loopback one. Servers and clients must run in the same JVM.
+ * <p>
+ * A loss rate can be set to simulate a lossy link, e.g. to exercise the retransmissions.
+ */
+public final class LoopbackNetwork {
+
+    // System property selecting the transport of the village servers and clients (udp or loopback)
+    public static final String TRANSPORT_PROPERTY = "village.transport";
+    // First port given to the client connectors
+    private static final int FIRST_EPHEMERAL_PORT = 49152;
+
+    // Network shared by the servers and clients of the JVM
+    private static final LoopbackNetwork DEFAULT = new LoopbackNetwork();
+    // True once the default network carries the default client endpoint
+    private static volatile boolean installed;
+
+    // Virtual address of the connectors
+    private final InetAddress host = InetAddress.getLoopbackAddress();
+    // Connectors by virtual address
+    private final Map<InetSocketAddress, LoopbackConnector> connectors = new ConcurrentHashMap<>();
+    // Next port given to a client connector
+    private final AtomicInteger nextEphemeralPort = new AtomicInteger(FIRST_EPHEMERAL_PORT);
+    // Share of the datagrams lost (0 for none)
+    private volatile double lossRate;
+    // Datagrams delivered and lost
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+
+    /**
+     * Constructor for LoopbackNetwork, for an isolated network; the village code uses getDefault().
+     */
+    public LoopbackNetwork() {
+    }
+
+    /**
+     * Returns the network shared by the servers and clients of the JVM.
+     * @return the default network
+     */
+    public static LoopbackNetwork getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Checks whether the village servers and clients use the loopback transport.
+     * @return true if install() was called or the village.transport property is "loopback"
+     */
+    public static boolean isSelected() {
+        return installed || "loopback".equalsIgnoreCase(System.getProperty(TRANSPORT_PROPERTY));
+    }
+
+    /**
+     * Selects the loopback transport for the village servers created from now on, and replaces the
+     * default client endpoint of Californium with one attached to the default network.
+     */
+    public static synchronized void install() {
+        if (!installed) {
+            EndpointManager.getEndpointManager().setDefaultEndpoint(DEFAULT.createClientEndpoint());
+            installed = true;
+        }
+    }
+
+    /**
+     * Creates an endpoint listening on a port of this network, e.g. for a server.
+     *
+     * @param port the virtual port
+     * @param config the configuration of the endpoint
+     * @return the endpoint, not started
+     */
+    public CoapEndpoint createEndpoint(int port, NetworkConfig config) {
+        LoopbackConnector connector = new LoopbackConnector(this, new InetSocketAddress(this.host, port));
+        return new CoapEndpoint.Builder().setConnector(connector).setNetworkConfig(config).build();
+    }
+
+    /**
+     * Creates a client endpoint on the next free ephemeral port of this network.
+     * @return the endpoint, not started
+     */
+    public CoapEndpoint createClientEndpoint() {
+        return createClientEndpoint(NetworkConfig.getStandard());
+    }
+
+    /**
+     * Creates a client endpoint on the next free ephemeral port of this network.
+     * @param config the configuration of the endpoint
+     * @return the endpoint, not started
+     */
+    public CoapEndpoint createClientEndpoint(NetworkConfig config) {
+        int port;
+        do {
+            port = this.nextEphemeralPort.getAndIncrement();
+            if (port > 0xFFFF) {
+                throw new IllegalStateException("No ephemeral port left on the loopback network");
+            }
+        } while (this.connectors.containsKey(new InetSocketAddress(this.host, port)));
+        return createEndpoint(port, config);
+    }
+
+    /**
+     * Attaches a started connector to its address.
+     */
+    void attach(LoopbackConnector connector) throws IOException {
+        if (this.connectors.putIfAbsent(connector.getAddress(), connector) != null) {
+            throw new BindException("Loopback address " + connector.getAddress() + " already in use");
+        }
+    }
+
+    /**
+     * Detaches a stopped connector from its address.
+     */
+    void detach(LoopbackConnector connector) {
+        this.connectors.remove(connector.getAddress(), connector);
+    }
+
+    /**
+     * Delivers a datagram to the connector at its destination address.
+     */
+    void send(LoopbackConnector source, RawData message) {
+        // Report the context of the destination, as a UDP connector does, so responses can be matched
+        LoopbackConnector destination = this.connectors.get(message.getInetSocketAddress());
+        message.onContextEstablished(destination != null ? destination.getContext()
+                : new UdpEndpointContext(message.getInetSocketAddress()));
+        message.onSent();
+        double loss = this.lossRate;
+        if (destination == null || (loss > 0 && ThreadLocalRandom.current().nextDouble() < loss)) {
+            this.lost.incrementAndGet();
+            return;
+        }
+        this.delivered.incrementAndGet();
+        destination.receive(source.getContext(), message.getBytes());
+    }
+
+    public double getLossRate() {
+        return this.lossRate;
+    }
+
+    /**
+     * Sets the share of the datagrams lost by the network.
+     * @param lossRate the share, between 0 (no loss) and 1
+     */
+    public void setLossRate(double lossRate) {
+        if (lossRate < 0 || lossRate > 1) {
+            throw new IllegalArgumentException("Loss rate must be between 0 and 1: " + lossRate);
+        }
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * Returns the number of datagrams handed to a connector.
+     * @return the number of delivered datagrams
+     */
+    public long getDelivered() {
+        return this.delivered.get();
+    }
+
+    /**
+     * Returns the number of datagrams lost, to the loss rate or for want of a connector at their destination.
+     * @return the number of lost datagrams
+     */
+    public long getLost() {
+        return this.lost.get();
+    }
+}
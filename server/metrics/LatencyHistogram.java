@@ -0,0 +1,124 @@
+package it.unipr.iotlab.iot2024.cf.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The LatencyHistogram class records durations in log-linear buckets: each power of two is split
+ * into 16 buckets, so a percentile is reported with a relative error below 1/16 whatever the
+ * magnitude, from nanoseconds to hours. Recording is lock-free and allocation-free (a bucket
+ * index computed with a few shifts and one atomic increment), so it can be called on the handler
+ * path; only reading the percentiles copies the buckets.
+ */
+public final class LatencyHistogram {
+
+    // Number of bits of the value kept below its leading one
+    private static final int SUB_BUCKET_BITS = 4;
+    // Number of buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Number of buckets, enough for any positive long
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // Number of values recorded in each bucket
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    // Number, sum and maximum of the recorded values
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration.
+     * @param nanos the duration in nanoseconds (negative values are recorded as 0)
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        this.buckets.incrementAndGet(index(value));
+        this.count.incrementAndGet();
+        this.total.addAndGet(value);
+        this.max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     * @return the count
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Returns the longest recorded duration.
+     * @return the maximum in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Returns the average recorded duration.
+     * @return the mean in nanoseconds, or 0 if nothing was recorded
+     */
+    public double getMean() {
+        long count = this.count.get();
+        return count == 0 ? 0 : (double) this.total.get() / count;
+    }
+
+    /**
+     * Returns the durations below which the given shares of the recorded durations fall,
+     * computed on a single copy of the buckets.
+     *
+     * @param quantiles the shares, between 0 and 1 (e.g. 0.5, 0.99, 0.999)
+     * @return for each share, the upper bound of the bucket holding it in nanoseconds,
+     *         or 0 if nothing was recorded
+     */
+    public long[] getPercentiles(double... quantiles) {
+        long[] counts = new long[BUCKETS];
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets.get(i);
+            recorded += counts[i];
+        }
+        long[] percentiles = new long[quantiles.length];
+        if (recorded == 0) {
+            return percentiles;
+        }
+        long max = this.max.get();
+        for (int q = 0; q < quantiles.length; q++) {
+            long rank = Math.max(1, (long) Math.ceil(quantiles[q] * recorded));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    percentiles[q] = Math.min(upperBound(i), max);
+                    break;
+                }
+            }
+        }
+        return percentiles;
+    }
+
+    /**
+     * Returns the bucket of a value: values below 16 have a bucket each, larger values are
+     * bucketed by the position of their leading one and the 4 bits that follow it.
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Returns the largest value of a bucket.
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long lowest = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,108 @@
+package it.unipr.iotlab.iot2024.cf.server.metrics;
+
+import java.util.concurrent.ExecutorService;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.server.ServerMessageDeliverer;
+import org.eclipse.californium.core.server.resources.Resource;
+import org.eclipse.californium.elements.util.ClockUtil;
+
+import it.unipr.iotlab.iot2024.cf.server.AdmissionControl;
+import it.unipr.iotlab.iot2024.cf.server.AdmittedResource;
+
+/**
+ * The MeteredDeliverer class delivers the requests of a server to its resources like the
+ * Californium ServerMessageDeliverer, and records them in the server metrics. The request is
+ * handed to Resource.handleRequest unchanged; the response code and the latency, from the
+ * reception of the request, are recorded by the interceptor of the metrics when the response is
+ * sent, so the handlers answering later from another thread (e.g. after an upstream request) are
+ * measured too.
+ * <p>
+ * The requests of an AdmittedResource pass through its admission control here, on the protocol
+ * thread, before they are handed to the handler executor: a rejected request is answered 5.03 at
+ * once, and an admitted one holds its place until its handler returns.
+ * <p>
+ * The work done per request is a few atomic increments, on recorders created with the first
+ * request of each resource and method.
+ */
+public class MeteredDeliverer extends ServerMessageDeliverer {
+
+    // Metrics the requests are recorded in
+    private final ServerMetrics metrics;
+
+    /**
+     * Constructor for MeteredDeliverer.
+     *
+     * @param root the root resource of the server
+     * @param metrics the metrics the requests are recorded in
+     */
+    public MeteredDeliverer(Resource root, ServerMetrics metrics) {
+        super(root);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Delivers a request to its resource, on the executor of the resource if it has one.
+     *
+     * @param exchange the exchange of the request
+     * @return true, since the request is always delivered here
+     */
+    @Override
+    protected boolean preDeliverRequest(Exchange exchange) {
+        Resource resource = findResource(exchange);
+        if (resource == null) {
+            exchange.sendResponse(new Response(CoAP.ResponseCode.NOT_FOUND));
+            return true;
+        }
+        checkForObserveOption(exchange, resource);
+
+        Request request = exchange.getRequest();
+        ResourceMetrics resourceMetrics = this.metrics.of(resource);
+        RequestMetrics requestMetrics = resourceMetrics.of(request.getCode());
+        requestMetrics.received();
+        if (exchange.getRelation() != null) {
+            this.metrics.observing(request.getToken(), resourceMetrics);
+        }
+        this.metrics.answering(exchange, requestMetrics);
+
+        AdmissionControl admission = resource instanceof AdmittedResource
+                ? ((AdmittedResource) resource).getAdmissionControl(request.getCode()) : null;
+        if (admission != null && !admission.tryAdmit(ClockUtil.nanoRealtime() - exchange.getNanoTimestamp())) {
+            // Turn the request away before it takes a handler thread or a place in the executor queue
+            Response response = new Response(CoAP.ResponseCode.SERVICE_UNAVAILABLE);
+            response.getOptions().setMaxAge(admission.getRetryAfterSeconds());
+            exchange.sendResponse(response);
+            return true;
+        }
+
+        ExecutorService executor = resource.getExecutor();
+        if (executor != null) {
+            executor.execute(() -> handle(resource, exchange, requestMetrics, admission));
+        } else {
+            handle(resource, exchange, requestMetrics, admission);
+        }
+        return true;
+    }
+
+    /**
+     * Calls the handler of the resource, counting the exceptions it throws as server errors,
+     * and releases the place of the request in its admission control once the handler returns.
+     */
+    private void handle(Resource resource, Exchange exchange, RequestMetrics requestMetrics, AdmissionControl admission) {
+        long start = ClockUtil.nanoRealtime();
+        try {
+            resource.handleRequest(exchange);
+        } catch (RuntimeException e) {
+            this.metrics.unanswered(exchange);
+            requestMetrics.failed();
+            throw e;
+        } finally {
+            if (admission != null) {
+                admission.release(ClockUtil.nanoRealtime() - start);
+            }
+        }
+    }
+}
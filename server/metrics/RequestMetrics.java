@@ -0,0 +1,55 @@
+package it.unipr.iotlab.iot2024.cf.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.core.coap.CoAP;
+
+/**
+ * The RequestMetrics class counts the requests of one method on one resource (e.g. the POSTs to
+ * /PresenceResource), the responses with a client or server error code, and records the latency
+ * from the reception of each request to its response.
+ */
+public final class RequestMetrics {
+
+    // Requests received
+    private final AtomicLong requests = new AtomicLong();
+    // Requests answered with a 4.xx code
+    private final AtomicLong clientErrors = new AtomicLong();
+    // Requests answered with a 5.xx code, or whose handler threw an exception
+    private final AtomicLong serverErrors = new AtomicLong();
+    // Time from the reception of a request to its response
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    void received() {
+        this.requests.incrementAndGet();
+    }
+
+    void responded(CoAP.ResponseCode code, long latencyNanos) {
+        if (CoAP.ResponseCode.isClientError(code)) {
+            this.clientErrors.incrementAndGet();
+        } else if (CoAP.ResponseCode.isServerError(code)) {
+            this.serverErrors.incrementAndGet();
+        }
+        this.latency.record(latencyNanos);
+    }
+
+    void failed() {
+        this.serverErrors.incrementAndGet();
+    }
+
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    public long getClientErrors() {
+        return this.clientErrors.get();
+    }
+
+    public long getServerErrors() {
+        return this.serverErrors.get();
+    }
+
+    public LatencyHistogram getLatency() {
+        return this.latency;
+    }
+}
@@ -0,0 +1,58 @@
+package it.unipr.iotlab.iot2024.cf.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.server.resources.Resource;
+
+/**
+ * The ResourceMetrics class holds the metrics of one resource of a server: the request metrics
+ * of each method it received, and the number of notifications sent to its observers.
+ */
+public final class ResourceMetrics {
+
+    // Resource the metrics belong to
+    private final Resource resource;
+    // Request metrics, by method ordinal (created on the first request of each method)
+    private final AtomicReferenceArray<RequestMetrics> methods = new AtomicReferenceArray<>(CoAP.Code.values().length);
+    // Notifications sent to the observers of the resource
+    private final AtomicLong notifications = new AtomicLong();
+
+    ResourceMetrics(Resource resource) {
+        this.resource = resource;
+    }
+
+    /**
+     * Returns the request metrics of a method, creating them on the first request.
+     */
+    RequestMetrics of(CoAP.Code method) {
+        RequestMetrics metrics = this.methods.get(method.ordinal());
+        if (metrics == null) {
+            this.methods.compareAndSet(method.ordinal(), null, new RequestMetrics());
+            metrics = this.methods.get(method.ordinal());
+        }
+        return metrics;
+    }
+
+    void notified() {
+        this.notifications.incrementAndGet();
+    }
+
+    public Resource getResource() {
+        return this.resource;
+    }
+
+    /**
+     * Returns the request metrics of a method.
+     * @param method the request method
+     * @return the metrics, or null if the resource never received a request with this method
+     */
+    public RequestMetrics getRequestMetrics(CoAP.Code method) {
+        return this.methods.get(method.ordinal());
+    }
+
+    public long getNotifications() {
+        return this.notifications.get();
+    }
+}
@@ -0,0 +1,197 @@
+package it.unipr.iotlab.iot2024.cf.server.metrics;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.coap.Token;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.interceptors.MessageInterceptorAdapter;
+import org.eclipse.californium.core.observe.ObserveRelation;
+import org.eclipse.californium.core.server.resources.Resource;
+import org.eclipse.californium.core.server.resources.ResourceObserverAdapter;
+import org.eclipse.californium.elements.EndpointContext;
+import org.eclipse.californium.elements.util.ClockUtil;
+
+/**
+ * The ServerMetrics class collects the metrics of every resource of a server. Requests are
+ * recorded by a MeteredDeliverer; responses and notifications are counted by an interceptor
+ * added to the endpoints of the server (see getInterceptor), which maps the peer and token of
+ * each request waiting for its response, and the token of each observe relation, to the metrics
+ * of the resource. The metrics of a resource are dropped when it is removed from the server.
+ */
+public final class ServerMetrics {
+
+    // Maximum number of requests whose response is awaited, beyond which latencies are not recorded
+    private static final int MAX_PENDING = 4096;
+
+    // Metrics of the resources that received at least one request
+    private final Map<Resource, ResourceMetrics> resources = new ConcurrentHashMap<>();
+    // Requests delivered whose response was not sent yet, by peer and token
+    private final Map<PendingKey, Pending> pending = new ConcurrentHashMap<>();
+    // Open observe relations, by token
+    private final Map<Token, Relation> relations = new ConcurrentHashMap<>();
+    // Interceptor counting the responses and notifications sent by the endpoints
+    private final MessageInterceptorAdapter interceptor = new MessageInterceptorAdapter() {
+        @Override
+        public void sendResponse(Response response) {
+            if (!pending.isEmpty()) {
+                Pending answered = pending.remove(new PendingKey(response.getDestinationContext(), response.getToken()));
+                if (answered != null) {
+                    answered.metrics.responded(response.getCode(), ClockUtil.nanoRealtime() - answered.receivedNanos);
+                }
+            }
+            Relation relation = response.getToken() == null ? null : relations.get(response.getToken());
+            if (relation == null) {
+                return;
+            }
+            if (!response.getOptions().hasObserve()) {
+                // The relation was refused or cancelled
+                relations.remove(response.getToken(), relation);
+            } else if (relation.registered) {
+                relation.metrics.notified();
+            } else {
+                // The first response with an Observe option answers the registration itself
+                relation.registered = true;
+            }
+        }
+    };
+
+    /**
+     * Returns the metrics of a resource, creating them on its first request. They are dropped,
+     * with the relations of the resource, when the resource is removed from the server.
+     */
+    ResourceMetrics of(Resource resource) {
+        ResourceMetrics metrics = this.resources.get(resource);
+        if (metrics == null) {
+            ResourceMetrics created = new ResourceMetrics(resource);
+            metrics = this.resources.putIfAbsent(resource, created);
+            if (metrics == null) {
+                metrics = created;
+                // Drop the metrics when the resource is deleted, and forget its relations cancelled without a response
+                resource.addObserver(new ResourceObserverAdapter() {
+                    @Override
+                    public void changedPath(String old) {
+                        // A deleted resource loses its parent, e.g. a proxied path the upstream does not know
+                        if (resource.getParent() == null) {
+                            resource.removeObserver(this);
+                            resources.remove(resource, created);
+                            relations.values().removeIf(tracked -> tracked.metrics == created);
+                        }
+                    }
+
+                    @Override
+                    public void removedObserveRelation(ObserveRelation relation) {
+                        Token token = relation.getExchange().getRequest().getToken();
+                        Relation tracked = relations.get(token);
+                        if (tracked != null && tracked.metrics == created) {
+                            relations.remove(token, tracked);
+                        }
+                    }
+                });
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Waits for the response to a delivered request, recording its code and latency when it is sent.
+     */
+    void answering(Exchange exchange, RequestMetrics metrics) {
+        if (this.pending.size() < MAX_PENDING) {
+            this.pending.put(new PendingKey(exchange.getRequest().getSourceContext(), exchange.getRequest().getToken()),
+                    new Pending(metrics, exchange.getNanoTimestamp()));
+        }
+    }
+
+    /**
+     * Stops waiting for the response to a request whose handler failed.
+     */
+    void unanswered(Exchange exchange) {
+        this.pending.remove(new PendingKey(exchange.getRequest().getSourceContext(), exchange.getRequest().getToken()));
+    }
+
+    /**
+     * Starts counting the notifications of an observe relation.
+     */
+    void observing(Token token, ResourceMetrics metrics) {
+        this.relations.put(token, new Relation(metrics));
+    }
+
+    /**
+     * Returns the interceptor counting the responses and notifications, to add to every endpoint of the server.
+     * @return the message interceptor
+     */
+    public MessageInterceptorAdapter getInterceptor() {
+        return this.interceptor;
+    }
+
+    /**
+     * Returns the metrics of the resources that received at least one request.
+     * @return a copy of the list of resource metrics
+     */
+    public List<ResourceMetrics> getResourceMetrics() {
+        return new ArrayList<>(this.resources.values());
+    }
+
+    /**
+     * The peer and token identifying the response to a request.
+     */
+    private static final class PendingKey {
+
+        private final InetSocketAddress peer;
+        private final Token token;
+
+        PendingKey(EndpointContext context, Token token) {
+            this.peer = context == null ? null : context.getPeerAddress();
+            this.token = token;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof PendingKey)) {
+                return false;
+            }
+            PendingKey key = (PendingKey) other;
+            return Objects.equals(this.peer, key.peer) && Objects.equals(this.token, key.token);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(this.peer) + Objects.hashCode(this.token);
+        }
+    }
+
+    /**
+     * A request waiting for its response.
+     */
+    private static final class Pending {
+
+        private final RequestMetrics metrics;
+        // Time the request was received (in nanoseconds)
+        private final long receivedNanos;
+
+        Pending(RequestMetrics metrics, long receivedNanos) {
+            this.metrics = metrics;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    /**
+     * An observe relation whose notifications are counted.
+     */
+    private static final class Relation {
+
+        private final ResourceMetrics metrics;
+        // Whether the response to the registration was sent
+        private volatile boolean registered;
+
+        Relation(ResourceMetrics metrics) {
+            this.metrics = metrics;
+        }
+    }
+}
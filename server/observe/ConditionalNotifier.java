@@ -0,0 +1,223 @@
+package it.unipr.iotlab.iot2024.cf.server.observe;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.observe.ObserveRelation;
+import org.eclipse.californium.core.observe.ObserveRelationFilter;
+import org.eclipse.californium.core.server.resources.ResourceObserverAdapter;
+
+/**
+ * The ConditionalNotifier class applies the CoRE conditional notification attributes that each
+ * observer passes as URI queries when registering (e.g. GET /ChlorineResource?pmin=2&amp;pmax=30&amp;st=0.2):
+ * <ul>
+ * <li>pmin: minimum period between two notifications, in seconds. Changes arriving earlier are
+ * coalesced into one notification sent when the period expires, carrying the latest value.</li>
+ * <li>pmax: maximum period between two notifications, in seconds. The current value is sent
+ * when no notification went out for that long, even if it did not change.</li>
+ * <li>st: change step. A change smaller than the step, compared to the last value sent to the
+ * observer, does not trigger a notification.</li>
+ * </ul>
+ * Observers that registered without attributes are notified on every change, as before.
+ */
+public class ConditionalNotifier implements ObserveRelationFilter {
+
+    // Query attribute names
+    private static final String PMIN = "pmin";
+    private static final String PMAX = "pmax";
+    private static final String STEP = "st";
+
+    // Scheduler shared by all notifiers for deferred (pmin) and periodic (pmax) notifications
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ConditionalNotifier");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Resource whose observers are notified
+    private final CoapResource resource;
+    // Supplier of the current value, compared against the change step
+    private final DoubleSupplier value;
+    // Conditions and notification state of every relation that registered with attributes
+    private final Map<ObserveRelation, RelationState> states;
+
+    /**
+     * Constructor for ConditionalNotifier, attaching it to an observable resource.
+     *
+     * @param resource the resource whose notifications are controlled
+     * @param value supplier of the current value of the resource
+     */
+    public ConditionalNotifier(CoapResource resource, DoubleSupplier value) {
+        this.resource = resource;
+        this.value = value;
+        this.states = new ConcurrentHashMap<>();
+        resource.addObserver(new ResourceObserverAdapter() {
+            @Override
+            public void addedObserveRelation(ObserveRelation relation) {
+                register(relation);
+            }
+
+            @Override
+            public void removedObserveRelation(ObserveRelation relation) {
+                RelationState state = ConditionalNotifier.this.states.remove(relation);
+                if (state != null) {
+                    state.cancelTimers();
+                }
+            }
+        });
+    }
+
+    /**
+     * Notifies the observers whose conditions are met by the current value. To be called
+     * instead of the resource's changed() whenever the value is updated.
+     */
+    public void changed() {
+        this.resource.changed(this);
+    }
+
+    /**
+     * Decides whether a relation receives the notification being sent.
+     *
+     * @param relation the observe relation
+     * @return true if the relation must be notified now
+     */
+    @Override
+    public boolean accept(ObserveRelation relation) {
+        RelationState state = this.states.get(relation);
+        return state == null || state.accept(this.value.getAsDouble(), false);
+    }
+
+    /**
+     * Parses the attributes of a new relation and starts its pmax timer.
+     */
+    private void register(ObserveRelation relation) {
+        double pmin = 0;
+        double pmax = 0;
+        double step = 0;
+        for (String query : relation.getExchange().getRequest().getOptions().getUriQuery()) {
+            int separator = query.indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            String name = query.substring(0, separator);
+            try {
+                double attribute = Double.parseDouble(query.substring(separator + 1));
+                if (PMIN.equals(name)) {
+                    pmin = attribute;
+                } else if (PMAX.equals(name)) {
+                    pmax = attribute;
+                } else if (STEP.equals(name)) {
+                    step = attribute;
+                }
+            } catch (NumberFormatException e) {
+                // Ignore malformed attributes, the relation is then notified on every change
+            }
+        }
+        if (pmin <= 0 && pmax <= 0 && step <= 0) {
+            return;
+        }
+        if (pmax > 0 && pmax < pmin) {
+            pmax = pmin; // pmax must not be shorter than pmin
+        }
+        RelationState state = new RelationState(relation, (long) (pmin * 1000), (long) (pmax * 1000), step,
+                this.value.getAsDouble());
+        this.states.put(relation, state);
+        state.schedulePmax();
+    }
+
+    /**
+     * Sends a notification to a single relation, from a timer.
+     */
+    private void notifyRelation(ObserveRelation relation, boolean periodic) {
+        RelationState state = this.states.get(relation);
+        if (state == null || relation.isCanceled()) {
+            return;
+        }
+        this.resource.changed(candidate -> candidate == relation && state.accept(this.value.getAsDouble(), periodic));
+    }
+
+    /**
+     * Conditions and notification state of one observe relation.
+     */
+    private final class RelationState {
+
+        private final ObserveRelation relation;
+        private final long pminMs;
+        private final long pmaxMs;
+        private final double step;
+
+        // Time and value of the last notification sent to the relation
+        private long lastSentMs;
+        private double lastValue;
+        // Pending timers
+        private ScheduledFuture<?> deferred;
+        private ScheduledFuture<?> periodic;
+
+        RelationState(ObserveRelation relation, long pminMs, long pmaxMs, double step, double initialValue) {
+            this.relation = relation;
+            this.pminMs = pminMs;
+            this.pmaxMs = pmaxMs;
+            this.step = step;
+            this.lastSentMs = System.currentTimeMillis();
+            this.lastValue = initialValue;
+        }
+
+        /**
+         * Applies the conditions to the current value; periodic checks ignore the change step.
+         */
+        synchronized boolean accept(double current, boolean periodic) {
+            long now = System.currentTimeMillis();
+            if (!periodic && this.step > 0 && Math.abs(current - this.lastValue) < this.step) {
+                return false;
+            }
+            if (periodic && now - this.lastSentMs < this.pmaxMs) {
+                return false; // another notification went out since the timer was set
+            }
+            long wait = this.lastSentMs + this.pminMs - now;
+            if (wait > 0) {
+                // Too early: send the latest value once the minimum period has elapsed
+                if (this.deferred == null) {
+                    this.deferred = SCHEDULER.schedule(() -> {
+                        synchronized (this) {
+                            this.deferred = null;
+                        }
+                        notifyRelation(this.relation, false);
+                    }, wait, TimeUnit.MILLISECONDS);
+                }
+                return false;
+            }
+            this.lastSentMs = now;
+            this.lastValue = current;
+            schedulePmax();
+            return true;
+        }
+
+        /**
+         * (Re)starts the timer sending the current value after pmax without notifications.
+         */
+        synchronized void schedulePmax() {
+            if (this.pmaxMs <= 0) {
+                return;
+            }
+            if (this.periodic != null) {
+                this.periodic.cancel(false);
+            }
+            this.periodic = SCHEDULER.schedule(() -> notifyRelation(this.relation, true), this.pmaxMs, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized void cancelTimers() {
+            if (this.deferred != null) {
+                this.deferred.cancel(false);
+            }
+            if (this.periodic != null) {
+                this.periodic.cancel(false);
+            }
+        }
+    }
+}
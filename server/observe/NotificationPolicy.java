@@ -0,0 +1,230 @@
+package it.unipr.iotlab.iot2024.cf.server.observe;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.observe.ObserveRelation;
+import org.eclipse.californium.core.server.resources.ResourceObserverAdapter;
+
+/**
+ * The NotificationPolicy class chooses the message type of each notification sent by an observable
+ * resource. Notifications are sent as NON by default, so they hold no exchange state and need no
+ * acknowledgement; every confirmEvery notifications, or when confirmIntervalMs elapsed since the
+ * last confirmable one, a relation receives a CON notification instead, which checks that the
+ * observer is still alive (an observer that went away times out and its relation is removed).
+ * Setting confirmEvery to 1 sends every notification as CON, as the resources did before.
+ * <p>
+ * The policy also keeps statistics on the notifications sent, in particular the number of
+ * confirmable notifications still waiting for an acknowledgement.
+ */
+public class NotificationPolicy {
+
+    // Default number of notifications to a relation between two confirmable ones
+    public static final int DEFAULT_CONFIRM_EVERY = 10;
+    // Default maximum time between two confirmable notifications to a relation (in milliseconds)
+    public static final long DEFAULT_CONFIRM_INTERVAL_MS = 30000;
+
+    // Number of notifications between two confirmable ones (0 disables the count trigger)
+    private volatile int confirmEvery;
+    // Maximum time between two confirmable notifications (0 disables the time trigger)
+    private volatile long confirmIntervalMs;
+
+    // Confirmation state of every established relation
+    private final Map<ObserveRelation, RelationState> states;
+
+    // Statistics on the notifications sent
+    private final LongAdder confirmableSent;
+    private final LongAdder nonConfirmableSent;
+    private final LongAdder acknowledged;
+    private final LongAdder failed;
+    private final AtomicInteger outstanding;
+    private final AtomicInteger maxOutstanding;
+
+    /**
+     * Constructor for NotificationPolicy, using the default confirmation count and interval.
+     *
+     * @param resource the observable resource whose notifications are typed by this policy
+     */
+    public NotificationPolicy(CoapResource resource) {
+        this(resource, DEFAULT_CONFIRM_EVERY, DEFAULT_CONFIRM_INTERVAL_MS);
+    }
+
+    /**
+     * Constructor for NotificationPolicy.
+     *
+     * @param resource the observable resource whose notifications are typed by this policy
+     * @param confirmEvery number of notifications between two confirmable ones (0 to disable)
+     * @param confirmIntervalMs maximum time between two confirmable notifications, in milliseconds (0 to disable)
+     */
+    public NotificationPolicy(CoapResource resource, int confirmEvery, long confirmIntervalMs) {
+        this.confirmEvery = confirmEvery;
+        this.confirmIntervalMs = confirmIntervalMs;
+        this.states = new ConcurrentHashMap<>();
+        this.confirmableSent = new LongAdder();
+        this.nonConfirmableSent = new LongAdder();
+        this.acknowledged = new LongAdder();
+        this.failed = new LongAdder();
+        this.outstanding = new AtomicInteger();
+        this.maxOutstanding = new AtomicInteger();
+        resource.addObserver(new ResourceObserverAdapter() {
+            @Override
+            public void removedObserveRelation(ObserveRelation relation) {
+                NotificationPolicy.this.states.remove(relation);
+            }
+        });
+    }
+
+    /**
+     * Sets the message type of a notification and tracks its delivery. To be called from the
+     * resource's checkObserveRelation() before the superclass implementation, as ObservableResource
+     * does; responses that are not notifications of an established relation are left untouched.
+     *
+     * @param exchange the exchange of the observe relation
+     * @param response the response about to be sent
+     */
+    public void apply(Exchange exchange, Response response) {
+        ObserveRelation relation = exchange.getRelation();
+        if (relation == null || !relation.isEstablished() || relation.isCanceled()
+                || response.getType() != null || !CoAP.ResponseCode.isSuccess(response.getCode())) {
+            return;
+        }
+        RelationState state = this.states.computeIfAbsent(relation, key -> new RelationState());
+        boolean confirm = state.next(this.confirmEvery, this.confirmIntervalMs, System.currentTimeMillis());
+        response.setType(confirm ? CoAP.Type.CON : CoAP.Type.NON);
+        // The observe layer may still turn a NON notification into a CON, so the type is read when sent
+        response.addMessageObserver(new DeliveryTracker(response));
+    }
+
+    public int getConfirmEvery() {
+        return this.confirmEvery;
+    }
+
+    public void setConfirmEvery(int confirmEvery) {
+        this.confirmEvery = confirmEvery;
+    }
+
+    public long getConfirmIntervalMs() {
+        return this.confirmIntervalMs;
+    }
+
+    public void setConfirmIntervalMs(long confirmIntervalMs) {
+        this.confirmIntervalMs = confirmIntervalMs;
+    }
+
+    public long getConfirmableSent() {
+        return this.confirmableSent.sum();
+    }
+
+    public long getNonConfirmableSent() {
+        return this.nonConfirmableSent.sum();
+    }
+
+    public long getAcknowledged() {
+        return this.acknowledged.sum();
+    }
+
+    /**
+     * Returns the number of confirmable notifications that timed out, were rejected or cancelled.
+     * @return the number of failed confirmable notifications
+     */
+    public long getFailed() {
+        return this.failed.sum();
+    }
+
+    /**
+     * Returns the number of confirmable notifications sent and not yet acknowledged.
+     * @return the number of outstanding confirmable notifications
+     */
+    public int getOutstanding() {
+        return this.outstanding.get();
+    }
+
+    /**
+     * Returns the highest number of confirmable notifications outstanding at the same time.
+     * @return the peak of outstanding confirmable notifications
+     */
+    public int getMaxOutstanding() {
+        return this.maxOutstanding.get();
+    }
+
+    /**
+     * Confirmation state of one observe relation.
+     */
+    private static final class RelationState {
+
+        // Notifications sent since the last confirmable one
+        private int sinceConfirmable;
+        // Time of the last confirmable message (the registration counts as one)
+        private long lastConfirmableMs = System.currentTimeMillis();
+
+        /**
+         * Counts a notification and tells whether it must be confirmable.
+         */
+        synchronized boolean next(int every, long intervalMs, long now) {
+            this.sinceConfirmable++;
+            if ((every > 0 && this.sinceConfirmable >= every) || (intervalMs > 0 && now - this.lastConfirmableMs >= intervalMs)) {
+                this.sinceConfirmable = 0;
+                this.lastConfirmableMs = now;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Follows one notification from its first transmission to its acknowledgement or failure.
+     */
+    private final class DeliveryTracker extends MessageObserverAdapter {
+
+        private final Response response;
+        // Set while the notification is a confirmable one waiting for its acknowledgement
+        private final AtomicBoolean pending = new AtomicBoolean();
+
+        DeliveryTracker(Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public void onSent(boolean retransmission) {
+            if (retransmission) {
+                return;
+            }
+            if (this.response.getType() == CoAP.Type.CON) {
+                confirmableSent.increment();
+                this.pending.set(true);
+                maxOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+            } else {
+                nonConfirmableSent.increment();
+            }
+        }
+
+        @Override
+        public void onAcknowledgement() {
+            if (this.pending.compareAndSet(true, false)) {
+                outstanding.decrementAndGet();
+                acknowledged.increment();
+            }
+        }
+
+        @Override
+        public void onCancel() {
+            failed(); // cancelled with its relation, or replaced by a newer notification while retransmitted
+        }
+
+        @Override
+        protected void failed() {
+            if (this.pending.compareAndSet(true, false)) {
+                outstanding.decrementAndGet();
+                NotificationPolicy.this.failed.increment();
+            }
+        }
+    }
+}
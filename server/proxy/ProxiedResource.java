@@ -0,0 +1,469 @@
+package it.unipr.iotlab.iot2024.cf.server.proxy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.OptionSet;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.observe.ObserveRelation;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.core.server.resources.Resource;
+import org.eclipse.californium.core.server.resources.ResourceObserverAdapter;
+
+import it.unipr.iotlab.iot2024.cf.server.codec.EntityTags;
+
+/**
+ * The ProxiedResource class stands in for a resource of an upstream server, e.g. /lagoon/ChlorineResource
+ * of a VillageProxy for coap://127.0.0.1:5683/ChlorineResource. Children are created on first use, so a
+ * single ProxiedResource per upstream server proxies all of its resources.
+ * <ul>
+ * <li>GET responses are cached for the Max-Age set by the upstream server, separately for every
+ * Accept option and URI query. A stale representation is revalidated with its ETag, and concurrent
+ * GETs for a representation that is not cached share a single upstream request.</li>
+ * <li>Downstream observers share one upstream observe relation per representation, opened with the
+ * first observer and cancelled with the last one. While it is open the cached representation is
+ * kept up to date by the upstream notifications, each fanned out to all the downstream observers.</li>
+ * <li>POST, PUT and DELETE are forwarded upstream and drop the cached representations.</li>
+ * </ul>
+ */
+public class ProxiedResource extends CoapResource {
+
+    // URI of the upstream resource
+    private final String upstreamUri;
+    // Counters shared by all the resources of the proxy
+    private final ProxyMetrics metrics;
+    // Client sending the upstream requests
+    private final CoapClient client;
+
+    // Cached representations, by representation key (see keyOf)
+    private final Map<String, CachedResponse> cache = new ConcurrentHashMap<>();
+    // Downstream GETs waiting for an upstream response, by representation key (guarded by this)
+    private final Map<String, List<CoapExchange>> waiting = new HashMap<>();
+    // Upstream observe relations, by representation key (guarded by this)
+    private final Map<String, CoapObserveRelation> relations = new HashMap<>();
+    // Number of downstream observers, by representation key (guarded by this)
+    private final Map<String, Integer> observers = new HashMap<>();
+
+    /**
+     * Constructor for ProxiedResource.
+     *
+     * @param name the name of the resource on the proxy
+     * @param upstreamUri the URI of the upstream resource
+     * @param metrics the counters of the proxy
+     */
+    public ProxiedResource(String name, String upstreamUri, ProxyMetrics metrics) {
+        super(name);
+        this.upstreamUri = upstreamUri;
+        this.metrics = metrics;
+        this.client = new CoapClient(upstreamUri);
+        setObservable(true);
+
+        // Open the upstream relation with the first observer of a representation and cancel it with the last one
+        addObserver(new ResourceObserverAdapter() {
+            @Override
+            public void addedObserveRelation(ObserveRelation relation) {
+                synchronized (ProxiedResource.this) {
+                    ProxiedResource.this.observers.merge(keyOf(relation.getExchange().getRequest().getOptions()), 1, Integer::sum);
+                }
+            }
+
+            @Override
+            public void removedObserveRelation(ObserveRelation relation) {
+                stopObserving(keyOf(relation.getExchange().getRequest().getOptions()));
+            }
+        });
+    }
+
+    /**
+     * Returns the child with the given name, creating a ProxiedResource for the upstream
+     * resource of the same name if there is none yet.
+     *
+     * @param name the name of the child
+     * @return the child resource
+     */
+    @Override
+    public synchronized Resource getChild(String name) {
+        Resource child = super.getChild(name);
+        if (child == null && !name.isEmpty()) {
+            child = new ProxiedResource(name, this.upstreamUri + "/" + name, this.metrics);
+            add(child);
+        }
+        return child;
+    }
+
+    /**
+     * Handles GET requests, serving the cached representation if it is fresh and getting it from the
+     * upstream server otherwise. Observe registrations start the upstream relation if needed.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handleGET(CoapExchange exchange) {
+        OptionSet options = exchange.getRequestOptions();
+        String key = keyOf(options);
+        boolean observe = options.hasObserve() && options.getObserve() == 0;
+        boolean fetch;
+        synchronized (this) {
+            if (observe) {
+                startObserving(key, options);
+            }
+            CachedResponse cached = this.cache.get(key);
+            if (cached != null && (cached.isFresh() || this.relations.containsKey(key))) {
+                // Notifications to established observers are counted as fan-out, not as hits
+                if (exchange.advanced().getRelation() == null || !exchange.advanced().getRelation().isEstablished()) {
+                    this.metrics.hit();
+                }
+                respond(exchange, cached);
+                return;
+            }
+            this.metrics.miss();
+            exchange.accept(); // Acknowledge the request, the response follows when the upstream server answers
+            // Wait for the upstream response, sending the request only for the first waiting GET
+            List<CoapExchange> pending = this.waiting.get(key);
+            if (pending != null) {
+                this.metrics.collapsed();
+                pending.add(exchange);
+                return;
+            }
+            pending = new ArrayList<>();
+            pending.add(exchange);
+            this.waiting.put(key, pending);
+            fetch = !this.relations.containsKey(key);
+        }
+        if (fetch) {
+            fetch(key, options);
+        }
+    }
+
+    @Override
+    public void handlePOST(CoapExchange exchange) {
+        forward(exchange, CoAP.Code.POST);
+    }
+
+    @Override
+    public void handlePUT(CoapExchange exchange) {
+        forward(exchange, CoAP.Code.PUT);
+    }
+
+    @Override
+    public void handleDELETE(CoapExchange exchange) {
+        forward(exchange, CoAP.Code.DELETE);
+    }
+
+    /**
+     * Cancels the upstream relations of this resource and of its children and stops their clients.
+     */
+    public void shutdown() {
+        for (Resource child : getChildren()) {
+            if (child instanceof ProxiedResource) {
+                ((ProxiedResource) child).shutdown();
+            }
+        }
+        synchronized (this) {
+            for (CoapObserveRelation relation : this.relations.values()) {
+                relation.proactiveCancel();
+                this.metrics.relationClosed();
+            }
+            this.relations.clear();
+        }
+        this.client.shutdown();
+    }
+
+    /**
+     * Sends a GET upstream for a representation, listing the ETag of the stale cached copy if any.
+     */
+    private void fetch(String key, OptionSet options) {
+        Request request = upstreamRequest(CoAP.Code.GET, options);
+        CachedResponse stale = this.cache.get(key);
+        if (stale != null && stale.etag != null) {
+            request.getOptions().addETag(stale.etag);
+        }
+        this.metrics.upstreamRequest();
+        this.client.advanced(new CoapHandler() {
+            @Override
+            public void onLoad(CoapResponse response) {
+                if (response.getCode() == CoAP.ResponseCode.VALID && stale != null) {
+                    ProxiedResource.this.metrics.revalidated();
+                    complete(key, store(key, stale.revalidated(response.advanced())));
+                } else if (response.getCode() == CoAP.ResponseCode.CONTENT) {
+                    complete(key, store(key, new CachedResponse(response.advanced())));
+                } else {
+                    completeUncached(key, response.advanced());
+                    if (response.getCode() == CoAP.ResponseCode.NOT_FOUND) {
+                        removeIfUnused();
+                    }
+                }
+            }
+
+            @Override
+            public void onError() {
+                ProxiedResource.this.metrics.upstreamError();
+                completeUncached(key, new Response(CoAP.ResponseCode.GATEWAY_TIMEOUT));
+            }
+        }, request);
+    }
+
+    /**
+     * Removes a resource created for a path the upstream server does not know, so that requests
+     * for arbitrary paths do not accumulate resources on the proxy.
+     */
+    private void removeIfUnused() {
+        Resource parent = getParent();
+        synchronized (this) {
+            if (!(parent instanceof ProxiedResource) || !getChildren().isEmpty() || !this.observers.isEmpty()
+                    || !this.relations.isEmpty() || !this.waiting.isEmpty()) {
+                return;
+            }
+        }
+        parent.delete(this);
+        this.client.shutdown();
+    }
+
+    /**
+     * Opens the upstream observe relation of a representation, unless it is already open.
+     * Called with the lock held.
+     */
+    private void startObserving(String key, OptionSet options) {
+        if (this.relations.containsKey(key)) {
+            return;
+        }
+        Request request = upstreamRequest(CoAP.Code.GET, options);
+        request.setObserve();
+        this.metrics.upstreamRequest();
+        this.metrics.relationOpened();
+        this.relations.put(key, this.client.observe(request, new CoapHandler() {
+            // Whether the registration response was received; later responses are notifications
+            private boolean registered;
+
+            @Override
+            public void onLoad(CoapResponse response) {
+                if (response.getCode() != CoAP.ResponseCode.CONTENT || !response.getOptions().hasObserve()) {
+                    // The upstream resource refused the relation or is not observable
+                    dropRelation(key);
+                    completeUncached(key, response.advanced());
+                    return;
+                }
+                CachedResponse previous = ProxiedResource.this.cache.get(key);
+                CachedResponse current = store(key, new CachedResponse(response.advanced()));
+                complete(key, current);
+                // Notifications are fanned out; so is the registration response if it differs from the
+                // representation the observers were served from the cache
+                if (this.registered || (previous != null && !Arrays.equals(previous.payload, current.payload))) {
+                    int count;
+                    synchronized (ProxiedResource.this) {
+                        count = ProxiedResource.this.observers.getOrDefault(key, 0);
+                    }
+                    ProxiedResource.this.metrics.upstreamNotification(count);
+                    // Fan the notification out to the downstream observers of this representation
+                    changed(relation -> key.equals(keyOf(relation.getExchange().getRequest().getOptions())));
+                }
+                this.registered = true;
+            }
+
+            @Override
+            public void onError() {
+                ProxiedResource.this.metrics.upstreamError();
+                dropRelation(key);
+                completeUncached(key, new Response(CoAP.ResponseCode.GATEWAY_TIMEOUT));
+            }
+        }));
+    }
+
+    /**
+     * Counts a downstream observer leaving, and cancels the upstream relation after the last one.
+     */
+    private synchronized void stopObserving(String key) {
+        int count = this.observers.getOrDefault(key, 0) - 1;
+        if (count > 0) {
+            this.observers.put(key, count);
+            return;
+        }
+        this.observers.remove(key);
+        CoapObserveRelation relation = this.relations.remove(key);
+        if (relation != null) {
+            relation.proactiveCancel();
+            this.metrics.relationClosed();
+        }
+    }
+
+    /**
+     * Forgets an upstream relation that was refused or failed.
+     */
+    private synchronized void dropRelation(String key) {
+        CoapObserveRelation relation = this.relations.remove(key);
+        if (relation != null) {
+            relation.reactiveCancel();
+            this.metrics.relationClosed();
+        }
+    }
+
+    /**
+     * Forwards an update upstream and relays the response, dropping the cached representations.
+     */
+    private void forward(CoapExchange exchange, CoAP.Code code) {
+        Request request = upstreamRequest(code, exchange.getRequestOptions());
+        request.setPayload(exchange.getRequestPayload());
+        if (exchange.getRequestOptions().hasContentFormat()) {
+            request.getOptions().setContentFormat(exchange.getRequestOptions().getContentFormat());
+        }
+        exchange.accept();
+        this.metrics.upstreamRequest();
+        this.client.advanced(new CoapHandler() {
+            @Override
+            public void onLoad(CoapResponse response) {
+                ProxiedResource.this.cache.clear();
+                exchange.respond(relay(response.advanced()));
+            }
+
+            @Override
+            public void onError() {
+                ProxiedResource.this.metrics.upstreamError();
+                exchange.respond(CoAP.ResponseCode.GATEWAY_TIMEOUT);
+            }
+        }, request);
+    }
+
+    /**
+     * Creates an upstream request for the upstream resource, with the Accept option and URI query
+     * of the downstream request.
+     */
+    private Request upstreamRequest(CoAP.Code code, OptionSet options) {
+        Request request = new Request(code);
+        String query = options.getUriQueryString();
+        request.setURI(query.isEmpty() ? this.upstreamUri : this.upstreamUri + "?" + query);
+        if (options.getAccept() != MediaTypeRegistry.UNDEFINED) {
+            request.getOptions().setAccept(options.getAccept());
+        }
+        return request;
+    }
+
+    private CachedResponse store(String key, CachedResponse response) {
+        this.cache.put(key, response);
+        return response;
+    }
+
+    /**
+     * Answers the downstream GETs waiting for a representation.
+     */
+    private void complete(String key, CachedResponse cached) {
+        List<CoapExchange> pending;
+        synchronized (this) {
+            pending = this.waiting.remove(key);
+        }
+        if (pending != null) {
+            for (CoapExchange exchange : pending) {
+                respond(exchange, cached);
+            }
+        }
+    }
+
+    /**
+     * Relays an upstream error, or a response that cannot be cached, to the waiting downstream GETs.
+     */
+    private void completeUncached(String key, Response upstream) {
+        List<CoapExchange> pending;
+        synchronized (this) {
+            pending = this.waiting.remove(key);
+        }
+        if (pending != null) {
+            for (CoapExchange exchange : pending) {
+                exchange.respond(relay(upstream));
+            }
+        }
+    }
+
+    /**
+     * Responds to a downstream GET from a cached representation, with 2.03 Valid if the client
+     * listed its ETag.
+     */
+    private static void respond(CoapExchange exchange, CachedResponse cached) {
+        Response response;
+        if (cached.etag != null && EntityTags.matches(exchange.getRequestOptions(), cached.etag)) {
+            response = new Response(CoAP.ResponseCode.VALID);
+        } else {
+            response = new Response(CoAP.ResponseCode.CONTENT);
+            response.setPayload(cached.payload);
+            response.getOptions().setContentFormat(cached.contentFormat);
+        }
+        if (cached.etag != null) {
+            response.getOptions().addETag(cached.etag);
+        }
+        response.getOptions().setMaxAge(cached.remainingMaxAge());
+        exchange.respond(response);
+    }
+
+    /**
+     * Copies an upstream response for a downstream client, without the options of the upstream exchange.
+     */
+    private static Response relay(Response upstream) {
+        Response response = new Response(upstream.getCode());
+        OptionSet options = new OptionSet(upstream.getOptions());
+        options.removeObserve();
+        options.removeBlock1();
+        options.removeBlock2();
+        response.setOptions(options);
+        response.setPayload(upstream.getPayload());
+        return response;
+    }
+
+    /**
+     * Key of a representation: the Accept option and the URI query of the request.
+     */
+    private static String keyOf(OptionSet options) {
+        return options.getAccept() + "?" + options.getUriQueryString();
+    }
+
+    /**
+     * A representation received from the upstream server, fresh until its Max-Age expires.
+     */
+    private static final class CachedResponse {
+
+        private final byte[] payload;
+        private final int contentFormat;
+        private final byte[] etag;
+        private final long maxAgeS;
+        private final long expiresAtNanos;
+
+        CachedResponse(Response response) {
+            this(response.getPayload(), response.getOptions().getContentFormat(),
+                    response.getOptions().getETagCount() > 0 ? response.getOptions().getETags().get(0) : null,
+                    response.getOptions().getMaxAge());
+        }
+
+        private CachedResponse(byte[] payload, int contentFormat, byte[] etag, long maxAgeS) {
+            this.payload = payload;
+            this.contentFormat = contentFormat;
+            this.etag = etag;
+            this.maxAgeS = maxAgeS;
+            this.expiresAtNanos = System.nanoTime() + maxAgeS * 1_000_000_000L;
+        }
+
+        /**
+         * Returns a copy fresh for the Max-Age of a 2.03 Valid response confirming this representation.
+         */
+        CachedResponse revalidated(Response valid) {
+            return new CachedResponse(this.payload, this.contentFormat, this.etag, valid.getOptions().getMaxAge());
+        }
+
+        boolean isFresh() {
+            return System.nanoTime() < this.expiresAtNanos;
+        }
+
+        long remainingMaxAge() {
+            long remaining = (this.expiresAtNanos - System.nanoTime()) / 1_000_000_000L;
+            return Math.max(0, Math.min(remaining, this.maxAgeS));
+        }
+    }
+}
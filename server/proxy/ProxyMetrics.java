@@ -0,0 +1,123 @@
+package it.unipr.iotlab.iot2024.cf.server.proxy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ProxyMetrics class collects the counters of a caching proxy, used to size it: how many
+ * GETs were served from the cache, how many went upstream, how many upstream observe relations
+ * are open and how many downstream notifications each upstream notification fanned out to.
+ */
+public class ProxyMetrics {
+
+    // GETs served from a fresh cached representation
+    private final AtomicLong hits = new AtomicLong();
+    // GETs that needed an upstream response
+    private final AtomicLong misses = new AtomicLong();
+    // GETs that joined an upstream request already in flight for the same representation
+    private final AtomicLong collapsed = new AtomicLong();
+    // Stale cached representations confirmed by the upstream server with 2.03 Valid
+    private final AtomicLong revalidated = new AtomicLong();
+    // Requests sent upstream (GETs and forwarded updates)
+    private final AtomicLong upstreamRequests = new AtomicLong();
+    // Requests that failed upstream (timeout or unreachable server)
+    private final AtomicLong upstreamErrors = new AtomicLong();
+    // Notifications received on the upstream observe relations
+    private final AtomicLong upstreamNotifications = new AtomicLong();
+    // Notifications sent to the downstream observers
+    private final AtomicLong downstreamNotifications = new AtomicLong();
+    // Upstream observe relations currently open
+    private final AtomicInteger upstreamRelations = new AtomicInteger();
+
+    void hit() {
+        this.hits.incrementAndGet();
+    }
+
+    void miss() {
+        this.misses.incrementAndGet();
+    }
+
+    void collapsed() {
+        this.collapsed.incrementAndGet();
+    }
+
+    void revalidated() {
+        this.revalidated.incrementAndGet();
+    }
+
+    void upstreamRequest() {
+        this.upstreamRequests.incrementAndGet();
+    }
+
+    void upstreamError() {
+        this.upstreamErrors.incrementAndGet();
+    }
+
+    void upstreamNotification(int downstreamObservers) {
+        this.upstreamNotifications.incrementAndGet();
+        this.downstreamNotifications.addAndGet(downstreamObservers);
+    }
+
+    void relationOpened() {
+        this.upstreamRelations.incrementAndGet();
+    }
+
+    void relationClosed() {
+        this.upstreamRelations.decrementAndGet();
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public long getCollapsed() {
+        return this.collapsed.get();
+    }
+
+    public long getRevalidated() {
+        return this.revalidated.get();
+    }
+
+    public long getUpstreamRequests() {
+        return this.upstreamRequests.get();
+    }
+
+    public long getUpstreamErrors() {
+        return this.upstreamErrors.get();
+    }
+
+    public long getUpstreamNotifications() {
+        return this.upstreamNotifications.get();
+    }
+
+    public long getDownstreamNotifications() {
+        return this.downstreamNotifications.get();
+    }
+
+    public int getUpstreamRelations() {
+        return this.upstreamRelations.get();
+    }
+
+    /**
+     * Returns the share of GETs served from the cache.
+     * @return hits / (hits + misses), or 0 before the first GET
+     */
+    public double getHitRatio() {
+        long hits = this.hits.get();
+        long total = hits + this.misses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns the average number of downstream notifications sent per upstream notification.
+     * @return the fan-out, or 0 before the first upstream notification
+     */
+    public double getFanOut() {
+        long upstream = this.upstreamNotifications.get();
+        return upstream == 0 ? 0 : (double) this.downstreamNotifications.get() / upstream;
+    }
+}
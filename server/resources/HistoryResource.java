@@ -0,0 +1,107 @@
+package it.unipr.iotlab.iot2024.cf.server.resources;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.codec.ValueCodec;
+import it.unipr.iotlab.iot2024.cf.server.store.SampleHistory;
+
+/**
+ * The HistoryResource class is a child of a sensor resource (e.g. /ImmersionTempResource/history)
+ * returning the samples recorded in its SampleHistory, so that a client joining late can backfill
+ * the trend with one request. The samples are filtered with optional URI queries:
+ * <ul>
+ * <li>since: time of the oldest sample, in milliseconds since the epoch (default: all samples)</li>
+ * <li>limit: maximum number of samples, the most recent ones being kept (default: DEFAULT_LIMIT)</li>
+ * <li>step: minimum time between two samples, in seconds, to downsample the series (default: 0)</li>
+ * </ul>
+ * e.g. GET /ChlorineResource/history?since=1718000000000&amp;limit=50&amp;step=60
+ */
+public class HistoryResource extends CoapResource {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(HistoryResource.class);
+    // Constants for resource metadata
+    private static final String OBJECT_TITLE = "HistoryResource"; // Title of the resource
+    private static final int DEFAULT_LIMIT = 100; // Number of samples returned when no limit is given
+
+    // Query parameter names
+    private static final String SINCE = "since";
+    private static final String LIMIT = "limit";
+    private static final String STEP = "step";
+
+    // Samples recorded by the sensor resource
+    private SampleHistory history;
+    // Name and SenML unit of the sampled value
+    private String valueName;
+    private String valueUnit;
+
+    /**
+     * Constructor for HistoryResource.
+     *
+     * @param name the name of the resource
+     * @param history the samples recorded by the parent resource
+     * @param valueName the name of the sampled value in SenML payloads
+     * @param valueUnit the SenML unit of the sampled value
+     */
+    public HistoryResource(String name, SampleHistory history, String valueName, String valueUnit) {
+        super(name);
+        this.history = history;
+        this.valueName = valueName;
+        this.valueUnit = valueUnit;
+        getAttributes().setTitle(OBJECT_TITLE);
+    }
+
+    /**
+     * Handles GET requests from clients, returning the selected samples oldest first, in the
+     * format requested by the Accept option (see ValueCodec.encodeSeries).
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handleGET(CoapExchange exchange) {
+        // Check that the requested format is one of the supported ones
+        int format = ValueCodec.formatIndex(exchange.getRequestOptions().getAccept());
+        if (format < 0) {
+            exchange.respond(CoAP.ResponseCode.NOT_ACCEPTABLE);
+            return;
+        }
+        long since = Long.MIN_VALUE;
+        long stepMs = 0;
+        int limit = DEFAULT_LIMIT;
+        try {
+            for (String query : exchange.getRequestOptions().getUriQuery()) {
+                int separator = query.indexOf('=');
+                if (separator < 0) {
+                    continue;
+                }
+                String name = query.substring(0, separator);
+                String value = query.substring(separator + 1);
+                if (SINCE.equals(name)) {
+                    since = Long.parseLong(value);
+                } else if (LIMIT.equals(name)) {
+                    limit = Integer.parseInt(value);
+                } else if (STEP.equals(name)) {
+                    stepMs = (long) (Double.parseDouble(value) * 1000);
+                }
+            }
+        } catch (NumberFormatException e) {
+            exchange.respond(CoAP.ResponseCode.BAD_REQUEST, "Invalid query " + e.getMessage());
+            return;
+        }
+        limit = Math.max(0, Math.min(limit, this.history.capacity()));
+        try {
+            long[] times = new long[limit];
+            double[] values = new double[limit];
+            int count = this.history.select(since, stepMs, limit, times, values);
+            byte[] payload = ValueCodec.encodeSeries(ValueCodec.CONTENT_FORMATS[format], this.valueName, this.valueUnit, times, values, count);
+            // Respond with the samples and set the content type
+            exchange.respond(CoAP.ResponseCode.CONTENT, payload, ValueCodec.CONTENT_FORMATS[format]);
+        } catch (Exception e) {
+            LOG.error("ERROR GET", e); // Log an error if something goes wrong
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
+        }
+    }
+}
@@ -1,106 +1,265 @@
-package it.unipr.iotlab.iot2024.cf.server.resources;
-
-import org.eclipse.californium.core.CoapResource;
-import org.eclipse.californium.core.coap.CoAP;
-import org.eclipse.californium.core.coap.MediaTypeRegistry;
-import org.eclipse.californium.core.server.resources.CoapExchange;
-
-import com.google.gson.Gson;
-
-import it.unipr.iotlab.iot2024.cf.server.sensors.ImmersionTempSensor;
-
-/**
- * This class provides functionality for handling
- * GET and POST requests, allowing clients to read or update the temperature.
- */
-public class ImmersionTempResource extends CoapResource {
-
-    // Constants for resource metadata
-    private static final String OBJECT_TITLE = "ImmersionTempResource"; // Title of the resource
-    private static final long UPDATE_TIME_MS = 10000; // Maximum time between updates (in milliseconds)
-
-    // Sensor object to handle immersion temperature
-    private ImmersionTempSensor immersionTempSensor;
-
-    // Gson object to format responses and parse requests in JSON
-    private Gson gson;
-
-    /**
-     * Constructor for ImmersionTempResource, initializing the resource with a name.
-     *
-     * @param name the name of the resource
-     */
-    public ImmersionTempResource(String name) {
-        super(name);
-        init();
-    }
-
-    /**
-     * Initializes the resource, setting up attributes, the immersion temperature sensor,
-     * and configuring observability and confirmation for client-server communication.
-     */
-    private void init() {
-        // Set the title attribute of the resource
-        getAttributes().setTitle(OBJECT_TITLE);
-
-        // Initialize Gson for JSON conversion and the immersion temperature sensor
-        this.gson = new Gson();
-        this.immersionTempSensor = new ImmersionTempSensor();
-        this.immersionTempSensor.setTemperature(17); // Set initial temperature to 17 degrees
-
-        // Make this resource observable by clients
-        setObservable(true);
-
-        // Set the observation type to CON, meaning the server will confirm each notification
-        setObserveType(CoAP.Type.CON);
-    }
-
-    /**
-     * Handles GET requests from clients, returning the current temperature as a JSON response.
-     * The response also includes a max-age to indicate how long the response is valid.
-     *
-     * @param exchange the CoAP exchange object representing the request-response interaction
-     */
-    @Override
-    public void handleGET(CoapExchange exchange) {
-        exchange.accept(); // Acknowledge the request
-        // Set the maximum age of the response in seconds
-        exchange.setMaxAge(UPDATE_TIME_MS / 1000);
-        try {
-            // Convert the immersion temperature sensor data to JSON format
-            String responseBody = this.gson.toJson(this.immersionTempSensor);
-            // Respond with the temperature data in JSON format and set the content type
-            exchange.respond(CoAP.ResponseCode.CONTENT, responseBody, MediaTypeRegistry.APPLICATION_JSON);
-        } catch (Exception e) {
-            System.out.println("ERROR GET"); // Log an error if something goes wrong
-            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
-        }
-    }
-
-    /**
-     * Handles POST requests, allowing clients to update the immersion temperature.
-     * The request body is expected to contain the new temperature in JSON format.
-     * After successfully updating, a CHANGED response is sent, and observers are notified.
-     *
-     * @param exchange the CoAP exchange object representing the request-response interaction
-     */
-    @Override
-    public void handlePOST(CoapExchange exchange) {
-        try {
-            // Get the payload from the POST request
-            String payload = new String(exchange.getRequestPayload());
-            // Parse the payload JSON into an ImmersionTempSensor object
-            ImmersionTempSensor tmp = this.gson.fromJson(payload, ImmersionTempSensor.class);
-            // Update the sensor's temperature with the new value
-            this.immersionTempSensor.setTemperature(tmp.getTemperature());
-            // Respond with a CHANGED status indicating the resource was updated
-            exchange.respond(CoAP.ResponseCode.CHANGED);
-            // Notify all clients observing this resource that the state has changed
-            changed();
-        } catch (Exception e) {
-            System.out.println("ERROR POST"); // Log an error if something goes wrong
-            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
-        }
-    }
-}
-
+package it.unipr.iotlab.iot2024.cf.server.resources;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.codec.EntityTags;
+import it.unipr.iotlab.iot2024.cf.server.codec.ValueCodec;
+import it.unipr.iotlab.iot2024.cf.server.observe.ConditionalNotifier;
+import it.unipr.iotlab.iot2024.cf.server.sensors.ImmersionTempSensor;
+import it.unipr.iotlab.iot2024.cf.server.store.SampleHistory;
+import it.unipr.iotlab.iot2024.cf.server.store.StateLog;
+
+/**
+ * This class provides functionality for handling
+ * GET and POST requests, allowing clients to read or update the temperature.
+ */
+public class ImmersionTempResource extends ObservableResource {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(ImmersionTempResource.class);
+    // Constants for resource metadata
+    private static final String OBJECT_TITLE = "ImmersionTempResource"; // Title of the resource
+    private static final long UPDATE_TIME_MS = 10000; // Maximum time between updates (in milliseconds)
+    private static final String VALUE_NAME = "temperature"; // Name of the value in JSON, CBOR and SenML payloads
+    private static final String VALUE_UNIT = "Cel"; // SenML unit of the value
+
+    // Sensor object to handle immersion temperature
+    private ImmersionTempSensor immersionTempSensor;
+
+    // Encodings of the current sensor value, one per entry of ValueCodec.CONTENT_FORMATS,
+    // rebuilt only when a POST changes the value
+    private volatile byte[][] encodedPayloads;
+    // Version of the cached payloads, increased every time they are rebuilt and published as their ETag
+    private volatile long version;
+
+    // Most recent samples of the sensor, served by the history child resource
+    private SampleHistory history;
+
+    // Journal recording every accepted value (null if the state is not persisted)
+    private StateLog.Journal journal;
+
+    // Notifier applying the pmin/pmax/st attributes requested by each observer
+    private ConditionalNotifier notifier;
+
+    // Ramp moving the value towards a target requested by a client
+    private SetpointRamp ramp;
+
+    /**
+     * Constructor for ImmersionTempResource, initializing the resource with a name.
+     *
+     * @param name the name of the resource
+     */
+    public ImmersionTempResource(String name) {
+        super(name);
+        init();
+    }
+
+    /**
+     * Initializes the resource, setting up attributes, the immersion temperature sensor,
+     * and configuring observability and confirmation for client-server communication.
+     */
+    private void init() {
+        // Set the title attribute of the resource
+        getAttributes().setTitle(OBJECT_TITLE);
+
+        // Initialize the immersion temperature sensor
+        this.immersionTempSensor = new ImmersionTempSensor();
+        this.immersionTempSensor.setTemperature(17); // Set initial temperature to 17 degrees
+        this.encodedPayloads = encode();
+
+        // Record the samples in a ring buffer published as the history child resource
+        this.history = new SampleHistory();
+        this.history.record(System.currentTimeMillis(), this.immersionTempSensor.getTemperature());
+        add(new HistoryResource("history", this.history, VALUE_NAME, VALUE_UNIT));
+
+        // Make this resource observable by clients, honouring their pmin/pmax/st query attributes
+        setObservable(true);
+        this.notifier = new ConditionalNotifier(this, this.immersionTempSensor::getTemperature);
+
+        // Run the ramps requested with the target and rate query parameters on the server
+        this.ramp = new SetpointRamp(this, this.immersionTempSensor::getTemperature, this::rampStep);
+    }
+
+    /**
+     * Handles GET requests from clients, returning the current temperature in the format requested by the
+     * Accept option (JSON by default, or CBOR, SenML JSON and SenML CBOR).
+     * The response also includes a max-age to indicate how long the response is valid, and an ETag;
+     * a request listing the ETag of the current representation is answered with VALID and no payload.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handleGET(CoapExchange exchange) {
+        // Check that the requested format is one of the supported ones
+        int accept = exchange.getRequestOptions().getAccept();
+        int format = ValueCodec.formatIndex(accept);
+        if (format < 0) {
+            exchange.respond(CoAP.ResponseCode.NOT_ACCEPTABLE);
+            return;
+        }
+        exchange.accept(); // Acknowledge the request
+        // Set the maximum age of the response in seconds
+        exchange.setMaxAge(UPDATE_TIME_MS / 1000);
+        try {
+            // Tag the representation with the version read before the payload, so that a concurrent
+            // update can only make the tag older than the payload, and answer 2.03 if the client has it
+            byte[] etag = EntityTags.of(this.version, format);
+            exchange.setETag(etag);
+            if (EntityTags.matches(exchange.getRequestOptions(), etag)) {
+                exchange.respond(CoAP.ResponseCode.VALID);
+                return;
+            }
+            // Respond with the cached encoding of the temperature and set the content type
+            exchange.respond(CoAP.ResponseCode.CONTENT, this.encodedPayloads[format], ValueCodec.CONTENT_FORMATS[format]);
+        } catch (Exception e) {
+            LOG.error("ERROR GET", e); // Log an error if something goes wrong
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
+        }
+    }
+
+    /**
+     * Handles POST requests, allowing clients to update the immersion temperature.
+     * The request body is expected to contain the new temperature in JSON format, or in the
+     * CBOR or SenML format declared by the Content-Format option.
+     * After successfully updating, a CHANGED response is sent, and observers are notified
+     * according to the conditional attributes (pmin, pmax, st) they registered with.
+     * <p>
+     * A POST with the target and rate query parameters and no payload, e.g. ?target=25&amp;rate=2,
+     * instead starts a ramp of the value towards the target, run by the server (see SetpointRamp).
+     * A POST of a value cancels the running ramp.
+     * A malformed payload, or one without the value, is answered with BAD_REQUEST.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handlePOST(CoapExchange exchange) {
+        // Start a ramp if the client asked for one instead of sending a value
+        String target = exchange.getQueryParameter(SetpointRamp.TARGET);
+        if (target != null) {
+            startRamp(exchange, target, exchange.getQueryParameter(SetpointRamp.RATE));
+            return;
+        }
+        // Reject payloads in a format the resource does not understand
+        int contentFormat = exchange.getRequestOptions().getContentFormat();
+        if (ValueCodec.formatIndex(contentFormat) < 0) {
+            exchange.respond(CoAP.ResponseCode.UNSUPPORTED_CONTENT_FORMAT);
+            return;
+        }
+        try {
+            // Decode the new value from the POST request payload
+            double value = ValueCodec.decode(contentFormat, exchange.getRequestPayload(), VALUE_NAME);
+            // A value set by the client overrides the running ramp
+            this.ramp.cancel();
+            // Update the sensor's temperature with the new value
+            updateValue(value);
+            // Respond with a CHANGED status indicating the resource was updated
+            exchange.respond(CoAP.ResponseCode.CHANGED);
+            // Notify the clients observing this resource whose notification conditions are met
+            this.notifier.changed();
+        } catch (IllegalArgumentException e) {
+            // The payload is malformed or does not carry the value: the request is at fault
+            exchange.respond(CoAP.ResponseCode.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            LOG.error("ERROR POST", e); // Log an error if something goes wrong
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
+        }
+    }
+
+    /**
+     * Starts a ramp of the temperature towards the target, answering CHANGED, or BAD_REQUEST
+     * if the target or the rate is missing or not a number, or the rate is not positive.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     * @param target the target query parameter
+     * @param rate the rate query parameter, in units per second (null if missing)
+     */
+    private void startRamp(CoapExchange exchange, String target, String rate) {
+        try {
+            this.ramp.start(Double.parseDouble(target), rate != null ? Double.parseDouble(rate) : Double.NaN);
+        } catch (IllegalArgumentException e) {
+            exchange.respond(CoAP.ResponseCode.BAD_REQUEST, "Expected numeric " + SetpointRamp.TARGET + " and positive " + SetpointRamp.RATE);
+            return;
+        }
+        exchange.respond(CoAP.ResponseCode.CHANGED);
+    }
+
+    /**
+     * Applies a step of the running ramp, as a POST of the value would.
+     *
+     * @param value the intermediate value
+     */
+    private void rampStep(double value) {
+        updateValue(value);
+        this.notifier.changed();
+    }
+
+    /**
+     * Records the new sample, updates the sensor value and appends it to the state log, if any.
+     *
+     * @param value the new temperature
+     */
+    private synchronized void updateValue(double value) {
+        this.history.record(System.currentTimeMillis(), value);
+        applyValue(value);
+        if (this.journal != null) {
+            this.journal.append(ByteBuffer.allocate(Double.BYTES).putDouble(value).array());
+        }
+    }
+
+    /**
+     * Updates the sensor value and re-encodes the cached payload if the value changed,
+     * so that GETs and notifications keep serving the same bytes until the next update.
+     *
+     * @param value the new temperature
+     */
+    private synchronized void applyValue(double value) {
+        if (Double.compare(this.immersionTempSensor.getTemperature(), value) != 0) {
+            this.immersionTempSensor.setTemperature(value);
+            this.encodedPayloads = encode();
+            this.version++;
+        }
+    }
+
+    /**
+     * Serializes the current sensor value in every supported content format.
+     * @return the payloads, indexed like ValueCodec.CONTENT_FORMATS
+     */
+    private byte[][] encode() {
+        byte[][] payloads = new byte[ValueCodec.CONTENT_FORMATS.length][];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = ValueCodec.encode(ValueCodec.CONTENT_FORMATS[i], VALUE_NAME, VALUE_UNIT, this.immersionTempSensor.getTemperature());
+        }
+        return payloads;
+    }
+
+    /**
+     * Persists the temperature in the state log of the server: every accepted POST is appended
+     * to the log, and the last value is restored when the log is recovered. The resource must
+     * already be added to the server, since its URI is the key of its log entries.
+     *
+     * @param log the state log of the server, not yet recovered
+     */
+    public void persistTo(StateLog log) {
+        this.journal = log.register(getURI(), new StateLog.Participant() {
+            @Override
+            public byte[] snapshot() {
+                return ByteBuffer.allocate(Double.BYTES).putDouble(immersionTempSensor.getTemperature()).array();
+            }
+
+            @Override
+            public void restore(ByteBuffer snapshot) {
+                applyValue(snapshot.getDouble());
+            }
+
+            @Override
+            public void replay(ByteBuffer entry) {
+                applyValue(entry.getDouble());
+            }
+        });
+    }
+}
+
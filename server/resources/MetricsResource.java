@@ -0,0 +1,156 @@
+package it.unipr.iotlab.iot2024.cf.server.resources;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.core.server.resources.Resource;
+
+import com.google.gson.JsonObject;
+
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.metrics.LatencyHistogram;
+import it.unipr.iotlab.iot2024.cf.server.metrics.RequestMetrics;
+import it.unipr.iotlab.iot2024.cf.server.metrics.ResourceMetrics;
+import it.unipr.iotlab.iot2024.cf.server.metrics.ServerMetrics;
+
+/**
+ * The MetricsResource class is an observable CoAP resource reporting the metrics of its server
+ * as a JSON object, by resource URI and request method, e.g.
+ * {"/PresenceResource":{"observers":1,"notifications":12,"POST":{"requests":40,"clientErrors":2,
+ * "serverErrors":0,"latencyUs":{"p50":180.0,"p99":950.0,"p999":1400.0,"max":1400.0,"mean":230.5}}}}.
+ * Observers are notified of the current metrics at a fixed interval.
+ */
+public class MetricsResource extends CoapResource {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(MetricsResource.class);
+    // Constants for resource metadata
+    private static final String OBJECT_TITLE = "MetricsResource"; // Title of the resource
+    // Default time between two notifications (in milliseconds)
+    public static final long DEFAULT_REFRESH_MS = 5000;
+    // Percentiles of the latency reported for every method
+    private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+    private static final String[] QUANTILE_NAMES = { "p50", "p99", "p999" };
+
+    // Scheduler shared by all metrics resources for the periodic notifications
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Metrics");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Metrics of the server
+    private ServerMetrics metrics;
+    // Periodic notification task
+    private ScheduledFuture<?> refreshTask;
+
+    /**
+     * Constructor for MetricsResource, notifying its observers every DEFAULT_REFRESH_MS.
+     *
+     * @param name the name of the resource
+     * @param metrics the metrics of the server
+     */
+    public MetricsResource(String name, ServerMetrics metrics) {
+        this(name, metrics, DEFAULT_REFRESH_MS);
+    }
+
+    /**
+     * Constructor for MetricsResource.
+     *
+     * @param name the name of the resource
+     * @param metrics the metrics of the server
+     * @param refreshMs the time between two notifications, in milliseconds
+     */
+    public MetricsResource(String name, ServerMetrics metrics, long refreshMs) {
+        super(name);
+        this.metrics = metrics;
+        getAttributes().setTitle(OBJECT_TITLE);
+        getAttributes().addContentType(MediaTypeRegistry.APPLICATION_JSON);
+
+        // Make this resource observable by clients, with non-confirmable notifications
+        setObservable(true);
+        setObserveType(CoAP.Type.NON);
+        this.refreshTask = SCHEDULER.scheduleAtFixedRate(() -> {
+            if (getObserverCount() > 0) {
+                changed();
+            }
+        }, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Handles GET requests from clients, returning the metrics of the server as a JSON object.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handleGET(CoapExchange exchange) {
+        try {
+            JsonObject responseBody = new JsonObject();
+            List<ResourceMetrics> resources = this.metrics.getResourceMetrics();
+            resources.sort(Comparator.comparing(resourceMetrics -> resourceMetrics.getResource().getURI()));
+            for (ResourceMetrics resourceMetrics : resources) {
+                responseBody.add(resourceMetrics.getResource().getURI(), toJson(resourceMetrics));
+            }
+            // Respond with the metrics in JSON format and set the content type
+            exchange.respond(CoAP.ResponseCode.CONTENT, responseBody.toString(), MediaTypeRegistry.APPLICATION_JSON);
+        } catch (Exception e) {
+            LOG.error("ERROR GET", e); // Log an error if something goes wrong
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
+        }
+    }
+
+    /**
+     * Stops the periodic notifications, e.g. when the server is destroyed.
+     */
+    public void stop() {
+        this.refreshTask.cancel(false);
+    }
+
+    /**
+     * Encodes the metrics of a resource: its observers, its notifications and the metrics of each method.
+     */
+    private static JsonObject toJson(ResourceMetrics resourceMetrics) {
+        JsonObject json = new JsonObject();
+        Resource resource = resourceMetrics.getResource();
+        if (resource instanceof CoapResource) {
+            json.addProperty("observers", ((CoapResource) resource).getObserverCount());
+        }
+        json.addProperty("notifications", resourceMetrics.getNotifications());
+        for (CoAP.Code method : CoAP.Code.values()) {
+            RequestMetrics requestMetrics = resourceMetrics.getRequestMetrics(method);
+            if (requestMetrics == null) {
+                continue;
+            }
+            JsonObject methodJson = new JsonObject();
+            methodJson.addProperty("requests", requestMetrics.getRequests());
+            methodJson.addProperty("clientErrors", requestMetrics.getClientErrors());
+            methodJson.addProperty("serverErrors", requestMetrics.getServerErrors());
+            LatencyHistogram latency = requestMetrics.getLatency();
+            JsonObject latencyJson = new JsonObject();
+            long[] percentiles = latency.getPercentiles(QUANTILES);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                latencyJson.addProperty(QUANTILE_NAMES[i], toMicros(percentiles[i]));
+            }
+            latencyJson.addProperty("max", toMicros(latency.getMax()));
+            latencyJson.addProperty("mean", toMicros(latency.getMean()));
+            methodJson.add("latencyUs", latencyJson);
+            json.add(method.name(), methodJson);
+        }
+        return json;
+    }
+
+    /**
+     * Converts nanoseconds to microseconds, rounded to one decimal.
+     */
+    private static double toMicros(double nanos) {
+        return Math.round(nanos / 100) / 10.0;
+    }
+}
@@ -0,0 +1,69 @@
+package it.unipr.iotlab.iot2024.cf.server.resources;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+
+import com.google.gson.JsonObject;
+
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.observe.NotificationPolicy;
+
+/**
+ * The NotificationStatsResource class is a child of an observable resource (e.g. /PresenceResource/notifications)
+ * reporting how its notifications were sent: how many went out as CON and NON, how many confirmable
+ * ones were acknowledged or failed, and how many are still waiting for an acknowledgement.
+ */
+public class NotificationStatsResource extends CoapResource {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(NotificationStatsResource.class);
+    // Constants for resource metadata
+    private static final String OBJECT_TITLE = "NotificationStatsResource"; // Title of the resource
+
+    // Observable resource whose statistics are reported
+    private CoapResource observed;
+    // Policy typing the notifications of the observed resource and collecting the statistics
+    private NotificationPolicy policy;
+
+    /**
+     * Constructor for NotificationStatsResource.
+     *
+     * @param name the name of the resource
+     * @param observed the observable resource whose notifications are reported
+     * @param policy the notification policy of the observed resource
+     */
+    public NotificationStatsResource(String name, CoapResource observed, NotificationPolicy policy) {
+        super(name);
+        this.observed = observed;
+        this.policy = policy;
+        getAttributes().setTitle(OBJECT_TITLE);
+    }
+
+    /**
+     * Handles GET requests from clients, returning the notification statistics as a JSON object.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handleGET(CoapExchange exchange) {
+        try {
+            JsonObject responseBody = new JsonObject();
+            responseBody.addProperty("observers", this.observed.getObserverCount());
+            responseBody.addProperty("confirmEvery", this.policy.getConfirmEvery());
+            responseBody.addProperty("confirmIntervalMs", this.policy.getConfirmIntervalMs());
+            responseBody.addProperty("confirmable", this.policy.getConfirmableSent());
+            responseBody.addProperty("nonConfirmable", this.policy.getNonConfirmableSent());
+            responseBody.addProperty("acknowledged", this.policy.getAcknowledged());
+            responseBody.addProperty("failed", this.policy.getFailed());
+            responseBody.addProperty("outstanding", this.policy.getOutstanding());
+            responseBody.addProperty("maxOutstanding", this.policy.getMaxOutstanding());
+            // Respond with the statistics in JSON format and set the content type
+            exchange.respond(CoAP.ResponseCode.CONTENT, responseBody.toString(), MediaTypeRegistry.APPLICATION_JSON);
+        } catch (Exception e) {
+            LOG.error("ERROR GET", e); // Log an error if something goes wrong
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
+        }
+    }
+}
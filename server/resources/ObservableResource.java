@@ -0,0 +1,54 @@
+package it.unipr.iotlab.iot2024.cf.server.resources;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Exchange;
+
+import it.unipr.iotlab.iot2024.cf.server.observe.NotificationPolicy;
+
+/**
+ * The ObservableResource class is the base of the observable village resources. Their
+ * notifications are sent as NON, with a CON every few notifications to check that the observer
+ * is still alive, as chosen by a NotificationPolicy; the statistics of the policy are published
+ * as the "notifications" child resource. Subclasses make themselves observable and call changed()
+ * as usual.
+ */
+public abstract class ObservableResource extends CoapResource {
+
+    // Policy choosing CON or NON for each notification
+    private final NotificationPolicy notificationPolicy;
+
+    /**
+     * Constructor for ObservableResource, installing the notification policy.
+     *
+     * @param name the name of the resource
+     */
+    protected ObservableResource(String name) {
+        super(name);
+        this.notificationPolicy = new NotificationPolicy(this);
+        setObserveType(CoAP.Type.NON);
+        add(new NotificationStatsResource("notifications", this, this.notificationPolicy));
+    }
+
+    /**
+     * Returns the policy choosing the message type of the notifications, e.g. to change how
+     * often they are confirmable.
+     * @return the notification policy of the resource
+     */
+    public NotificationPolicy getNotificationPolicy() {
+        return this.notificationPolicy;
+    }
+
+    /**
+     * Lets the notification policy choose CON or NON before the observe relation is checked.
+     *
+     * @param exchange the exchange of the response
+     * @param response the response about to be sent
+     */
+    @Override
+    public void checkObserveRelation(Exchange exchange, Response response) {
+        this.notificationPolicy.apply(exchange, response);
+        super.checkObserveRelation(exchange, response);
+    }
+}
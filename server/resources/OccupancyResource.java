@@ -0,0 +1,95 @@
+package it.unipr.iotlab.iot2024.cf.server.resources;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.core.server.resources.Resource;
+
+import com.google.gson.JsonObject;
+
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.store.OccupancyCounter;
+
+/**
+ * The OccupancyResource class is an observable CoAP resource publishing the number of people
+ * currently inside the village. It reads the OccupancyCounter of the village fed by both turnstiles,
+ * so observers receive the joined value instead of subtracting two streams. The resource listens
+ * to the counter only while it is part of a resource tree.
+ */
+public class OccupancyResource extends ObservableResource {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(OccupancyResource.class);
+    // Constants for resource metadata
+    private static final String OBJECT_TITLE = "OccupancyResource"; // Title of the resource
+    private static final long UPDATE_TIME_MS = 10000; // Maximum time between updates (in milliseconds)
+
+    // Counter holding the number of entries and exits
+    private OccupancyCounter occupancy;
+    // Callback notifying the observers when the counter changes
+    private final Runnable listener = this::changed;
+
+    /**
+     * Constructor for OccupancyResource, initializing the resource with a name and the counter to publish.
+     *
+     * @param name the name of the resource
+     * @param occupancy the occupancy counter of the village
+     */
+    public OccupancyResource(String name, OccupancyCounter occupancy) {
+        super(name);
+        this.occupancy = occupancy;
+        init();
+    }
+
+    /**
+     * Initializes the resource, setting up attributes, and configuring observability
+     * and confirmation for client-server communication.
+     */
+    private void init() {
+        // Set the title attribute of the resource
+        getAttributes().setTitle(OBJECT_TITLE);
+
+        // Make this resource observable by clients
+        setObservable(true);
+    }
+
+    /**
+     * Sets the parent of the resource, subscribing to the counter when the resource is added
+     * and unsubscribing when it is deleted, so a removed resource is not kept by the counter.
+     *
+     * @param parent the new parent, or null if the resource was removed
+     */
+    @Override
+    public void setParent(Resource parent) {
+        super.setParent(parent);
+        // Notify the observers every time a turnstile updates the counter
+        this.occupancy.removeListener(this.listener);
+        if (parent != null) {
+            this.occupancy.addListener(this.listener);
+        }
+    }
+
+    /**
+     * Handles GET requests from clients, returning the number of people inside together with
+     * the total entries and exits as a JSON object.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handleGET(CoapExchange exchange) {
+        exchange.accept(); // Acknowledge the request
+        // Set the maximum age of the response in seconds
+        exchange.setMaxAge(UPDATE_TIME_MS / 1000);
+        try {
+            JsonObject responseBody = new JsonObject();
+            responseBody.addProperty("inside", this.occupancy.getInside());
+            responseBody.addProperty("entries", this.occupancy.getEntries());
+            responseBody.addProperty("exits", this.occupancy.getExits());
+            // Respond with the occupancy in JSON format and set the content type
+            exchange.respond(CoAP.ResponseCode.CONTENT, responseBody.toString(), MediaTypeRegistry.APPLICATION_JSON);
+        } catch (Exception e) {
+            LOG.error("ERROR GET", e); // Log an error if something goes wrong
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
+        }
+    }
+}
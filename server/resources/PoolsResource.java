@@ -0,0 +1,194 @@
+package it.unipr.iotlab.iot2024.cf.server.resources;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.core.server.resources.Resource;
+
+import com.google.gson.JsonArray;
+
+import it.unipr.iotlab.iot2024.cf.log.Level;
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.store.StateLog;
+
+/**
+ * The PoolsResource class is the root of the pool subtrees of a PoolHost (/pool). Every pool is a
+ * child resource named after its identifier, holding its own ImmersionTempResource and
+ * ChlorineResource (/pool/{id}/ImmersionTempResource, /pool/{id}/ChlorineResource).
+ * Pools are created from the host configuration or at runtime, through addPool() or a POST
+ * carrying the identifier of the new pool; a GET returns the identifiers of the hosted pools.
+ */
+public class PoolsResource extends CoapResource {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(PoolsResource.class);
+
+    // Constants for resource metadata
+    private static final String OBJECT_TITLE = "PoolsResource"; // Title of the resource
+    private static final String TEMPERATURE_RESOURCE = "ImmersionTempResource"; // Name of the temperature resource of a pool
+    private static final String CHLORINE_RESOURCE = "ChlorineResource"; // Name of the chlorine resource of a pool
+    private static final Pattern POOL_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}"); // Valid pool identifiers
+
+    // State log of the host (null if the state is not persisted)
+    private StateLog stateLog;
+    // Journal recording the pools created at runtime
+    private StateLog.Journal journal;
+
+    /**
+     * Constructor for PoolsResource, initializing the resource with a name.
+     *
+     * @param name the name of the resource
+     */
+    public PoolsResource(String name) {
+        super(name);
+        getAttributes().setTitle(OBJECT_TITLE);
+    }
+
+    /**
+     * Creates a pool with its sensor resources, recording it in the state log if the host has one.
+     *
+     * @param id the identifier of the pool, made of letters, digits, '-' and '_'
+     * @return true if the pool was created, false if a pool with the same identifier already exists
+     * @throws IllegalArgumentException if the identifier is not valid
+     */
+    public synchronized boolean addPool(String id) {
+        if (!POOL_ID.matcher(id).matches()) {
+            throw new IllegalArgumentException("Invalid pool identifier: " + id);
+        }
+        if (!createPool(id)) {
+            return false;
+        }
+        if (this.journal != null) {
+            this.journal.append(id.getBytes(StandardCharsets.UTF_8));
+        }
+        return true;
+    }
+
+    /**
+     * Returns the identifiers of the hosted pools.
+     * @return the pool identifiers, in alphabetical order
+     */
+    public List<String> getPoolIds() {
+        List<String> ids = new ArrayList<>();
+        for (Resource pool : getChildren()) {
+            ids.add(pool.getName());
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    /**
+     * Persists the pools and the values of their sensors in the state log of the host. Pools created
+     * at runtime are logged and created again when the log is recovered, before their sensor values
+     * are restored. The resource must already be added to the server.
+     *
+     * @param log the state log of the host, not yet recovered
+     */
+    public synchronized void persistTo(StateLog log) {
+        this.stateLog = log;
+        this.journal = log.register(getURI(), new StateLog.Participant() {
+            @Override
+            public byte[] snapshot() {
+                return String.join("\n", getPoolIds()).getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public void restore(ByteBuffer snapshot) {
+                replay(snapshot);
+            }
+
+            @Override
+            public void replay(ByteBuffer entry) {
+                String ids = StandardCharsets.UTF_8.decode(entry).toString();
+                for (String id : ids.split("\n")) {
+                    if (!id.isEmpty()) {
+                        createPool(id);
+                    }
+                }
+            }
+        });
+        for (Resource pool : getChildren()) {
+            persistPool(pool);
+        }
+    }
+
+    /**
+     * Handles GET requests from clients, returning the identifiers of the hosted pools as a JSON array.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handleGET(CoapExchange exchange) {
+        try {
+            JsonArray responseBody = new JsonArray();
+            for (String id : getPoolIds()) {
+                responseBody.add(id);
+            }
+            // Respond with the pool identifiers in JSON format and set the content type
+            exchange.respond(CoAP.ResponseCode.CONTENT, responseBody.toString(), MediaTypeRegistry.APPLICATION_JSON);
+        } catch (Exception e) {
+            LOG.error("ERROR GET", e); // Log an error if something goes wrong
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
+        }
+    }
+
+    /**
+     * Handles POST requests, creating the pool whose identifier is given as plain text in the payload.
+     * The response is CREATED with the path of the new pool, CONFLICT if the pool already exists
+     * or BAD_REQUEST if the identifier is not valid.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handlePOST(CoapExchange exchange) {
+        String id = exchange.getRequestText().trim();
+        if (!POOL_ID.matcher(id).matches()) {
+            exchange.respond(CoAP.ResponseCode.BAD_REQUEST, "Invalid pool identifier");
+            return;
+        }
+        try {
+            if (!addPool(id)) {
+                exchange.respond(CoAP.ResponseCode.CONFLICT);
+                return;
+            }
+            LOG.log(Level.INFO, "Created pool: {}", id);
+            exchange.setLocationPath(getURI() + "/" + id);
+            exchange.respond(CoAP.ResponseCode.CREATED);
+        } catch (Exception e) {
+            LOG.error("ERROR POST", e); // Log an error if something goes wrong
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
+        }
+    }
+
+    /**
+     * Creates the subtree of a pool without logging it.
+     */
+    private synchronized boolean createPool(String id) {
+        if (getChild(id) != null) {
+            return false;
+        }
+        CoapResource pool = new CoapResource(id);
+        pool.add(new ImmersionTempResource(TEMPERATURE_RESOURCE));
+        pool.add(new ChlorineResource(CHLORINE_RESOURCE));
+        add(pool);
+        if (this.stateLog != null) {
+            persistPool(pool);
+        }
+        return true;
+    }
+
+    /**
+     * Registers the sensor resources of a pool in the state log.
+     */
+    private void persistPool(Resource pool) {
+        ((ImmersionTempResource) pool.getChild(TEMPERATURE_RESOURCE)).persistTo(this.stateLog);
+        ((ChlorineResource) pool.getChild(CHLORINE_RESOURCE)).persistTo(this.stateLog);
+    }
+}
@@ -1,104 +1,338 @@
-package it.unipr.iotlab.iot2024.cf.server.resources;
-
-import java.util.ArrayList;
-import java.util.List;
-
-import org.eclipse.californium.core.CoapResource;
-import org.eclipse.californium.core.coap.CoAP;
-import org.eclipse.californium.core.coap.MediaTypeRegistry;
-import org.eclipse.californium.core.server.resources.CoapExchange;
-
-import com.google.gson.Gson;
-
-/**
- * The PresenceResource class represents a CoAP resource that tracks the presence of people entering a pool. 
- * It allows clients to retrieve the current count of people inside via GET requests, or
- * to add new entries via POST requests.
- */
-public class PresenceResource extends CoapResource {
-
-    // Constants for resource metadata
-    private static final String OBJECT_TITLE = "PresenceResource"; // Title of the resource
-    private static final long UPDATE_TIME_MS = 10000; // Maximum time between updates (in milliseconds)
-
-    // List to store the identifiers of people who entered
-    private List<Integer> enteredPeople;
-
-    // Gson object to format responses and parse requests in JSON
-    private Gson gson;
-
-    /**
-     * Constructor for PresenceResource, initializing the resource with a name.
-     *
-     * @param name the name of the resource
-     */
-    public PresenceResource(String name) {
-        super(name);
-        init();
-    }
-
-    /**
-     * Initializes the resource, setting up attributes, initializing the list of entered people,
-     * and configuring observability and confirmation for client-server communication.
-     */
-    private void init() {
-        // Set the title attribute of the resource
-        getAttributes().setTitle(OBJECT_TITLE);
-
-        // Initialize Gson for JSON conversion and the list of people who entered
-        this.gson = new Gson();
-        this.enteredPeople = new ArrayList<>();
-
-        // Make this resource observable by clients
-        setObservable(true);
-
-        // Set the observation type to CON, meaning the server will confirm each notification
-        setObserveType(CoAP.Type.CON);
-    }
-
-    /**
-     * Handles GET requests from clients, returning the number of people who have entered.
-     * The response includes the count of people as a JSON-encoded number.
-     *
-     * @param exchange the CoAP exchange object representing the request-response interaction
-     */
-    @Override
-    public void handleGET(CoapExchange exchange) {
-        exchange.accept(); // Acknowledge the request
-        // Set the maximum age of the response in seconds
-        exchange.setMaxAge(UPDATE_TIME_MS / 1000);
-        try {
-            // Convert the size of the enteredPeople list to JSON format (number of people entered)
-            String responseBody = this.gson.toJson(this.enteredPeople.size());
-            // Respond with the count in JSON format and set the content type
-            exchange.respond(CoAP.ResponseCode.CONTENT, responseBody, MediaTypeRegistry.APPLICATION_JSON);
-        } catch (Exception e) {
-            System.out.println("ERROR GET"); // Log an error if something goes wrong
-            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
-        }
-    }
-
-    /**
-     * Handles POST requests, allowing clients to add a new person's identifier to the list of entered people.
-     * The request body is expected to contain the identifier as a plain text number (integer).
-     *
-     * @param exchange the CoAP exchange object representing the request-response interaction
-     */
-    @Override
-    public void handlePOST(CoapExchange exchange) {
-        try {
-            // Get the identifier from the POST request payload (as a string)
-            String identifier = new String(exchange.getRequestPayload());
-            // Parse the identifier as an integer and add it to the enteredPeople list
-            this.enteredPeople.add(Integer.parseInt(identifier));
-            System.out.println("Added new identifier: " + identifier + "\n");
-            // Respond with a CHANGED status indicating the resource was updated
-            exchange.respond(CoAP.ResponseCode.CHANGED);
-            // Notify all clients observing this resource that the state has changed
-            changed();
-        } catch (Exception e) {
-            System.out.println("ERROR POST"); // Log an error if something goes wrong
-            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
-        }
-    }
-}
+package it.unipr.iotlab.iot2024.cf.server.resources;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+
+import it.unipr.iotlab.iot2024.cf.log.Level;
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.AdmissionControl;
+import it.unipr.iotlab.iot2024.cf.server.AdmittedResource;
+import it.unipr.iotlab.iot2024.cf.server.codec.EntityTags;
+import it.unipr.iotlab.iot2024.cf.server.codec.ValueCodec;
+import it.unipr.iotlab.iot2024.cf.server.store.OccupancyCounter;
+import it.unipr.iotlab.iot2024.cf.server.store.StateLog;
+import it.unipr.iotlab.iot2024.cf.server.store.VisitorIdSet;
+
+/**
+ * The PresenceResource class represents a CoAP resource that tracks the presence of people entering a pool. 
+ * It allows clients to retrieve the current count of people inside via GET requests, or
+ * to add new entries via POST requests. The registered identifiers themselves can be read from the
+ * "export" child resource (see VisitorExportResource).
+ * POST requests pass through an admission control, checked by the server before the request
+ * reaches a handler thread: under overload they are answered with SERVICE_UNAVAILABLE and a
+ * Max-Age retry hint instead of queueing without bound.
+ */
+public class PresenceResource extends ObservableResource implements AdmittedResource {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(PresenceResource.class);
+    // Constants for resource metadata
+    private static final String OBJECT_TITLE = "PresenceResource"; // Title of the resource
+    private static final long UPDATE_TIME_MS = 10000; // Maximum time between updates (in milliseconds)
+    private static final String COUNT_NAME = "count"; // Name of the number of people in SenML payloads
+    private static final String IDENTIFIER_NAME = "id"; // Name of the identifier in CBOR and SenML payloads
+
+    // Set storing the identifiers of people who entered, as primitive ints
+    private VisitorIdSet enteredPeople;
+
+    // Village occupancy updated for every accepted identifier (null if not tracked)
+    private OccupancyCounter occupancy;
+    // Whether people registered here are entering or leaving the village
+    private OccupancyCounter.Direction direction;
+
+    // Journal recording every accepted identifier (null if the state is not persisted)
+    private StateLog.Journal journal;
+
+    // Bounded queue and concurrency limit in front of the POST handler
+    private volatile AdmissionControl admission;
+
+    /**
+     * Constructor for PresenceResource, initializing the resource with a name.
+     *
+     * @param name the name of the resource
+     */
+    public PresenceResource(String name) {
+        super(name);
+        init();
+    }
+
+    /**
+     * Constructor for PresenceResource, initializing the resource with a name and
+     * the occupancy counter that every accepted identifier is reported to.
+     *
+     * @param name the name of the resource
+     * @param occupancy the village occupancy counter
+     * @param direction IN for an entrance turnstile, OUT for an exit turnstile
+     */
+    public PresenceResource(String name, OccupancyCounter occupancy, OccupancyCounter.Direction direction) {
+        super(name);
+        this.occupancy = occupancy;
+        this.direction = direction;
+        init();
+    }
+
+    /**
+     * Initializes the resource, setting up attributes, initializing the list of entered people,
+     * and configuring observability and confirmation for client-server communication.
+     */
+    private void init() {
+        // Set the title attribute of the resource
+        getAttributes().setTitle(OBJECT_TITLE);
+
+        // Initialize the set of people who entered
+        this.enteredPeople = new VisitorIdSet();
+
+        // Make this resource observable by clients
+        setObservable(true);
+
+        // Publish the ordered visitor log as a child resource, transferred block-wise
+        add(new VisitorExportResource("export", this.enteredPeople));
+
+        // Bound the number of POSTs handled and waiting, with the limits set by the system properties
+        this.admission = new AdmissionControl();
+    }
+
+    /**
+     * Handles GET requests from clients, returning the number of people who have entered.
+     * The response includes the count of people as a JSON-encoded number, or in the CBOR,
+     * SenML JSON or SenML CBOR format requested by the Accept option, with an ETag; a request listing
+     * the ETag of the current representation is answered with VALID and no payload.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handleGET(CoapExchange exchange) {
+        // Check that the requested format is one of the supported ones
+        int accept = exchange.getRequestOptions().getAccept();
+        int format = ValueCodec.formatIndex(accept);
+        if (format < 0) {
+            exchange.respond(CoAP.ResponseCode.NOT_ACCEPTABLE);
+            return;
+        }
+        exchange.accept(); // Acknowledge the request
+        // Set the maximum age of the response in seconds
+        exchange.setMaxAge(UPDATE_TIME_MS / 1000);
+        try {
+            // The set only grows, so its size is both the payload and the version of the resource:
+            // answer 2.03 if the client already has the representation of this count
+            int count = this.enteredPeople.size();
+            byte[] etag = EntityTags.of(count, format);
+            exchange.setETag(etag);
+            if (EntityTags.matches(exchange.getRequestOptions(), etag)) {
+                exchange.respond(CoAP.ResponseCode.VALID);
+                return;
+            }
+            // Encode the size of the enteredPeople set (number of people entered), named only in SenML records
+            int contentFormat = ValueCodec.CONTENT_FORMATS[format];
+            byte[] responseBody = ValueCodec.encode(contentFormat,
+                    ValueCodec.isSenml(contentFormat) ? COUNT_NAME : null, null, count);
+            // Respond with the count and set the content type
+            exchange.respond(CoAP.ResponseCode.CONTENT, responseBody, contentFormat);
+        } catch (Exception e) {
+            LOG.error("ERROR GET", e); // Log an error if something goes wrong
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
+        }
+    }
+
+    /**
+     * Handles POST requests, allowing clients to add a new person's identifier to the set of entered people.
+     * The request body is expected to contain the identifier as a plain text number (integer), or
+     * in the JSON, CBOR or SenML format declared by the Content-Format option.
+     * An identifier that was already registered is answered with CONFLICT and does not notify observers.
+     * A malformed payload, or one without the value, is answered with BAD_REQUEST.
+     * A JSON or CBOR array of identifiers, or a SenML pack with several "id" records, is handled
+     * as a batch (see handleBatchPOST).
+     * When the admission control is full the server answers the request with SERVICE_UNAVAILABLE
+     * and a Max-Age telling the client after how many seconds to retry, without calling this handler.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handlePOST(CoapExchange exchange) {
+        // Reject payloads in a format the resource does not understand
+        int contentFormat = exchange.getRequestOptions().getContentFormat();
+        if (contentFormat != MediaTypeRegistry.TEXT_PLAIN && ValueCodec.formatIndex(contentFormat) < 0) {
+            exchange.respond(CoAP.ResponseCode.UNSUPPORTED_CONTENT_FORMAT);
+            return;
+        }
+        try {
+            // Handle a batch of identifiers in a single update
+            if (contentFormat != MediaTypeRegistry.UNDEFINED && contentFormat != MediaTypeRegistry.TEXT_PLAIN) {
+                double[] batch = ValueCodec.decodeBatch(contentFormat, exchange.getRequestPayload(), IDENTIFIER_NAME);
+                if (batch != null) {
+                    handleBatchPOST(exchange, contentFormat, batch);
+                    return;
+                }
+            }
+            // Get the identifier from the POST request payload
+            int identifier = decodeIdentifier(contentFormat, exchange.getRequestPayload());
+            // Add the identifier to the enteredPeople set
+            if (!this.enteredPeople.add(identifier)) {
+                LOG.log(Level.INFO, "Duplicate identifier: {}", identifier);
+                // Respond with a CONFLICT status, the person was already registered
+                exchange.respond(CoAP.ResponseCode.CONFLICT);
+                return;
+            }
+            LOG.log(Level.INFO, "Added new identifier: {}", identifier);
+            // Record the identifier in the state log
+            if (this.journal != null) {
+                this.journal.append(ByteBuffer.allocate(Integer.BYTES).putInt(identifier).array());
+            }
+            // Update the number of people inside the village
+            if (this.occupancy != null) {
+                this.occupancy.update(this.direction, this.enteredPeople.size());
+            }
+            // Respond with a CHANGED status indicating the resource was updated
+            exchange.respond(CoAP.ResponseCode.CHANGED);
+            // Notify all clients observing this resource that the state has changed
+            changed();
+        } catch (IllegalArgumentException e) {
+            // The payload is malformed or does not carry the value: the request is at fault
+            exchange.respond(CoAP.ResponseCode.BAD_REQUEST, e.getMessage());
+        } catch (Exception e) {
+            LOG.error("ERROR POST", e); // Log an error if something goes wrong
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
+        }
+    }
+
+    /**
+     * Handles a batch POST, typically sent by a turnstile flushing the visitors that passed within
+     * a short window. All identifiers are added atomically, the occupancy is updated once and
+     * observers receive a single notification. The response carries one boolean per identifier,
+     * in request order (true if it was added, false if it was a duplicate), encoded in CBOR for
+     * CBOR requests and in JSON otherwise.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     * @param contentFormat the content format of the request payload
+     * @param batch the decoded identifiers
+     */
+    private void handleBatchPOST(CoapExchange exchange, int contentFormat, double[] batch) {
+        int[] identifiers = new int[batch.length];
+        for (int i = 0; i < batch.length; i++) {
+            identifiers[i] = toIdentifier(batch[i]);
+        }
+        // Add all the identifiers to the enteredPeople set in one step
+        boolean[] added = this.enteredPeople.addAll(identifiers);
+        int addedCount = 0;
+        for (boolean result : added) {
+            if (result) {
+                addedCount++;
+            }
+        }
+        LOG.log(Level.INFO, "Added {} of {} identifiers in batch", addedCount, identifiers.length);
+        // Record the added identifiers in the state log, as a single entry
+        if (this.journal != null && addedCount > 0) {
+            ByteBuffer entry = ByteBuffer.allocate(addedCount * Integer.BYTES);
+            for (int i = 0; i < identifiers.length; i++) {
+                if (added[i]) {
+                    entry.putInt(identifiers[i]);
+                }
+            }
+            this.journal.append(entry.array());
+        }
+        // Update the number of people inside the village
+        if (this.occupancy != null && addedCount > 0) {
+            this.occupancy.update(this.direction, this.enteredPeople.size());
+        }
+        // Respond with a CHANGED status and the result for every identifier
+        int replyFormat = contentFormat == MediaTypeRegistry.APPLICATION_CBOR || contentFormat == MediaTypeRegistry.APPLICATION_SENML_CBOR
+                ? MediaTypeRegistry.APPLICATION_CBOR : MediaTypeRegistry.APPLICATION_JSON;
+        exchange.respond(CoAP.ResponseCode.CHANGED, ValueCodec.encodeResults(replyFormat, added), replyFormat);
+        // Notify the observers once for the whole batch
+        if (addedCount > 0) {
+            changed();
+        }
+    }
+
+    /**
+     * Decodes a visitor identifier from a POST payload. Plain text payloads, and payloads without
+     * a Content-Format option, carry the identifier as a decimal number.
+     *
+     * @param contentFormat the content format of the payload
+     * @param payload the request payload
+     * @return the identifier
+     * @throws IllegalArgumentException if the payload does not contain an integer identifier
+     */
+    private static int decodeIdentifier(int contentFormat, byte[] payload) {
+        if (contentFormat == MediaTypeRegistry.UNDEFINED || contentFormat == MediaTypeRegistry.TEXT_PLAIN) {
+            return Integer.parseInt(new String(payload).trim());
+        }
+        return toIdentifier(ValueCodec.decode(contentFormat, payload, IDENTIFIER_NAME));
+    }
+
+    /**
+     * Converts a decoded number to an identifier, rejecting fractional or out of range values.
+     */
+    private static int toIdentifier(double value) {
+        if (value != Math.rint(value) || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Identifier must be an integer");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Persists the registered identifiers in the state log of the server: every accepted POST is
+     * appended to the log, and the identifiers are restored when the log is recovered, setting
+     * the occupancy counter to the number of restored identifiers. The resource must already be added to the server,
+     * since its URI is the key of its log entries.
+     *
+     * @param log the state log of the server, not yet recovered
+     */
+    public void persistTo(StateLog log) {
+        this.journal = log.register(getURI(), new StateLog.Participant() {
+            @Override
+            public byte[] snapshot() {
+                int[] identifiers = enteredPeople.toArray();
+                ByteBuffer state = ByteBuffer.allocate(identifiers.length * Integer.BYTES);
+                state.asIntBuffer().put(identifiers);
+                return state.array();
+            }
+
+            @Override
+            public void restore(ByteBuffer snapshot) {
+                replay(snapshot);
+            }
+
+            @Override
+            public void replay(ByteBuffer entry) {
+                while (entry.remaining() >= Integer.BYTES) {
+                    enteredPeople.add(entry.getInt());
+                }
+                if (occupancy != null) {
+                    occupancy.update(direction, enteredPeople.size());
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the admission control of the POST requests, e.g. to read how many were rejected.
+     * @return the admission control of the resource
+     */
+    public AdmissionControl getAdmissionControl() {
+        return this.admission;
+    }
+
+    /**
+     * Returns the admission control of the POST requests; the other requests are always delivered.
+     *
+     * @param method the method of the request
+     * @return the admission control for POST, null otherwise
+     */
+    @Override
+    public AdmissionControl getAdmissionControl(CoAP.Code method) {
+        return method == CoAP.Code.POST ? this.admission : null;
+    }
+
+    /**
+     * Replaces the admission control of the POST requests, e.g. to change the queue depth.
+     * The requests already admitted by the replaced control release their place in it.
+     * @param admission the new admission control
+     */
+    public void setAdmissionControl(AdmissionControl admission) {
+        this.admission = admission;
+    }
+}
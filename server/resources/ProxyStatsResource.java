@@ -0,0 +1,67 @@
+package it.unipr.iotlab.iot2024.cf.server.resources;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+
+import com.google.gson.JsonObject;
+
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.proxy.ProxyMetrics;
+
+/**
+ * The ProxyStatsResource class reports the counters of a VillageProxy: cache hits and misses,
+ * upstream requests and relations, and how many downstream notifications every upstream
+ * notification fanned out to.
+ */
+public class ProxyStatsResource extends CoapResource {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(ProxyStatsResource.class);
+    // Constants for resource metadata
+    private static final String OBJECT_TITLE = "ProxyStatsResource"; // Title of the resource
+
+    // Counters of the proxy
+    private ProxyMetrics metrics;
+
+    /**
+     * Constructor for ProxyStatsResource.
+     *
+     * @param name the name of the resource
+     * @param metrics the counters of the proxy
+     */
+    public ProxyStatsResource(String name, ProxyMetrics metrics) {
+        super(name);
+        this.metrics = metrics;
+        getAttributes().setTitle(OBJECT_TITLE);
+    }
+
+    /**
+     * Handles GET requests from clients, returning the proxy counters as a JSON object.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handleGET(CoapExchange exchange) {
+        try {
+            JsonObject responseBody = new JsonObject();
+            responseBody.addProperty("hits", this.metrics.getHits());
+            responseBody.addProperty("misses", this.metrics.getMisses());
+            responseBody.addProperty("hitRatio", this.metrics.getHitRatio());
+            responseBody.addProperty("collapsed", this.metrics.getCollapsed());
+            responseBody.addProperty("revalidated", this.metrics.getRevalidated());
+            responseBody.addProperty("upstreamRequests", this.metrics.getUpstreamRequests());
+            responseBody.addProperty("upstreamErrors", this.metrics.getUpstreamErrors());
+            responseBody.addProperty("upstreamRelations", this.metrics.getUpstreamRelations());
+            responseBody.addProperty("upstreamNotifications", this.metrics.getUpstreamNotifications());
+            responseBody.addProperty("downstreamNotifications", this.metrics.getDownstreamNotifications());
+            responseBody.addProperty("fanOut", this.metrics.getFanOut());
+            // Respond with the counters in JSON format and set the content type
+            exchange.respond(CoAP.ResponseCode.CONTENT, responseBody.toString(), MediaTypeRegistry.APPLICATION_JSON);
+        } catch (Exception e) {
+            LOG.error("ERROR GET", e); // Log an error if something goes wrong
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
+        }
+    }
+}
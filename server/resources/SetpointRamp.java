@@ -0,0 +1,137 @@
+package it.unipr.iotlab.iot2024.cf.server.resources;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleSupplier;
+
+import org.eclipse.californium.core.server.resources.Resource;
+
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+
+/**
+ * The SetpointRamp class moves the value of an actuated resource towards a target at a given rate,
+ * on the server. A client sends a single POST with the target and rate query parameters, e.g.
+ * POST /ImmersionTempResource?target=25&amp;rate=2 raises the temperature by 2 degrees per second
+ * until it reaches 25, instead of POSTing every intermediate value itself.
+ * <p>
+ * The ramp advances every STEP_MS milliseconds on a scheduler shared by all ramps, and hands each
+ * intermediate value to the resource, which records it and notifies its observers; the observers
+ * receive the steps at the rate they asked for with their pmin and st attributes (see
+ * ConditionalNotifier). A new ramp, or a plain POST of a value, cancels the running one.
+ */
+public class SetpointRamp {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(SetpointRamp.class);
+    // Query parameter with the target value
+    public static final String TARGET = "target";
+    // Query parameter with the rate of change, in units of the value per second
+    public static final String RATE = "rate";
+    // Period between two steps of a ramp (in milliseconds)
+    private static final long STEP_MS = 100;
+
+    // Scheduler shared by all ramps
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SetpointRamp");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Resource whose value is ramped, named in the log messages
+    private final Resource resource;
+    // Supplier of the current value of the resource
+    private final DoubleSupplier value;
+    // Consumer applying each step to the resource
+    private final DoubleConsumer step;
+
+    // Target and rate of the running ramp
+    private double target;
+    private double rate;
+    // Time of the last step (in nanoseconds)
+    private long lastStepNanos;
+    // Task advancing the running ramp (null if no ramp runs)
+    private ScheduledFuture<?> task;
+
+    /**
+     * Constructor for SetpointRamp.
+     *
+     * @param resource the resource whose value is ramped
+     * @param value supplier of the current value of the resource
+     * @param step consumer applying an intermediate value to the resource and notifying its observers
+     */
+    public SetpointRamp(Resource resource, DoubleSupplier value, DoubleConsumer step) {
+        this.resource = resource;
+        this.value = value;
+        this.step = step;
+    }
+
+    /**
+     * Starts a ramp from the current value, replacing the running one.
+     *
+     * @param target the value to reach
+     * @param ratePerSecond the change of the value per second, strictly positive
+     */
+    public synchronized void start(double target, double ratePerSecond) {
+        if (!(ratePerSecond > 0) || Double.isInfinite(ratePerSecond) || Double.isNaN(target) || Double.isInfinite(target)) {
+            throw new IllegalArgumentException("Invalid ramp to " + target + " at " + ratePerSecond + "/s");
+        }
+        cancel();
+        this.target = target;
+        this.rate = ratePerSecond;
+        this.lastStepNanos = System.nanoTime();
+        this.task = SCHEDULER.scheduleAtFixedRate(this::advance, STEP_MS, STEP_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the running ramp, if any, leaving the value where it is.
+     */
+    public synchronized void cancel() {
+        if (this.task != null) {
+            this.task.cancel(false);
+            this.task = null;
+        }
+    }
+
+    /**
+     * Checks whether a ramp is running.
+     * @return true until the running ramp reaches its target or is cancelled
+     */
+    public synchronized boolean isRunning() {
+        return this.task != null;
+    }
+
+    /**
+     * Returns the target of the running ramp.
+     * @return the target, or NaN if no ramp runs
+     */
+    public synchronized double getTarget() {
+        return this.task != null ? this.target : Double.NaN;
+    }
+
+    /**
+     * Moves the value by the rate times the time elapsed since the last step, without passing the target.
+     */
+    private synchronized void advance() {
+        if (this.task == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        double delta = this.rate * (now - this.lastStepNanos) / 1e9;
+        this.lastStepNanos = now;
+        double current = this.value.getAsDouble();
+        double next = current < this.target ? Math.min(this.target, current + delta) : Math.max(this.target, current - delta);
+        if (next == this.target) {
+            cancel();
+        }
+        try {
+            this.step.accept(next);
+        } catch (RuntimeException e) {
+            // A step that cannot be applied ends the ramp instead of failing every period
+            cancel();
+            LOG.error("ERROR RAMP of " + this.resource.getURI() + " to " + this.target + ", stopped", e);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package it.unipr.iotlab.iot2024.cf.server.resources;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+
+import com.google.gson.JsonObject;
+
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.codec.Cbor;
+
+/**
+ * The VillageSummaryResource class is an observable CoAP resource holding the latest value of every
+ * pool and turnstile of the village, e.g.
+ * {"ChildrenPool":{"concentration":1.5,"temperature":26},"EntranceTurnstile":{"count":12}, ...}.
+ * <p>
+ * The summary is maintained incrementally: every update replaces a single value, and observers
+ * are notified at most once every minimum interval, with the state at that time. A burst of
+ * updates therefore costs one encoding and one notification per interval, and a dashboard needs
+ * a single observe relation instead of one per value of every node.
+ */
+public class VillageSummaryResource extends ObservableResource {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(VillageSummaryResource.class);
+    // Constants for resource metadata
+    private static final String OBJECT_TITLE = "VillageSummaryResource"; // Title of the resource
+    // Default minimum time between two notifications (in milliseconds)
+    public static final long DEFAULT_MIN_INTERVAL_MS = 1000;
+
+    // Scheduler shared by all summaries for the notifications deferred by the minimum interval
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "VillageSummary");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Latest value of every field, by node and field name (guarded by this)
+    private final Map<String, Map<String, Double>> values = new TreeMap<>();
+    // Minimum time between two notifications
+    private volatile long minIntervalMs;
+    // Time the last published state was encoded (guarded by this)
+    private long lastPublishedMs;
+    // Whether a notification is already scheduled (guarded by this)
+    private boolean publishPending;
+    // Published state, encoded in JSON and CBOR
+    private volatile byte[][] encodedPayloads;
+    // Number of values changed and of states published, for monitoring
+    private long updates;
+    private long published;
+
+
+    /**
+     * Constructor for VillageSummaryResource, notifying at most once every DEFAULT_MIN_INTERVAL_MS.
+     *
+     * @param name the name of the resource
+     */
+    public VillageSummaryResource(String name) {
+        this(name, DEFAULT_MIN_INTERVAL_MS);
+    }
+
+    /**
+     * Constructor for VillageSummaryResource.
+     *
+     * @param name the name of the resource
+     * @param minIntervalMs the minimum time between two notifications, in milliseconds
+     */
+    public VillageSummaryResource(String name, long minIntervalMs) {
+        super(name);
+        this.minIntervalMs = minIntervalMs;
+        init();
+    }
+
+    /**
+     * Initializes the resource, setting up attributes and the initial (empty) summary,
+     * and configuring observability and confirmation for client-server communication.
+     */
+    private void init() {
+        // Set the title attribute of the resource
+        getAttributes().setTitle(OBJECT_TITLE);
+        getAttributes().addContentType(MediaTypeRegistry.APPLICATION_JSON);
+        getAttributes().addContentType(MediaTypeRegistry.APPLICATION_CBOR);
+
+        this.encodedPayloads = encode();
+
+        // Make this resource observable by clients
+        setObservable(true);
+    }
+
+    /**
+     * Handles GET requests from clients, returning the last published summary as a JSON object,
+     * or as a CBOR map if requested by the Accept option.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handleGET(CoapExchange exchange) {
+        int accept = exchange.getRequestOptions().getAccept();
+        if (accept != MediaTypeRegistry.UNDEFINED && accept != MediaTypeRegistry.APPLICATION_JSON
+                && accept != MediaTypeRegistry.APPLICATION_CBOR) {
+            exchange.respond(CoAP.ResponseCode.NOT_ACCEPTABLE);
+            return;
+        }
+        try {
+            byte[][] payloads = this.encodedPayloads;
+            if (accept == MediaTypeRegistry.APPLICATION_CBOR) {
+                exchange.respond(CoAP.ResponseCode.CONTENT, payloads[1], MediaTypeRegistry.APPLICATION_CBOR);
+            } else {
+                exchange.respond(CoAP.ResponseCode.CONTENT, payloads[0], MediaTypeRegistry.APPLICATION_JSON);
+            }
+        } catch (Exception e) {
+            LOG.error("ERROR GET", e); // Log an error if something goes wrong
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
+        }
+    }
+
+    /**
+     * Sets one value of the summary. If it changed, a notification is sent as soon as the
+     * minimum interval since the previous one has elapsed, carrying every change made meanwhile.
+     *
+     * @param node the pool or turnstile the value belongs to
+     * @param field the name of the value
+     * @param value the latest value
+     */
+    public synchronized void update(String node, String field, double value) {
+        Double previous = this.values.computeIfAbsent(node, key -> new TreeMap<>()).put(field, value);
+        if (previous != null && previous == value) {
+            return;
+        }
+        this.updates++;
+        if (!this.publishPending) {
+            this.publishPending = true;
+            long delay = Math.max(0, this.lastPublishedMs + this.minIntervalMs - System.currentTimeMillis());
+            SCHEDULER.schedule(this::publish, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Returns the latest value of a field.
+     *
+     * @param node the pool or turnstile
+     * @param field the name of the value
+     * @return the value, or null if it was never set
+     */
+    public synchronized Double getValue(String node, String field) {
+        Map<String, Double> fields = this.values.get(node);
+        return fields != null ? fields.get(field) : null;
+    }
+
+    /**
+     * Returns the number of changed values received so far.
+     * @return the number of updates that changed the summary
+     */
+    public synchronized long getUpdates() {
+        return this.updates;
+    }
+
+    /**
+     * Returns the number of states published to the observers so far.
+     * @return the number of notifications triggered
+     */
+    public synchronized long getPublished() {
+        return this.published;
+    }
+
+    /**
+     * Returns the minimum time between two notifications.
+     * @return the interval in milliseconds
+     */
+    public long getMinIntervalMs() {
+        return this.minIntervalMs;
+    }
+
+    /**
+     * Sets the minimum time between two notifications.
+     * @param minIntervalMs the interval in milliseconds
+     */
+    public void setMinIntervalMs(long minIntervalMs) {
+        this.minIntervalMs = minIntervalMs;
+    }
+
+    /**
+     * Encodes the current state and notifies the observers, on the scheduler thread.
+     */
+    private void publish() {
+        synchronized (this) {
+            this.encodedPayloads = encode();
+            this.publishPending = false;
+            this.lastPublishedMs = System.currentTimeMillis();
+            this.published++;
+        }
+        changed();
+    }
+
+    /**
+     * Encodes the current state in JSON and CBOR. Called with the lock held, or from init().
+     */
+    private byte[][] encode() {
+        JsonObject json = new JsonObject();
+        Cbor.Writer cbor = new Cbor.Writer().map(this.values.size());
+        for (Map.Entry<String, Map<String, Double>> node : this.values.entrySet()) {
+            JsonObject fields = new JsonObject();
+            cbor.text(node.getKey()).map(node.getValue().size());
+            for (Map.Entry<String, Double> field : node.getValue().entrySet()) {
+                double value = field.getValue();
+                cbor.text(field.getKey());
+                // Counts are written as integers
+                if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                    fields.addProperty(field.getKey(), (long) value);
+                    cbor.integer((long) value);
+                } else {
+                    fields.addProperty(field.getKey(), value);
+                    cbor.number(value);
+                }
+            }
+            json.add(node.getKey(), fields);
+        }
+        return new byte[][] { json.toString().getBytes(StandardCharsets.UTF_8), cbor.toByteArray() };
+    }
+}
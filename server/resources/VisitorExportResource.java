@@ -0,0 +1,102 @@
+package it.unipr.iotlab.iot2024.cf.server.resources;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.coap.BlockOption;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+import it.unipr.iotlab.iot2024.cf.server.store.VisitorIdSet;
+
+/**
+ * The VisitorExportResource class exports the full visitor log of a PresenceResource, e.g. for the
+ * end-of-day reconciliation. A GET returns every registered identifier, in the order they were
+ * registered, as 4-byte big-endian integers (application/octet-stream).
+ * <p>
+ * The export is transferred block-wise (Block2, RFC 7959) and the resource handles the Block2
+ * option itself: each request only encodes the identifiers of the requested block, read from the
+ * store, so an export of any length never needs more than one block of memory. Identifiers are
+ * only ever appended to the log, so a block keeps the same content while visitors keep arriving;
+ * the first block carries the total size of the export (Size2) at the time it was sent.
+ */
+public class VisitorExportResource extends CoapResource {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(VisitorExportResource.class);
+    // Constants for resource metadata
+    private static final String OBJECT_TITLE = "VisitorExport"; // Title of the resource
+    // Block size used when the client does not ask for one
+    private static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    // Store holding the visitor log
+    private VisitorIdSet visitors;
+
+    /**
+     * Constructor for VisitorExportResource.
+     *
+     * @param name the name of the resource
+     * @param visitors the store holding the identifiers to export
+     */
+    public VisitorExportResource(String name, VisitorIdSet visitors) {
+        super(name);
+        this.visitors = visitors;
+        getAttributes().setTitle(OBJECT_TITLE);
+        getAttributes().addContentType(MediaTypeRegistry.APPLICATION_OCTET_STREAM);
+    }
+
+    /**
+     * Handles GET requests, returning the requested block of the visitor log. A request without
+     * a Block2 option gets the first block; a block past the end of the log is answered with
+     * BAD_OPTION, as required by RFC 7959.
+     *
+     * @param exchange the CoAP exchange object representing the request-response interaction
+     */
+    @Override
+    public void handleGET(CoapExchange exchange) {
+        int accept = exchange.getRequestOptions().getAccept();
+        if (accept != MediaTypeRegistry.UNDEFINED && accept != MediaTypeRegistry.APPLICATION_OCTET_STREAM) {
+            exchange.respond(CoAP.ResponseCode.NOT_ACCEPTABLE);
+            return;
+        }
+        try {
+            // Work out which identifiers the requested block holds (block sizes are multiples of 4 bytes)
+            BlockOption requested = exchange.getRequestOptions().getBlock2();
+            int szx = requested != null ? requested.getSzx() : BlockOption.size2Szx(DEFAULT_BLOCK_SIZE);
+            int num = requested != null ? requested.getNum() : 0;
+            int idsPerBlock = BlockOption.szx2Size(szx) / Integer.BYTES;
+            long from = (long) num * idsPerBlock;
+            int total = this.visitors.size();
+            if (from > 0 && from >= total) {
+                exchange.respond(CoAP.ResponseCode.BAD_OPTION);
+                return;
+            }
+
+            // Encode only this block, straight from the store
+            int[] identifiers = new int[idsPerBlock];
+            int count = this.visitors.readOrdered((int) from, identifiers);
+            byte[] block = new byte[count * Integer.BYTES];
+            for (int i = 0, offset = 0; i < count; i++, offset += Integer.BYTES) {
+                int id = identifiers[i];
+                block[offset] = (byte) (id >>> 24);
+                block[offset + 1] = (byte) (id >>> 16);
+                block[offset + 2] = (byte) (id >>> 8);
+                block[offset + 3] = (byte) id;
+            }
+            boolean more = from + count < this.visitors.size();
+
+            Response response = new Response(CoAP.ResponseCode.CONTENT);
+            response.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_OCTET_STREAM);
+            response.getOptions().setBlock2(szx, more, num);
+            if (num == 0) {
+                response.getOptions().setSize2(total * Integer.BYTES);
+            }
+            response.setPayload(block);
+            exchange.respond(response);
+        } catch (Exception e) {
+            LOG.error("ERROR GET", e); // Log an error if something goes wrong
+            exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR); // Respond with an internal server error
+        }
+    }
+}
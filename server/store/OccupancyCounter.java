@@ -0,0 +1,100 @@
+package it.unipr.iotlab.iot2024.cf.server.store;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The OccupancyCounter class keeps the number of people currently inside the village.
+ * Each turnstile reports the total number of people that passed through it, so replaying
+ * its state log or receiving a notification twice never counts a visitor again, and the
+ * totals of a turnstile running in another process can be copied from its notifications.
+ * One counter is created per village and passed to its turnstiles. Listeners are informed
+ * after every change, which lets an observable resource publish the occupancy without
+ * clients combining the two streams.
+ */
+public class OccupancyCounter {
+
+    /**
+     * The direction in which a person passes through a turnstile.
+     */
+    public enum Direction {
+        IN, OUT
+    }
+
+    // Total number of people who entered and exited
+    private final AtomicLong entries;
+    private final AtomicLong exits;
+
+    // Callbacks invoked after every update
+    private final List<Runnable> listeners;
+
+    /**
+     * Default constructor that creates a counter with no people inside.
+     */
+    public OccupancyCounter() {
+        this.entries = new AtomicLong();
+        this.exits = new AtomicLong();
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Updates the number of people who passed through the turnstiles in one direction and
+     * notifies the listeners. The totals only grow, so a total lower than the current one,
+     * reported late by a concurrent request or by a replay, is ignored.
+     *
+     * @param direction whether the people entered or exited
+     * @param total the number of people who passed through the turnstile so far
+     */
+    public void update(Direction direction, long total) {
+        AtomicLong count = direction == Direction.IN ? this.entries : this.exits;
+        long previous = count.getAndAccumulate(total, Math::max);
+        if (total <= previous) {
+            return;
+        }
+        for (Runnable listener : this.listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Returns the number of people currently inside the village. Exits of visitors whose
+     * entry was not counted, e.g. while the entrance was down, never make it negative.
+     * @return entries minus exits, or 0 if more people exited than entered
+     */
+    public long getInside() {
+        return Math.max(0, this.entries.get() - this.exits.get());
+    }
+
+    /**
+     * Returns the total number of people who entered.
+     * @return the number of entries
+     */
+    public long getEntries() {
+        return this.entries.get();
+    }
+
+    /**
+     * Returns the total number of people who exited.
+     * @return the number of exits
+     */
+    public long getExits() {
+        return this.exits.get();
+    }
+
+    /**
+     * Registers a callback invoked after every update of the counter.
+     * @param listener the callback to run
+     */
+    public void addListener(Runnable listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Removes a previously registered callback.
+     * @param listener the callback to remove
+     */
+    public void removeListener(Runnable listener) {
+        this.listeners.remove(listener);
+    }
+}
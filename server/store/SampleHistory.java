@@ -0,0 +1,133 @@
+package it.unipr.iotlab.iot2024.cf.server.store;
+
+/**
+ * The SampleHistory class keeps the most recent timestamped samples of a sensor in a fixed-size
+ * ring buffer. Timestamps and values are stored in two primitive arrays allocated once, so
+ * recording a sample never allocates; when the buffer is full the oldest sample is overwritten.
+ */
+public class SampleHistory {
+
+    // Default number of samples kept
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // Timestamps (milliseconds since the epoch) and values of the samples
+    private final long[] times;
+    private final double[] values;
+
+    // Position where the next sample is written
+    private int head;
+    // Number of samples stored, at most the capacity
+    private int count;
+
+    /**
+     * Default constructor that creates a history of DEFAULT_CAPACITY samples.
+     */
+    public SampleHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor for SampleHistory.
+     *
+     * @param capacity the number of samples kept
+     */
+    public SampleHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.times = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Records a sample, overwriting the oldest one if the history is full.
+     *
+     * @param timeMs the time of the sample, in milliseconds since the epoch
+     * @param value the value of the sample
+     */
+    public synchronized void record(long timeMs, double value) {
+        this.times[this.head] = timeMs;
+        this.values[this.head] = value;
+        this.head = (this.head + 1) % this.times.length;
+        if (this.count < this.times.length) {
+            this.count++;
+        }
+    }
+
+    /**
+     * Copies the samples taken at or after a given time into the arrays provided, oldest first.
+     * With a step, a sample is only selected if it was taken at least step milliseconds after the
+     * previously selected one. When more than limit samples match, the most recent ones are kept.
+     *
+     * @param sinceMs the time of the oldest sample to return, in milliseconds since the epoch
+     * @param stepMs the minimum time between two selected samples, in milliseconds (0 for all samples)
+     * @param limit the maximum number of samples to return
+     * @param outTimes array receiving the timestamps, at least limit long
+     * @param outValues array receiving the values, at least limit long
+     * @return the number of samples copied
+     */
+    public synchronized int select(long sinceMs, long stepMs, int limit, long[] outTimes, double[] outValues) {
+        if (limit <= 0) {
+            return 0;
+        }
+        int capacity = this.times.length;
+        int oldest = (this.head - this.count + capacity) % capacity;
+        int selected = 0;
+        int next = 0; // position in the output arrays, used as a ring once limit is reached
+        long lastTime = Long.MIN_VALUE;
+        for (int i = 0; i < this.count; i++) {
+            int index = (oldest + i) % capacity;
+            long time = this.times[index];
+            if (time < sinceMs || (stepMs > 0 && selected > 0 && time - lastTime < stepMs)) {
+                continue;
+            }
+            outTimes[next] = time;
+            outValues[next] = this.values[index];
+            next = (next + 1) % limit;
+            lastTime = time;
+            selected++;
+        }
+        if (selected > limit) {
+            // The output wrapped around: rotate it so that the oldest kept sample comes first
+            rotate(outTimes, outValues, next, limit);
+            return limit;
+        }
+        return selected;
+    }
+
+    /**
+     * Returns the number of samples stored.
+     * @return the number of samples
+     */
+    public synchronized int size() {
+        return this.count;
+    }
+
+    /**
+     * Returns the maximum number of samples kept.
+     * @return the capacity of the history
+     */
+    public int capacity() {
+        return this.times.length;
+    }
+
+    /**
+     * Rotates the first length elements of both arrays left by the given distance.
+     */
+    private static void rotate(long[] times, double[] values, int distance, int length) {
+        reverse(times, values, 0, distance - 1);
+        reverse(times, values, distance, length - 1);
+        reverse(times, values, 0, length - 1);
+    }
+
+    private static void reverse(long[] times, double[] values, int from, int to) {
+        for (; from < to; from++, to--) {
+            long time = times[from];
+            times[from] = times[to];
+            times[to] = time;
+            double value = values[from];
+            values[from] = values[to];
+            values[to] = value;
+        }
+    }
+}
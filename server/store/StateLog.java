@@ -0,0 +1,627 @@
+package it.unipr.iotlab.iot2024.cf.server.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import it.unipr.iotlab.iot2024.cf.log.Logger;
+
+/**
+ * The StateLog class makes the state of a server survive restarts. Every accepted update is
+ * appended to a write-ahead log kept in a memory-mapped file segment, and the full state is
+ * periodically written to a compact snapshot, after which the log starts over. On startup the
+ * snapshot is restored and the tail of the log replayed.
+ * <p>
+ * Appending only copies the entry into the mapped segment, so it never blocks on the disk: a
+ * background task flushes the segment (group commit) every COMMIT_INTERVAL_MS, making all the
+ * entries appended in the meantime durable with a single force. A process crash loses nothing,
+ * since the mapped pages belong to the operating system; a power failure loses at most the last
+ * commit interval.
+ * <p>
+ * The log has two segments used in turn. When the active segment is full, or every
+ * SNAPSHOT_INTERVAL_MS, the appends move on to the other one and the snapshot is written and
+ * forced in the background, outside the lock of the log; only the state of the participants is
+ * copied with the log locked. An append waits only if the new segment fills up before the
+ * compaction of the previous one ends.
+ * <p>
+ * Resources take part by registering a Participant under a unique key, usually before recover() is called:
+ * <pre>
+ * StateLog log = StateLog.open("OlympicSwimmingPool");
+ * chlorineResource.persistTo(log);
+ * log.recover();
+ * </pre>
+ * Log files: &lt;village.state.dir&gt;/&lt;name&gt;/wal.log, wal.1.log and snapshot.bin (the directory defaults to "state").
+ */
+public class StateLog implements Closeable {
+
+    // Logger writing the messages off the calling thread
+    private static final Logger LOG = Logger.get(StateLog.class);
+
+    // System property selecting the directory holding the logs of every server
+    public static final String DIRECTORY_PROPERTY = "village.state.dir";
+    // Default size of the memory-mapped log segment (in bytes)
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    // Time between two flushes of the log segment (in milliseconds)
+    public static final long COMMIT_INTERVAL_MS = 10;
+    // Time between two snapshots (in milliseconds)
+    public static final long SNAPSHOT_INTERVAL_MS = 60000;
+
+    private static final String DEFAULT_DIRECTORY = "state";
+    private static final String[] LOG_FILES = {"wal.log", "wal.1.log"};
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final int LOG_MAGIC = 0x564C4F47; // "VLOG"
+    private static final int SNAPSHOT_MAGIC = 0x56534E50; // "VSNP"
+    // Segment header: magic, reserved, generation
+    private static final int HEADER_SIZE = 16;
+    // Entry header: body length, CRC32 of the body
+    private static final int ENTRY_HEADER_SIZE = 8;
+    // Maximum time an append waits for the compaction of the previous segment (in milliseconds)
+    private static final long COMPACTION_TIMEOUT_MS = 30000;
+
+    // Scheduler shared by all logs for group commits and snapshots
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "StateLog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The Participant interface is implemented by every component whose state is logged.
+     */
+    public interface Participant {
+
+        /**
+         * Writes the complete current state, to be restored after a restart. Called with the log
+         * locked, so it must not wait for a lock the participant holds while appending.
+         * @return the encoded state
+         */
+        byte[] snapshot();
+
+        /**
+         * Replaces the current state with one written by snapshot().
+         * @param snapshot the encoded state
+         */
+        void restore(ByteBuffer snapshot);
+
+        /**
+         * Applies an update previously appended through the participant's Journal. Updates must be
+         * idempotent (e.g. adding to a set, setting a value): an update applied just before a snapshot
+         * can be found both in the snapshot and in the log.
+         * @param entry the payload of the log entry
+         */
+        void replay(ByteBuffer entry);
+    }
+
+    /**
+     * The Journal class is the handle through which a registered participant appends its updates.
+     */
+    public final class Journal {
+
+        // Key of the participant, encoded once
+        private final byte[] key;
+
+        private Journal(byte[] key) {
+            this.key = key;
+        }
+
+        /**
+         * Appends an update to the log, without waiting for it to reach the disk.
+         * @param payload the encoded update, later passed to Participant.replay()
+         */
+        public void append(byte[] payload) {
+            StateLog.this.append(this.key, payload);
+        }
+    }
+
+    // Name of the server, used in messages
+    private final String name;
+    // Files of the log: the snapshot and the two segments used in turn
+    private final Path snapshotPath;
+    private final FileChannel[] channels;
+    private final MappedByteBuffer[] segments;
+
+    // Participants by key, in registration order
+    private final Map<String, Participant> participants;
+    // Index of the segment receiving the appends
+    private int active;
+    // Generation of the active segment, incremented every time the appends move to the other segment
+    private long generation;
+    // Position where the next entry is written
+    private int position;
+    // Whether the other segment is empty, i.e. its entries are covered by the snapshot
+    private boolean spareFree;
+    // Whether a compaction is writing the snapshot
+    private boolean compacting;
+    // Used part of the other segment, cleared once the snapshot covering it is written
+    private int retiredLength;
+    // Whether entries were appended since the last flush
+    private final AtomicBoolean dirty;
+
+    // Background tasks
+    private ScheduledFuture<?> commitTask;
+    private ScheduledFuture<?> snapshotTask;
+
+    /**
+     * Opens (or creates) the log of a server in the directory selected by the village.state.dir property.
+     *
+     * @param name the name of the server, used as the name of its log directory
+     * @return the opened log
+     * @throws UncheckedIOException if the files cannot be opened
+     */
+    public static StateLog open(String name) {
+        Path directory = Paths.get(System.getProperty(DIRECTORY_PROPERTY, DEFAULT_DIRECTORY), name);
+        try {
+            return new StateLog(name, directory, DEFAULT_SEGMENT_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the state log of " + name, e);
+        }
+    }
+
+    /**
+     * Constructor for StateLog, mapping the log segment of a directory.
+     *
+     * @param name the name of the server
+     * @param directory the directory holding the log and the snapshot
+     * @param segmentSize the size of the log segment in bytes
+     * @throws IOException if the files cannot be opened
+     */
+    public StateLog(String name, Path directory, int segmentSize) throws IOException {
+        this.name = name;
+        Files.createDirectories(directory);
+        this.snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        this.channels = new FileChannel[LOG_FILES.length];
+        this.segments = new MappedByteBuffer[LOG_FILES.length];
+        for (int i = 0; i < LOG_FILES.length; i++) {
+            this.channels[i] = FileChannel.open(directory.resolve(LOG_FILES[i]), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.segments[i] = this.channels[i].map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, HEADER_SIZE + 64));
+        }
+        this.participants = new LinkedHashMap<>();
+        this.dirty = new AtomicBoolean();
+    }
+
+    /**
+     * Registers a participant. Participants registered before recover() get their saved state back,
+     * as do participants registered while it runs (e.g. by a participant that creates others when
+     * its own state is restored); participants registered later start from their current state.
+     *
+     * @param key unique key identifying the participant in the log (e.g. the resource name)
+     * @param participant the participant
+     * @return the journal through which the participant appends its updates
+     */
+    public synchronized Journal register(String key, Participant participant) {
+        if (this.participants.putIfAbsent(key, participant) != null) {
+            throw new IllegalArgumentException("Participant already registered: " + key);
+        }
+        return new Journal(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Restores the registered participants from the snapshot and replays the log written after it,
+     * then starts the group commit and snapshot tasks.
+     *
+     * @return the number of log entries replayed
+     * @throws UncheckedIOException if the snapshot cannot be read
+     */
+    public synchronized int recover() {
+        long start = System.nanoTime();
+        int restored = 0;
+        try {
+            restored = readSnapshot();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the snapshot of " + this.name, e);
+        }
+        // Replay the segments not covered by the snapshot, oldest first: the segment of the snapshot
+        // generation, and the next one if a crash interrupted the compaction of the former
+        long snapshotGeneration = this.generation;
+        int replayed = 0;
+        int segmentsReplayed = 0;
+        this.active = -1;
+        for (long next = snapshotGeneration; next <= snapshotGeneration + 1; next++) {
+            for (int i = 0; i < this.segments.length; i++) {
+                if (this.segments[i].getInt(0) == LOG_MAGIC && this.segments[i].getLong(8) == next) {
+                    replayed += replayLog(i);
+                    segmentsReplayed++;
+                    this.active = i;
+                    this.generation = next;
+                }
+            }
+        }
+        if (this.active < 0) {
+            // New log, or the log of an older generation left by a crash during a snapshot
+            this.active = 0;
+            clearSegment(this.segments[0], this.segments[0].capacity());
+            writeHeader(this.segments[0], this.generation);
+            this.segments[0].force();
+            this.position = HEADER_SIZE;
+        }
+        MappedByteBuffer spare = this.segments[1 - this.active];
+        if (segmentsReplayed > 1) {
+            // The other segment is not covered by the snapshot yet: compact it before it is reused
+            this.retiredLength = spare.capacity();
+            this.compacting = true;
+            try {
+                compact();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot compact the state log of " + this.name, e);
+            }
+        } else {
+            clearSegment(spare, spare.capacity());
+            spare.force();
+            this.spareFree = true;
+        }
+        LOG.info(String.format("Recovered %s: %d snapshot entries and %d log entries in %.1f ms",
+                this.name, restored, replayed, (System.nanoTime() - start) / 1e6));
+        this.commitTask = SCHEDULER.scheduleWithFixedDelay(this::commit, COMMIT_INTERVAL_MS, COMMIT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        this.snapshotTask = SCHEDULER.scheduleWithFixedDelay(this::snapshotQuietly, SNAPSHOT_INTERVAL_MS, SNAPSHOT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        return replayed;
+    }
+
+    /**
+     * Writes the state of every participant to a new snapshot and empties the log.
+     * The appends move on to the other segment first, and the snapshot is written on the calling
+     * thread without holding the lock of the log. The snapshot is made durable before the previous
+     * segment is cleared, so a crash at any point leaves either the old snapshot and both segments
+     * or the new snapshot and the segment written after it.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void snapshot() throws IOException {
+        synchronized (this) {
+            awaitCompaction(0);
+            if (this.spareFree) {
+                rotate();
+            } else {
+                // The previous compaction failed: write its snapshot again
+                this.compacting = true;
+            }
+        }
+        compact();
+    }
+
+    /**
+     * Flushes the log and stops the background tasks.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.commitTask != null) {
+            this.commitTask.cancel(false);
+            this.snapshotTask.cancel(false);
+        }
+        awaitCompaction(COMPACTION_TIMEOUT_MS);
+        this.segments[this.active].force();
+        for (FileChannel channel : this.channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.error("ERROR closing the state log of " + this.name, e);
+            }
+        }
+    }
+
+    /**
+     * Copies an entry into the mapped segment, moving on to the other segment first if this one is full.
+     */
+    private synchronized void append(byte[] key, byte[] payload) {
+        int bodyLength = 2 + key.length + payload.length;
+        int entryLength = ENTRY_HEADER_SIZE + bodyLength;
+        MappedByteBuffer segment = this.segments[this.active];
+        if (HEADER_SIZE + entryLength + 4 > segment.capacity()) {
+            throw new IllegalArgumentException("Log entry larger than the segment");
+        }
+        if (this.position + entryLength + 4 > segment.capacity()) {
+            switchSegment();
+            segment = this.segments[this.active];
+        }
+        CRC32 crc = new CRC32();
+        crc.update((byte) (key.length >>> 8));
+        crc.update((byte) key.length);
+        crc.update(key);
+        crc.update(payload);
+        ByteBuffer entry = segment.duplicate();
+        entry.position(this.position + 4);
+        entry.putInt((int) crc.getValue());
+        entry.putShort((short) key.length);
+        entry.put(key);
+        entry.put(payload);
+        // The length is written last, so a torn entry is never considered complete
+        segment.putInt(this.position, bodyLength);
+        this.position += entryLength;
+        this.dirty.set(true);
+    }
+
+    /**
+     * Moves the appends on to the other segment and compacts the full one in the background, waiting
+     * only if the other segment is still being compacted. Must hold the lock.
+     */
+    private void switchSegment() {
+        long deadline = System.currentTimeMillis() + COMPACTION_TIMEOUT_MS;
+        while (!this.spareFree) {
+            if (!this.compacting) {
+                // The previous compaction failed: try it again
+                this.compacting = true;
+                SCHEDULER.execute(this::compactQuietly);
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new UncheckedIOException(new IOException("Cannot compact the state log of " + this.name));
+            }
+            awaitQuietly(remaining);
+        }
+        rotate();
+        SCHEDULER.execute(this::compactQuietly);
+    }
+
+    /**
+     * Starts the next generation in the other segment, which must be empty, and marks the full one
+     * for compaction. Must hold the lock.
+     */
+    private void rotate() {
+        int next = 1 - this.active;
+        writeHeader(this.segments[next], this.generation + 1);
+        this.retiredLength = this.position;
+        this.active = next;
+        this.generation++;
+        this.position = HEADER_SIZE;
+        this.spareFree = false;
+        this.compacting = true;
+        this.dirty.set(true);
+    }
+
+    /**
+     * Writes a snapshot of the current generation, then clears the previous segment, which the snapshot
+     * covers. Only the state of the participants is copied with the log locked.
+     */
+    private void compact() throws IOException {
+        try {
+            byte[][] keys;
+            byte[][] states;
+            long snapshotGeneration;
+            MappedByteBuffer retired;
+            int length;
+            synchronized (this) {
+                keys = new byte[this.participants.size()][];
+                states = new byte[keys.length][];
+                int i = 0;
+                for (Map.Entry<String, Participant> participant : this.participants.entrySet()) {
+                    keys[i] = participant.getKey().getBytes(StandardCharsets.UTF_8);
+                    states[i] = participant.getValue().snapshot();
+                    i++;
+                }
+                snapshotGeneration = this.generation;
+                retired = this.segments[1 - this.active];
+                length = this.retiredLength;
+            }
+            writeSnapshot(snapshotGeneration, keys, states);
+            clearSegment(retired, length);
+            retired.force();
+            synchronized (this) {
+                this.spareFree = true;
+            }
+        } finally {
+            synchronized (this) {
+                this.compacting = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits for the running compaction, if any, to end. Must hold the lock.
+     *
+     * @param timeoutMs the maximum time to wait, or 0 to wait until it ends
+     */
+    private void awaitCompaction(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (this.compacting) {
+            long remaining = 0;
+            if (timeoutMs > 0) {
+                remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return;
+                }
+            }
+            awaitQuietly(remaining);
+        }
+    }
+
+    /**
+     * Waits to be notified of the end of a compaction. Must hold the lock.
+     */
+    private void awaitQuietly(long timeoutMs) {
+        try {
+            wait(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("Interrupted while compacting the state log of " + this.name));
+        }
+    }
+
+    /**
+     * Replays the entries of a segment, stopping at the first empty or damaged one, and makes
+     * the end of its entries the position of the next append.
+     */
+    private int replayLog(int index) {
+        MappedByteBuffer segment = this.segments[index];
+        int replayed = 0;
+        int offset = HEADER_SIZE;
+        int capacity = segment.capacity();
+        while (offset + ENTRY_HEADER_SIZE <= capacity) {
+            int bodyLength = segment.getInt(offset);
+            if (bodyLength < 2 || offset + ENTRY_HEADER_SIZE + bodyLength > capacity) {
+                break;
+            }
+            ByteBuffer body = segment.duplicate();
+            body.limit(offset + ENTRY_HEADER_SIZE + bodyLength).position(offset + ENTRY_HEADER_SIZE);
+            body = body.slice();
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != segment.getInt(offset + 4)) {
+                break; // torn write at the end of the log
+            }
+            byte[] key = new byte[body.getShort() & 0xFFFF];
+            body.get(key);
+            Participant participant = this.participants.get(new String(key, StandardCharsets.UTF_8));
+            if (participant != null) {
+                participant.replay(body.slice());
+            }
+            replayed++;
+            offset += ENTRY_HEADER_SIZE + bodyLength;
+        }
+        if (offset + 4 <= capacity && segment.getInt(offset) != 0) {
+            // Damaged entry: clear the rest of the segment, so later appends are not mixed with it
+            for (int i = offset; i < capacity; i++) {
+                segment.put(i, (byte) 0);
+            }
+        }
+        this.position = offset;
+        return replayed;
+    }
+
+    /**
+     * Zeroes the used part of a segment, header included.
+     */
+    private static void clearSegment(MappedByteBuffer segment, int used) {
+        int end = Math.min(used, segment.capacity());
+        int i = 0;
+        for (; i + 8 <= end; i += 8) {
+            segment.putLong(i, 0L);
+        }
+        for (; i < end; i++) {
+            segment.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Writes the header of a generation at the start of an empty segment.
+     */
+    private static void writeHeader(MappedByteBuffer segment, long segmentGeneration) {
+        segment.putInt(0, LOG_MAGIC);
+        segment.putInt(4, 0);
+        segment.putLong(8, segmentGeneration);
+    }
+
+    /**
+     * Restores the participants from the snapshot file, if there is one.
+     */
+    private int readSnapshot() throws IOException {
+        if (!Files.exists(this.snapshotPath)) {
+            this.generation = 0;
+            return 0;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(this.snapshotPath));
+        if (data.limit() < 20) {
+            throw new IOException("Damaged snapshot " + this.snapshotPath);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), 0, data.limit() - 4);
+        if (data.getInt(0) != SNAPSHOT_MAGIC || data.getInt(data.limit() - 4) != (int) crc.getValue()) {
+            throw new IOException("Damaged snapshot " + this.snapshotPath);
+        }
+        data.position(4);
+        this.generation = data.getLong();
+        int count = data.getInt();
+        for (int i = 0; i < count; i++) {
+            byte[] key = new byte[data.getShort() & 0xFFFF];
+            data.get(key);
+            int length = data.getInt();
+            ByteBuffer state = data.slice();
+            state.limit(length);
+            data.position(data.position() + length);
+            Participant participant = this.participants.get(new String(key, StandardCharsets.UTF_8));
+            if (participant != null) {
+                participant.restore(state);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the snapshot of the given generation to a temporary file, forces it to disk and
+     * atomically replaces the previous snapshot with it. Called without the lock.
+     */
+    private void writeSnapshot(long snapshotGeneration, byte[][] keys, byte[][] states) throws IOException {
+        int size = 4 + 8 + 4 + 4;
+        for (int i = 0; i < keys.length; i++) {
+            size += 2 + keys[i].length + 4 + states[i].length;
+        }
+        ByteBuffer data = ByteBuffer.allocate(size);
+        data.putInt(SNAPSHOT_MAGIC).putLong(snapshotGeneration).putInt(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            data.putShort((short) keys[i].length).put(keys[i]).putInt(states[i].length).put(states[i]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), 0, size - 4);
+        data.putInt((int) crc.getValue());
+        data.flip();
+
+        Path temporary = this.snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+            out.force(true);
+        }
+        Files.move(temporary, this.snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Group commit: forces the entries appended since the previous run to disk.
+     */
+    private void commit() {
+        if (this.dirty.getAndSet(false)) {
+            MappedByteBuffer segment;
+            synchronized (this) {
+                segment = this.segments[this.active];
+            }
+            segment.force();
+        }
+    }
+
+    /**
+     * Periodic snapshot: moves the appends on to the other segment and compacts the current one,
+     * unless nothing was appended or a compaction is already running.
+     */
+    private void snapshotQuietly() {
+        synchronized (this) {
+            if (this.compacting) {
+                return;
+            }
+            if (this.spareFree) {
+                if (this.position == HEADER_SIZE) {
+                    return;
+                }
+                rotate();
+            } else {
+                // The previous compaction failed: write its snapshot again
+                this.compacting = true;
+            }
+        }
+        compactQuietly();
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            LOG.error("ERROR writing the snapshot of " + this.name, e);
+        }
+    }
+}
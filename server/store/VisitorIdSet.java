@@ -0,0 +1,220 @@
+package it.unipr.iotlab.iot2024.cf.server.store;
+
+import java.util.Arrays;
+
+/**
+ * The VisitorIdSet class stores visitor identifiers as primitive ints in an
+ * open-addressing hash table with linear probing. Membership checks, inserts and
+ * size queries run in constant time, duplicates are detected on insert, and no
+ * Integer boxing takes place. The identifiers are also kept in the order they were
+ * added, so that the visitor log can be read back in ranges (see readOrdered).
+ * All methods are thread-safe, so the set can be shared between the Californium
+ * worker threads handling a resource.
+ */
+public class VisitorIdSet {
+
+    // Initial number of slots in the table (always a power of two)
+    private static final int DEFAULT_CAPACITY = 1024;
+    // The table is doubled once it is half full, keeping probe sequences short
+    private static final float LOAD_FACTOR = 0.5f;
+    // Marker for an unused slot; the identifier 0 is tracked in a separate flag
+    private static final int FREE = 0;
+
+    // Hash table holding the identifiers
+    private int[] table;
+    // Bit mask used to map a hash onto a slot (table.length - 1)
+    private int mask;
+    // Number of stored identifiers after which the table is resized
+    private int resizeThreshold;
+    // Whether the identifier 0 is part of the set
+    private boolean containsFree;
+    // Number of stored identifiers, readable without taking the lock
+    private volatile int size;
+    // Identifiers in the order they were added; only the first size entries are used
+    private int[] order;
+
+    /**
+     * Default constructor that creates an empty set with the default capacity.
+     */
+    public VisitorIdSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor that creates an empty set sized for the expected number of visitors,
+     * avoiding intermediate resizes when the daily volume is known in advance.
+     *
+     * @param expectedSize the number of identifiers the set is expected to hold
+     */
+    public VisitorIdSet(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+        this.order = new int[Math.max(expectedSize, 16)];
+    }
+
+    /**
+     * Adds an identifier to the set.
+     *
+     * @param id the visitor identifier
+     * @return true if the identifier was added, false if it was already present
+     */
+    public synchronized boolean add(int id) {
+        if (id == FREE) {
+            if (this.containsFree) {
+                return false;
+            }
+            this.containsFree = true;
+            appendOrdered(id);
+            return true;
+        }
+        int slot = slotOf(id);
+        while (this.table[slot] != FREE) {
+            if (this.table[slot] == id) {
+                return false;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        this.table[slot] = id;
+        appendOrdered(id);
+        if (this.size > this.resizeThreshold) {
+            rehash(this.table.length << 1);
+        }
+        return true;
+    }
+
+    /**
+     * Adds a batch of identifiers to the set as a single atomic operation, so that no
+     * other thread observes the set with only part of the batch applied.
+     *
+     * @param ids the visitor identifiers, in arrival order
+     * @return for each identifier, true if it was added and false if it was already present
+     *         (including earlier occurrences in the same batch)
+     */
+    public synchronized boolean[] addAll(int[] ids) {
+        boolean[] added = new boolean[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            added[i] = add(ids[i]);
+        }
+        return added;
+    }
+
+    /**
+     * Checks whether an identifier is part of the set.
+     *
+     * @param id the visitor identifier
+     * @return true if the identifier was previously added
+     */
+    public synchronized boolean contains(int id) {
+        if (id == FREE) {
+            return this.containsFree;
+        }
+        int slot = slotOf(id);
+        while (this.table[slot] != FREE) {
+            if (this.table[slot] == id) {
+                return true;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of identifiers in the set.
+     * @return the number of distinct identifiers added so far
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the identifiers in the set, in the order they were added.
+     * @return a new array holding every identifier
+     */
+    public synchronized int[] toArray() {
+        return Arrays.copyOf(this.order, this.size);
+    }
+
+    /**
+     * Copies a range of the identifiers, in the order they were added. Identifiers are only
+     * ever appended, so a position keeps referring to the same identifier until clear().
+     *
+     * @param from the position of the first identifier to copy
+     * @param dest the array receiving the identifiers, filled from index 0
+     * @return the number of identifiers copied, at most dest.length (0 if from is past the end)
+     */
+    public synchronized int readOrdered(int from, int[] dest) {
+        int count = Math.max(0, Math.min(dest.length, this.size - from));
+        if (count > 0) {
+            System.arraycopy(this.order, from, dest, 0, count);
+        }
+        return count;
+    }
+
+    /**
+     * Removes every identifier from the set, keeping the current table allocated.
+     */
+    public synchronized void clear() {
+        Arrays.fill(this.table, FREE);
+        this.containsFree = false;
+        this.size = 0;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the table and the insertion order, in bytes.
+     * @return the size of the backing arrays in bytes
+     */
+    public synchronized long footprintBytes() {
+        return 32L + 4L * this.table.length + 4L * this.order.length;
+    }
+
+    /**
+     * Records a new identifier at the end of the insertion order and counts it.
+     */
+    private void appendOrdered(int id) {
+        if (this.size == this.order.length) {
+            this.order = Arrays.copyOf(this.order, this.order.length << 1);
+        }
+        this.order[this.size] = id;
+        this.size++;
+    }
+
+    /**
+     * Maps an identifier onto its home slot, spreading sequential identifiers
+     * (the common case at the turnstiles) across the whole table.
+     */
+    private int slotOf(int id) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & this.mask;
+    }
+
+    /**
+     * Moves every identifier into a new table with the given number of slots.
+     */
+    private void rehash(int capacity) {
+        int[] old = this.table;
+        allocate(capacity);
+        for (int id : old) {
+            if (id != FREE) {
+                int slot = slotOf(id);
+                while (this.table[slot] != FREE) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.table[slot] = id;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+        this.resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int needed = (int) Math.min(1L << 30, (long) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR));
+        int capacity = Integer.highestOneBit(needed);
+        if (capacity < needed) {
+            capacity <<= 1;
+        }
+        return Math.max(capacity, 16);
+    }
+}